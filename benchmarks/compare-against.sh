@@ -0,0 +1,29 @@
+#!/bin/sh
+# Benchmarks a git ref and then the working tree on this machine, and compares the two runs.
+# Scores only compare on one machine, so this records the baseline fresh instead of reading
+# a checked-in one; in CI, pass the branch the change goes into.
+#
+# usage: benchmarks/compare-against.sh <ref> [--include regex] [--threshold pct]
+# exits 1 on a regression, as BenchmarkRunner --baseline does
+set -e
+
+ref=${1:?usage: $0 <ref> [--include regex] [--threshold pct]}
+shift
+bench=$(cd "$(dirname "$0")" && pwd)
+root=$(git -C "$bench" rev-parse --show-toplevel)
+work=$(mktemp -d)
+trap 'git -C "$root" worktree remove --force "$work/tree" >/dev/null 2>&1; rm -rf "$work"' EXIT
+
+build() {
+    mvn -q -B -f "$1/pom.xml" install -DskipTests
+    mvn -q -B -f "$1/benchmarks/pom.xml" package -DskipTests
+}
+
+git -C "$root" worktree add --detach "$work/tree" "$ref" >/dev/null
+build "$work/tree"
+# the runner writes target/jmh-results.csv under the current directory
+cd "$work"
+java -jar "$work/tree/benchmarks/target/benchmarks.jar" "$@" --record "$work/baseline.csv"
+
+build "$root"
+java -jar "$bench/target/benchmarks.jar" "$@" --baseline "$work/baseline.csv"
@@ -0,0 +1,142 @@
+package hm.shell.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Runs the benchmarks with the GC profiler and writes the results as CSV. Given a baseline from
+ * an earlier run, it compares against it, failing when throughput drops or allocation per
+ * operation grows by more than the threshold.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar [--include regex] [--record baseline.csv | --baseline baseline.csv [--threshold 10]]
+ * </pre>
+ *
+ * {@code --record} saves this run's results as a baseline. Scores only compare on the machine
+ * that produced them, so no baseline is checked in: record one before a change, compare after.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = "hm.shell.bench.*";
+        Path baseline = null;
+        Path record = null;
+        double threshold = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--include"   -> include = args[++i];
+                case "--baseline"  -> baseline = Path.of(args[++i]);
+                case "--threshold" -> threshold = Double.parseDouble(args[++i]);
+                case "--record"    -> record = Path.of(args[++i]);
+                default -> usage();
+            }
+        }
+        if (baseline != null && record != null) usage();
+        if (baseline != null && !Files.exists(baseline)) {
+            // checked before the run, which takes a while
+            System.err.println("No baseline at " + baseline + "; record one with --record " + baseline);
+            System.exit(2);
+        }
+
+        Path results = Path.of("target", "jmh-results.csv");
+        Files.createDirectories(results.getParent());
+        new Runner(new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.CSV)
+                .result(results.toString())
+                .build()).run();
+
+        if (record != null) {
+            Files.copy(results, record, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Recorded baseline " + record);
+        } else if (baseline != null) {
+            int regressions = compare(read(baseline), read(results), threshold);
+            if (regressions > 0) {
+                System.out.println(regressions + " regression(s) beyond " + threshold + "%");
+                System.exit(1);
+            }
+            System.out.println("No regressions beyond " + threshold + "% against " + baseline);
+        } else {
+            System.out.println("Results in " + results + "; compare runs with --record and --baseline");
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: BenchmarkRunner [--include regex] [--record file | --baseline file [--threshold pct]]");
+        System.exit(2);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Baseline comparison
+     *------------------------------------------------------------------*/
+
+    /** Prints and counts rows that got worse: lower throughput, or more bytes allocated per op */
+    static int compare(Map<String, Double> baseline, Map<String, Double> current, double thresholdPct) {
+        int regressions = 0;
+        for (Map.Entry<String, Double> e : current.entrySet()) {
+            Double before = baseline.get(e.getKey());
+            if (before == null || before == 0) continue;
+            double after = e.getValue();
+            double changePct = (after - before) / before * 100;
+
+            boolean allocation = e.getKey().contains("gc.alloc.rate.norm");
+            boolean throughput = !e.getKey().contains(":");
+            boolean worse = allocation ? changePct > thresholdPct : throughput && changePct < -thresholdPct;
+            if (worse) {
+                System.out.printf("REGRESSION %s: %.3f -> %.3f (%+.1f%%)%n", e.getKey(), before, after, changePct);
+                regressions++;
+            }
+        }
+        return regressions;
+    }
+
+    /** Reads a JMH CSV result file into "benchmark [params]" -> score */
+    static Map<String, Double> read(Path csv) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(csv);
+        if (lines.isEmpty()) return scores;
+        List<String> header = fields(lines.get(0));
+        int score = header.indexOf("Score");
+        for (String line : lines.subList(1, lines.size())) {
+            List<String> f = fields(line);
+            StringBuilder key = new StringBuilder(f.get(0));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ")) key.append(' ').append(header.get(i).substring(7)).append('=').append(f.get(i));
+            }
+            scores.put(key.toString(), Double.parseDouble(f.get(score)));
+        }
+        return scores;
+    }
+
+    /** Splits one CSV line, honouring double quotes */
+    private static List<String> fields(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else cur.append(c);
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
@@ -0,0 +1,261 @@
+package hm.shell.bench;
+
+import hm.shell.DecimalEvaluator;
+import hm.shell.Expression;
+import hm.shell.ExpressionCache;
+import hm.shell.ExpressionEvaluator;
+import hm.shell.IncrementalEvaluator;
+import hm.shell.MathOperations;
+import hm.shell.StreamingEvaluator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Differential fuzzing of the calculator pipeline against {@link ReferenceEvaluator}.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar hm.shell.bench.DifferentialRunner [--count n] [--seed s]
+ *      [--length chars] [--depth levels] [--invalid fraction]
+ * </pre>
+ *
+ * For each generated expression it runs what {@code CalculatorController} runs, a cached parse
+ * evaluated by {@link DecimalEvaluator} under DECIMAL64 and rounded to 4 places, plus the live
+ * preview, the interpreted and compiled double tiers and the streaming evaluator, and checks that
+ * <ul>
+ *   <li>the engine rejects exactly the inputs the reference rejects</li>
+ *   <li>both fail with the same arithmetic error, or give identical decimal and double results;
+ *       integer results must be exact</li>
+ *   <li>the preview and the compiled tier agree with the full decimal and interpreted results</li>
+ *   <li>the streaming evaluator gives the interpreted result, or the same error at the same place</li>
+ * </ul>
+ * Mismatches are printed with their shrunk form and the run exits with status 1.
+ */
+public class DifferentialRunner {
+
+    private static final MathContext MC = MathContext.DECIMAL64;
+    private static final int MAX_REPORTED = 20;
+
+    private final ExpressionCache cache = new ExpressionCache(new ExpressionEvaluator(ExpressionEvaluator.INTERPRET_ONLY), 256);
+    private final ExpressionEvaluator compiling = new ExpressionEvaluator(0);
+    private final DecimalEvaluator decimal = new DecimalEvaluator(MC);
+    private final IncrementalEvaluator preview = new IncrementalEvaluator(new ExpressionEvaluator(), decimal);
+    private final ReferenceEvaluator<BigDecimal> referenceDecimal = new ReferenceEvaluator<>(ReferenceEvaluator.decimal(MC));
+    private final ReferenceEvaluator<BigInteger> referenceInteger = new ReferenceEvaluator<>(ReferenceEvaluator.INTEGER);
+    private final ReferenceEvaluator<Double> referenceDouble = new ReferenceEvaluator<>(ReferenceEvaluator.DOUBLE);
+
+    private int accepted, rejected, failed, unsupported;
+
+    public static void main(String[] args) throws InterruptedException {
+        long count = 100_000, seed = System.nanoTime();
+        int length = 40, depth = 6;
+        double invalid = 0.3;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--count"   -> count = Long.parseLong(args[++i]);
+                    case "--seed"    -> seed = Long.parseLong(args[++i]);
+                    case "--length"  -> length = Integer.parseInt(args[++i]);
+                    case "--depth"   -> depth = Integer.parseInt(args[++i]);
+                    case "--invalid" -> invalid = Double.parseDouble(args[++i]);
+                    default -> throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("usage: DifferentialRunner [--count n] [--seed s] [--length chars] [--depth levels] [--invalid fraction]");
+            System.exit(2);
+        }
+
+        System.exit(runOnLargeStack(count, seed, length, depth, invalid) != 0 ? 1 : 0);
+    }
+
+    /**
+     * {@link #run} on a fresh runner, on a thread with room for deep expressions as the reference
+     * recurses once per nesting level; -1 if the run itself failed
+     */
+    static int runOnLargeStack(long count, long seed, int length, int depth, double invalidFraction) throws InterruptedException {
+        int[] mismatches = { -1 };
+        Thread run = new Thread(null, () -> mismatches[0] = new DifferentialRunner().run(count, seed, length, depth, invalidFraction),
+                "differential", 1L << 28);
+        run.start();
+        run.join();
+        return mismatches[0];
+    }
+
+    /** Runs count expressions and returns the number of mismatches */
+    int run(long count, long seed, int length, int depth, double invalidFraction) {
+        System.out.printf("seed %d, %d expressions up to %d characters and depth %d%n", seed, count, length, depth);
+        ExpressionGenerator generator = new ExpressionGenerator(seed, length, depth);
+        List<String> mismatches = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            String expr = generator.next(invalidFraction);
+            String problem = compare(expr);
+            if (problem == null) continue;
+            if (mismatches.size() < MAX_REPORTED) {
+                String small = shrink(expr);
+                mismatches.add(expr + "\n    " + problem + (small.equals(expr) ? "" : "\n    shrunk: " + small + "\n    " + compare(small)));
+            } else {
+                mismatches.add(expr);
+            }
+        }
+
+        System.out.printf("accepted %d (%d failed with an arithmetic error, %d not modelled by the reference), rejected %d%n",
+                accepted, failed, unsupported, rejected);
+        for (int i = 0; i < Math.min(mismatches.size(), MAX_REPORTED); i++) System.out.println("MISMATCH " + mismatches.get(i));
+        System.out.println(mismatches.isEmpty() ? "No mismatches" : mismatches.size() + " mismatch(es)");
+        return mismatches.size();
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Comparison
+     *------------------------------------------------------------------*/
+
+    /** Returns a description of how the pipeline disagrees with the reference, or null */
+    String compare(String expr) {
+        String streaming = compareStreaming(expr);
+        if (streaming != null) return streaming;
+
+        boolean valid;
+        try {
+            ReferenceEvaluator.check(expr);
+            valid = true;
+        } catch (ReferenceEvaluator.SyntaxError e) {
+            valid = false;
+        }
+
+        Expression parsed;
+        try {
+            parsed = cache.parse(expr);
+        } catch (MathOperations.CalcException e) {
+            if (valid) return "engine rejects valid input: " + e.getCode();
+            rejected++;
+            return null;
+        }
+        if (!valid) return "engine accepts invalid input";
+        accepted++;
+
+        String problem = compareDouble(expr, parsed);
+        if (problem != null) return problem;
+
+        // only now run the decimal pipeline, which the reference may have found too expensive to follow
+        BigDecimal expected;
+        String reference;
+        try {
+            expected = exactInteger(expr);
+            if (expected == null) expected = referenceDecimal.evaluate(expr).round(MC);
+            reference = expected.toString();
+        } catch (MathOperations.CalcException e) {
+            failed++;
+            expected = null;
+            reference = e.getCode().name();
+        } catch (ReferenceEvaluator.Unsupported e) {
+            unsupported++;
+            return null;
+        } catch (ReferenceEvaluator.SyntaxError e) {
+            throw new IllegalStateException(e);
+        }
+
+        BigDecimal actual;
+        try {
+            actual = decimal.evaluate(parsed);
+        } catch (MathOperations.CalcException e) {
+            return e.getCode().name().equals(reference) ? comparePreview(expr, e.getCode().name())
+                    : "decimal " + e.getCode() + " but reference " + reference;
+        }
+        if (expected == null || actual.compareTo(expected) != 0) return "decimal " + actual + " but reference " + reference;
+        return comparePreview(expr, outcome(() -> String.valueOf(MathOperations.round(actual, 4))));
+    }
+
+    /** The exact value if the expression stays within the integers, as the engine tries first; otherwise null */
+    private BigDecimal exactInteger(String expr) throws ReferenceEvaluator.SyntaxError {
+        try {
+            return new BigDecimal(referenceInteger.evaluate(expr));
+        } catch (MathOperations.CalcException | ReferenceEvaluator.Unsupported e) {
+            return null;
+        }
+    }
+
+    /** The live preview must show what evaluating gives */
+    private String comparePreview(String expr, String result) {
+        String live = outcome(() -> String.valueOf(MathOperations.round(preview.evaluate(expr), 4)));
+        return live.equals(result) ? null : "preview " + live + " but result " + result;
+    }
+
+    private String compareStreaming(String expr) {
+        String tree = located(() -> String.valueOf(cache.parse(expr).evaluate()));
+        String streamed = located(() -> {
+            try {
+                return String.valueOf(StreamingEvaluator.evaluate(new StringReader(expr)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return streamed.equals(tree) ? null : "streaming " + streamed + " but tree " + tree;
+    }
+
+    private String compareDouble(String expr, Expression parsed) {
+        String expected;
+        try {
+            expected = String.valueOf(referenceDouble.evaluate(expr));
+        } catch (MathOperations.CalcException e) {
+            expected = e.getCode().name();
+        } catch (ReferenceEvaluator.Unsupported | ReferenceEvaluator.SyntaxError e) {
+            throw new IllegalStateException(e);
+        }
+        String interpreted = outcome(() -> String.valueOf(parsed.evaluate()));
+        if (!interpreted.equals(expected)) return "interpreted " + interpreted + " but reference " + expected;
+        String compiled = outcome(() -> String.valueOf(compiling.parse(expr).evaluate()));
+        if (!compiled.equals(expected)) return "compiled " + compiled + " but reference " + expected;
+        return null;
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        String run() throws MathOperations.CalcException;
+    }
+
+    /** The step's result, or the name of its error code */
+    private static String outcome(Step step) {
+        try {
+            return step.run();
+        } catch (MathOperations.CalcException e) {
+            return e.getCode().name();
+        }
+    }
+
+    /** The step's result, or its error code with the position and length it reports */
+    private static String located(Step step) {
+        try {
+            return step.run();
+        } catch (MathOperations.CalcException e) {
+            return e.getCode() + " at " + e.getPosition() + "+" + e.getLength();
+        }
+    }
+
+    /** Greedily deletes characters while the expression still mismatches, for a readable report */
+    private String shrink(String expr) {
+        DifferentialRunner probe = new DifferentialRunner();
+        String current = expr;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int i = 0; i < current.length(); i++) {
+                String candidate = current.substring(0, i) + current.substring(i + 1);
+                if (!candidate.isEmpty() && probe.compare(candidate) != null) {
+                    current = candidate;
+                    progress = true;
+                    i--;
+                }
+            }
+        }
+        return current;
+    }
+}
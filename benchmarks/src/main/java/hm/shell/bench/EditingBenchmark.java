@@ -0,0 +1,117 @@
+package hm.shell.bench;
+
+import hm.shell.DecimalEvaluator;
+import hm.shell.ExpressionEvaluator;
+import hm.shell.ExpressionRope;
+import hm.shell.IncrementalEvaluator;
+import hm.shell.MathOperations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.MathContext;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A keystroke in a long pasted expression: one character typed and deleted again at a random
+ * caret, in {@link ExpressionRope} and in a flat buffer as the text field holds it, and the
+ * bracket check the live preview makes after it. {@code previewKeystroke} is the same in the
+ * preview's {@link IncrementalEvaluator}, which also splits the touched terms again and takes
+ * the revision the preview evaluates, in a long sum.
+ *
+ * <p>The text field keeps its own flat buffer and builds the whole String on every edit, and
+ * the rope is edited on top of that. {@code fieldKeystroke} is the field's part alone and
+ * {@code fieldAndRopeKeystroke} the whole keystroke in the app, so the two show what the rope adds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditingBenchmark {
+
+    @Param({ "1000", "100000", "10000000" })
+    public int length;
+
+    private ExpressionRope rope;
+    private StringBuilder flat;
+    private IncrementalEvaluator preview;
+    private StringBuilder field;
+    /** The field's textProperty, rebuilt on every edit */
+    private String shown;
+    private final SplittableRandom random = new SplittableRandom(1);
+
+    @Setup
+    public void setUp() throws MathOperations.CalcException {
+        String input = Inputs.ofLength("brackets", length);
+        rope = new ExpressionRope(input);
+        flat = new StringBuilder(input);
+        preview = new IncrementalEvaluator(new ExpressionEvaluator(), new DecimalEvaluator(MathContext.DECIMAL64));
+        preview.replace(0, 0, Inputs.ofLength("flat", length));
+        preview.revision();
+        field = new StringBuilder(preview.text());
+    }
+
+    @Benchmark
+    public boolean ropeKeystroke() {
+        int caret = random.nextInt(rope.length() + 1);
+        rope.insert(caret, "7");
+        rope.delete(caret, caret + 1);
+        return rope.balanced();
+    }
+
+    @Benchmark
+    public IncrementalEvaluator.Revision previewKeystroke() throws MathOperations.CalcException {
+        ExpressionRope text = preview.text();
+        int caret = 1 + random.nextInt(text.length());
+        preview.replace(caret, caret, "7");
+        IncrementalEvaluator.Revision revision = preview.revision();
+        preview.replace(caret, caret + 1, "");
+        return revision;
+    }
+
+    @Benchmark
+    public String fieldKeystroke() {
+        int caret = 1 + random.nextInt(field.length());
+        field.insert(caret, '7');
+        shown = field.toString();
+        field.deleteCharAt(caret);
+        return shown = field.toString();
+    }
+
+    @Benchmark
+    public String fieldAndRopeKeystroke() {
+        int caret = 1 + random.nextInt(field.length());
+        field.insert(caret, '7');
+        shown = field.toString();
+        preview.replace(caret, caret, "7");
+        field.deleteCharAt(caret);
+        preview.replace(caret, caret + 1, "");
+        return shown = field.toString();
+    }
+
+    @Benchmark
+    public int flatKeystroke() {
+        int caret = random.nextInt(flat.length() + 1);
+        flat.insert(caret, '7');
+        flat.deleteCharAt(caret);
+        int depth = 0;
+        for (int i = 0; i < flat.length(); i++) {
+            char c = flat.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,186 @@
+package hm.shell.bench;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * Random expressions in the calculator's full grammar, for fuzzing and stress runs:
+ * numbers, + - x ÷, implicit multiplication, brackets with a leading unary minus,
+ * √ both bare and bracketed, ! and superscript powers.
+ *
+ * <p>{@link #valid()} follows the grammar up to about {@code maxLength} characters and
+ * {@code maxDepth} nested brackets or roots. {@link #invalid()} applies one random corruption
+ * to a valid expression; a corruption can happen to leave it valid, so callers should judge
+ * validity with a reference rather than trust the label. The same seed gives the same sequence.
+ */
+public final class ExpressionGenerator {
+
+    private static final String[] OPERATORS = { "+", "-", "x", "÷" };
+    private static final char[] SUPERSCRIPTS = { '⁰', '¹', '²', '³', '⁴', '⁵', '⁶', '⁷', '⁸', '⁹' };
+    /** Characters inserted by corruptions: the alphabet plus a few that are never valid, non-ASCII digits among them */
+    private static final String NOISE = "0123456789.+-x÷√!()²³ a%,*/^e٣５";
+
+    private final SplittableRandom random;
+    private final int maxLength;
+    private final int maxDepth;
+
+    private StringBuilder out;
+
+    public ExpressionGenerator(long seed, int maxLength, int maxDepth) {
+        if (maxLength < 1) throw new IllegalArgumentException("maxLength must be positive: " + maxLength);
+        this.random = new SplittableRandom(seed);
+        this.maxLength = maxLength;
+        this.maxDepth = maxDepth;
+    }
+
+    /** {@link #invalid()} with probability {@code invalidFraction}, otherwise {@link #valid()} */
+    public String next(double invalidFraction) {
+        return random.nextDouble() < invalidFraction ? invalid() : valid();
+    }
+
+    /** A random expression in the grammar, up to about maxLength characters so short inputs stay common */
+    public String valid() {
+        out = new StringBuilder();
+        expression(0, 1 + random.nextInt(maxLength));
+        return out.toString();
+    }
+
+    /** A random expression of at least {@code length} characters: terms joined by + until long enough */
+    public String valid(int length) {
+        out = new StringBuilder(length + 64);
+        expression(0, Math.min(length, maxLength));
+        while (out.length() < length) {
+            out.append('+');
+            term(0, out.length() + Math.min(length - out.length(), maxLength));
+        }
+        return out.toString();
+    }
+
+    /** A valid expression with one random corruption */
+    public String invalid() {
+        StringBuilder s = new StringBuilder(valid());
+        int at = random.nextInt(s.length() + 1);
+        switch (random.nextInt(6)) {
+            case 0 -> { if (at < s.length()) s.deleteCharAt(at); }
+            case 1 -> s.insert(at, NOISE.charAt(random.nextInt(NOISE.length())));
+            case 2 -> s.insert(at, OPERATORS[random.nextInt(OPERATORS.length)]);
+            case 3 -> s.insert(at, random.nextBoolean() ? '(' : ')');
+            case 4 -> {
+                if (at + 1 < s.length()) {
+                    char c = s.charAt(at);
+                    s.setCharAt(at, s.charAt(at + 1));
+                    s.setCharAt(at + 1, c);
+                }
+            }
+            default -> s.setLength(at);
+        }
+        return s.toString();
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Grammar
+     *------------------------------------------------------------------*/
+
+    private void expression(int depth, int end) {
+        if (random.nextInt(8) == 0) out.append('-');
+        term(depth, end);
+        while (out.length() < end && random.nextInt(3) > 0) {
+            out.append(random.nextBoolean() ? '+' : '-');
+            term(depth, end);
+        }
+    }
+
+    private void term(int depth, int end) {
+        factor(depth, end);
+        while (out.length() < end && random.nextInt(3) == 0) {
+            int kind = random.nextInt(3);
+            if (kind == 2) {
+                // implicit: the next factor must not continue a number, as 2 then 3 would read 23
+                if (endsWithDigit()) {
+                    if (depth < maxDepth && random.nextBoolean()) bracket(depth, end);
+                    else root(depth, end);
+                } else {
+                    factor(depth, end);
+                }
+            } else {
+                out.append(kind == 0 ? 'x' : '÷');
+                factor(depth, end);
+            }
+        }
+    }
+
+    private void factor(int depth, int end) {
+        boolean deeper = depth < maxDepth && out.length() < end;
+        int kind = deeper ? random.nextInt(5) : 4;
+        switch (kind) {
+            case 0, 1 -> bracket(depth, end);
+            case 2 -> root(depth, end);
+            default -> {
+                number();
+                postfix();
+            }
+        }
+    }
+
+    private void bracket(int depth, int end) {
+        out.append('(');
+        expression(depth + 1, end);
+        out.append(')');
+        postfix();
+    }
+
+    /** √(...) with an optional exponent inside the root, or √ before a factor */
+    private void root(int depth, int end) {
+        out.append('√');
+        if (depth < maxDepth && random.nextBoolean()) {
+            out.append('(');
+            expression(depth + 1, end);
+            out.append(')');
+            postfix();
+        } else if (depth < maxDepth && random.nextInt(4) == 0) {
+            root(depth + 1, end);
+        } else {
+            number();
+            postfix();
+        }
+    }
+
+    private void number() {
+        switch (random.nextInt(8)) {
+            case 0 -> out.append('.').append(random.nextInt(100));
+            case 1 -> out.append(random.nextInt(100)).append('.').append(random.nextInt(1000));
+            case 2 -> out.append(random.nextInt(10)).append('.');
+            case 3 -> out.append(random.nextInt(100_000));
+            case 4 -> {
+                if (random.nextInt(8) > 0) {
+                    out.append(random.nextInt(10));
+                    break;
+                }
+                // more digits than a double holds, so only the decimal pipeline keeps them all
+                int digits = 17 + random.nextInt(10);
+                out.append(1 + random.nextInt(9));
+                for (int i = 1; i < digits; i++) out.append(random.nextInt(10));
+                if (random.nextBoolean()) out.insert(out.length() - random.nextInt(digits), '.');
+            }
+            default -> out.append(random.nextInt(10));
+        }
+    }
+
+    /** Mostly nothing; sometimes ! or a superscript power, kept small so results stay finite */
+    private void postfix() {
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            out.append('!');
+        } else if (kind == 1) {
+            out.append(SUPERSCRIPTS[2 + random.nextInt(3)]);
+        } else if (kind == 2 && random.nextInt(4) == 0) {
+            out.append(SUPERSCRIPTS[random.nextInt(10)]).append(SUPERSCRIPTS[random.nextInt(10)]);
+        }
+    }
+
+    private boolean endsWithDigit() {
+        char c = out.charAt(out.length() - 1);
+        return c >= '0' && c <= '9' || c == '.';
+    }
+}
@@ -0,0 +1,77 @@
+package hm.shell.bench;
+
+
+/**
+ * Generated benchmark inputs, one per workload shape.
+ * {@code size} is the length in characters for flat shapes and the nesting depth for nested ones.
+ */
+public final class Inputs {
+
+    private static final String[] OPERATORS = { "+", "-", "x", "÷" };
+    private static final char[] SUPERSCRIPTS = { '²', '³', '⁴' };
+
+    private Inputs() {}
+
+    public static String of(String shape, int size) {
+        return switch (shape) {
+            case "flat"      -> flatChain(size);
+            case "brackets"  -> nestedBrackets(size);
+            case "powers"    -> superscripts(size);
+            case "sqrt"      -> nestedSqrt(size);
+            case "factorial" -> nestedFactorial(size);
+            default -> throw new IllegalArgumentException("unknown shape " + shape);
+        };
+    }
+
+    /** The shape at about {@code length} characters, converting to a nesting depth for nested shapes */
+    public static String ofLength(String shape, int length) {
+        return switch (shape) {
+            case "brackets"  -> nestedBrackets(Math.max(1, length / 6));
+            case "sqrt"      -> nestedSqrt(Math.max(1, length / 5));
+            case "factorial" -> nestedFactorial(Math.max(1, length / 5));
+            default -> of(shape, length);
+        };
+    }
+
+    /** 1+2-3x4÷5+6... up to about {@code length} characters */
+    public static String flatChain(int length) {
+        StringBuilder sb = new StringBuilder(length + 8);
+        int i = 1;
+        sb.append(i);
+        while (sb.length() < length) {
+            sb.append(OPERATORS[i % OPERATORS.length]).append(i % 9 + 1);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    /** ((((1+1)÷2+1)÷2+1)...) with {@code depth} levels, the value staying at 2 */
+    public static String nestedBrackets(int depth) {
+        StringBuilder sb = new StringBuilder(depth * 8);
+        sb.append("(".repeat(depth)).append("1+1");
+        for (int i = 0; i < depth; i++) sb.append(")÷2+1");
+        return sb.toString();
+    }
+
+    /** 2²+3³x1.5⁴... up to about {@code length} characters */
+    public static String superscripts(int length) {
+        StringBuilder sb = new StringBuilder(length + 8);
+        int i = 0;
+        while (sb.length() < length) {
+            if (i > 0) sb.append(i % 2 == 0 ? '+' : 'x');
+            sb.append(i % 3 + 1).append(".5").append(SUPERSCRIPTS[i % SUPERSCRIPTS.length]);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    /** √(√(√(...√(2)...)+1)+1) with {@code depth} levels */
+    public static String nestedSqrt(int depth) {
+        return "√(".repeat(depth) + "2)" + "+1)".repeat(depth - 1);
+    }
+
+    /** (((3)!÷5)!÷5)!... with {@code depth} levels, staying small enough not to overflow */
+    public static String nestedFactorial(int depth) {
+        return "(".repeat(depth) + "3" + ")!÷5".repeat(depth);
+    }
+}
@@ -0,0 +1,81 @@
+package hm.shell.bench;
+
+import hm.shell.MathOperations;
+import hm.shell.ResultFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/** Raw cost of the MathOperations primitives, double and String forms, and of formatting a result */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathOperationsBenchmark {
+
+    // non-final so the JIT cannot constant-fold the operands
+    public double x = 7.25, y = 3.5;
+    public double n = 12, g = 4.5;
+    public String sx = "7.25", sy = "3.5";
+    public double result = 1234.56789;
+
+    private final StringBuilder text = new StringBuilder(32);
+
+    @Benchmark
+    public double applyDivide() throws MathOperations.CalcException {
+        return MathOperations.apply('÷', x, y);
+    }
+
+    @Benchmark
+    public double applyMultiply() throws MathOperations.CalcException {
+        return MathOperations.apply('x', x, y);
+    }
+
+    @Benchmark
+    public double power() {
+        return MathOperations.power(x, y);
+    }
+
+    @Benchmark
+    public double sqrt() throws MathOperations.CalcException {
+        return MathOperations.sqrt(x);
+    }
+
+    @Benchmark
+    public double factorialInteger() throws MathOperations.CalcException {
+        return MathOperations.factorial(n);
+    }
+
+    @Benchmark
+    public double factorialGamma() throws MathOperations.CalcException {
+        return MathOperations.factorial(g);
+    }
+
+    @Benchmark
+    public double divideStrings() throws MathOperations.CalcException {
+        return MathOperations.divide(sx, sy);
+    }
+
+    @Benchmark
+    public int formatResult() throws MathOperations.CalcException {
+        text.setLength(0);
+        return ResultFormat.DEFAULT.format(result, text).length();
+    }
+
+    /** What results were written with before ResultFormat */
+    @Benchmark
+    public String roundAndToString() throws MathOperations.CalcException {
+        return String.valueOf(MathOperations.round(result, 4));
+    }
+}
@@ -0,0 +1,92 @@
+package hm.shell.bench;
+
+import hm.shell.DecimalEvaluator;
+import hm.shell.Expression;
+import hm.shell.ExpressionEvaluator;
+import hm.shell.Lexer;
+import hm.shell.MathOperations;
+import hm.shell.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Throughput of each evaluation stage over generated inputs.
+ * The shapes stand in for the old string-rewrite stages: flat operator chains (calculateFormatted),
+ * nested brackets (evaluateParentheses), superscripts (handlePowers), nested √(...) (handleSqrt)
+ * and nested (...)! (handleFactorial).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({ "flat", "brackets", "powers", "sqrt", "factorial" })
+    public String shape;
+
+    /** Characters for flat shapes, nesting depth for nested ones */
+    @Param({ "16", "128", "1024" })
+    public int size;
+
+    private String input;
+    private Expression interpreted;
+    private Expression compiled;
+
+    private final ExpressionEvaluator interpreter = new ExpressionEvaluator(ExpressionEvaluator.INTERPRET_ONLY);
+    private final DecimalEvaluator decimal = new DecimalEvaluator(MathContext.DECIMAL64);
+
+    @Setup
+    public void setUp() throws MathOperations.CalcException {
+        input = Inputs.of(shape, size);
+        interpreted = interpreter.parse(input);
+        compiled = new ExpressionEvaluator(0).parse(input);
+    }
+
+    @Benchmark
+    public List<Token> tokenize() throws MathOperations.CalcException {
+        return Lexer.tokenize(input);
+    }
+
+    @Benchmark
+    public Expression parse() throws MathOperations.CalcException {
+        return interpreter.parse(input);
+    }
+
+    @Benchmark
+    public double interpret() throws MathOperations.CalcException {
+        return interpreted.evaluate();
+    }
+
+    @Benchmark
+    public double compiled() throws MathOperations.CalcException {
+        return compiled.evaluate();
+    }
+
+    @Benchmark
+    public BigDecimal decimal() throws MathOperations.CalcException {
+        return decimal.evaluate(interpreted);
+    }
+
+    /** What the calculator does per "=": parse, evaluate, round */
+    @Benchmark
+    public double endToEnd() throws MathOperations.CalcException {
+        return MathOperations.round(interpreter.parse(input).evaluate(), 4);
+    }
+}
@@ -0,0 +1,341 @@
+package hm.shell.bench;
+
+import hm.shell.DecimalEvaluator;
+import hm.shell.ErrorCode;
+import hm.shell.MathOperations;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+
+/**
+ * A deliberately simple second implementation of the calculator grammar, for differential
+ * testing: a textbook recursive-descent evaluator straight over the characters, with no
+ * lexer, tree, folding, sharing, caching or compilation. It shares only the arithmetic
+ * primitives with the engine, so any disagreement points at the pipeline in between.
+ *
+ * <p>Surrounding whitespace is ignored, as by the engine's lexer.
+ * The input is first checked for syntax in a pass without arithmetic, then evaluated,
+ * so a syntax error anywhere wins over an arithmetic error earlier in the text, as in the engine.
+ * Recursion is as deep as the nesting, so run it on a thread with a large stack.
+ */
+public final class ReferenceEvaluator<T> {
+
+    /** Rejected input: the engine must reject it too */
+    public static final class SyntaxError extends Exception {
+        public SyntaxError(String msg, int position) {
+            super(msg + " at " + position, null, false, false);
+        }
+    }
+
+    /** A step the reference does not model, e.g. a non-integer factorial; the result is not compared */
+    public static final class Unsupported extends Exception {
+        public Unsupported(String msg) {
+            super(msg, null, false, false);
+        }
+    }
+
+    /** The arithmetic a value type provides */
+    public interface Arithmetic<T> {
+        /** A literal, exactly as written */
+        T number(String literal) throws Unsupported;
+        T apply(char op, T x, T y) throws MathOperations.CalcException, Unsupported;
+        /** base to the power of a superscript exponent, given as its digits */
+        T power(T base, String exponent) throws Unsupported;
+        T sqrt(T x) throws MathOperations.CalcException, Unsupported;
+        T factorial(T x) throws MathOperations.CalcException, Unsupported;
+    }
+
+    /** Syntax only: every value is null */
+    private static final Arithmetic<Object> SYNTAX = new Arithmetic<>() {
+        @Override public Object number(String literal) { return null; }
+        @Override public Object apply(char op, Object x, Object y) { return null; }
+        @Override public Object power(Object base, String exponent) { return null; }
+        @Override public Object sqrt(Object x) { return null; }
+        @Override public Object factorial(Object x) { return null; }
+    };
+
+    /** The double arithmetic of the interpreter, through the same {@link MathOperations} calls */
+    public static final Arithmetic<Double> DOUBLE = new Arithmetic<>() {
+        @Override public Double number(String literal) { return Double.parseDouble(literal); }
+
+        @Override
+        public Double apply(char op, Double x, Double y) throws MathOperations.CalcException {
+            return MathOperations.apply(op, x, y);
+        }
+
+        @Override public Double power(Double base, String exponent) { return MathOperations.power(base, Double.parseDouble(exponent)); }
+        @Override public Double sqrt(Double x) throws MathOperations.CalcException { return MathOperations.sqrt(x); }
+
+        @Override
+        public Double factorial(Double x) throws MathOperations.CalcException {
+            return MathOperations.factorial(x);
+        }
+    };
+
+    /**
+     * Exact integers up to {@link DecimalEvaluator#MAX_EXACT_BITS}, the engine's first choice; any step
+     * that leaves them, or fails, is Unsupported, so the expression is judged by {@link #decimal} instead
+     */
+    public static final Arithmetic<BigInteger> INTEGER = new Arithmetic<>() {
+        @Override
+        public BigInteger number(String literal) throws Unsupported {
+            return exact(new BigDecimal(literal));
+        }
+
+        @Override
+        public BigInteger apply(char op, BigInteger x, BigInteger y) throws Unsupported {
+            return switch (op) {
+                case '+' -> x.add(y);
+                case '-' -> x.subtract(y);
+                case 'x' -> bounded((long) x.bitLength() + y.bitLength(), () -> x.multiply(y));
+                default -> {
+                    if (y.signum() == 0) throw new Unsupported("÷ 0");
+                    BigInteger[] qr = x.divideAndRemainder(y);
+                    if (qr[1].signum() != 0) throw new Unsupported("inexact ÷");
+                    yield qr[0];
+                }
+            };
+        }
+
+        @Override
+        public BigInteger power(BigInteger base, String exponent) throws Unsupported {
+            BigInteger n = new BigInteger(exponent);
+            if (base.abs().compareTo(BigInteger.ONE) <= 0) return base.pow(n.signum() == 0 ? 0 : n.testBit(0) ? 1 : 2);
+            if (n.bitLength() > 31) throw new Unsupported("power " + n);
+            return bounded((long) base.bitLength() * n.intValue(), () -> base.pow(n.intValue()));
+        }
+
+        @Override
+        public BigInteger sqrt(BigInteger x) throws Unsupported {
+            if (x.signum() < 0) throw new Unsupported("√ of a negative");
+            BigInteger r = x.sqrt();
+            if (!r.multiply(r).equals(x)) throw new Unsupported("inexact √");
+            return r;
+        }
+
+        @Override
+        public BigInteger factorial(BigInteger x) throws Unsupported {
+            if (x.signum() < 0 || x.compareTo(BigInteger.valueOf(MAX_FACTORIAL)) > 0) throw new Unsupported("factorial " + x);
+            BigInteger product = BigInteger.ONE;
+            for (int i = 2; i <= x.intValue(); i++) product = product.multiply(BigInteger.valueOf(i));
+            return product;
+        }
+
+        private static BigInteger exact(BigDecimal x) throws Unsupported {
+            try {
+                return x.toBigIntegerExact();
+            } catch (ArithmeticException e) {
+                throw new Unsupported("not an integer");
+            }
+        }
+
+        private interface Result {
+            BigInteger get();
+        }
+
+        private static BigInteger bounded(long bits, Result result) throws Unsupported {
+            if (bits > DecimalEvaluator.MAX_EXACT_BITS) throw new Unsupported("beyond " + DecimalEvaluator.MAX_EXACT_BITS + " bits");
+            return result.get();
+        }
+    };
+
+    /** Beyond this the exact product is too slow to be worth checking */
+    private static final int MAX_FACTORIAL = 2000;
+
+    /** Decimal arithmetic rounded to mc after every step, as {@link DecimalEvaluator} does */
+    public static Arithmetic<BigDecimal> decimal(MathContext mc) {
+        return new Arithmetic<>() {
+            @Override public BigDecimal number(String literal) { return new BigDecimal(literal); }
+
+            @Override
+            public BigDecimal apply(char op, BigDecimal x, BigDecimal y) throws MathOperations.CalcException {
+                return switch (op) {
+                    case '+' -> x.add(y, mc);
+                    case '-' -> x.subtract(y, mc);
+                    case 'x' -> x.multiply(y, mc);
+                    default -> {
+                        if (y.signum() == 0) throw ErrorCode.DIVISION_BY_ZERO.exception();
+                        yield x.divide(y, mc);
+                    }
+                };
+            }
+
+            @Override
+            public BigDecimal power(BigDecimal base, String exponent) throws Unsupported {
+                try {
+                    return base.pow(Integer.parseInt(exponent), mc);
+                } catch (NumberFormatException | ArithmeticException e) {
+                    throw new Unsupported("power " + exponent);
+                }
+            }
+
+            @Override
+            public BigDecimal sqrt(BigDecimal x) throws MathOperations.CalcException {
+                if (x.signum() < 0) throw ErrorCode.NEGATIVE_SQRT.exception();
+                return x.sqrt(mc);
+            }
+
+            @Override
+            public BigDecimal factorial(BigDecimal x) throws MathOperations.CalcException, Unsupported {
+                if (x.signum() < 0) throw ErrorCode.NEGATIVE_FACTORIAL.exception();
+                BigInteger n;
+                try {
+                    n = x.toBigIntegerExact();
+                } catch (ArithmeticException e) {
+                    throw new Unsupported("non-integer factorial");
+                }
+                if (n.compareTo(BigInteger.valueOf(DecimalEvaluator.MAX_EXACT_FACTORIAL)) > 0) {
+                    throw ErrorCode.FACTORIAL_TOO_LARGE.exception();
+                }
+                if (n.intValue() > MAX_FACTORIAL) throw new Unsupported("factorial " + n);
+                BigInteger product = BigInteger.ONE;
+                for (int i = 2; i <= n.intValue(); i++) product = product.multiply(BigInteger.valueOf(i));
+                return new BigDecimal(product, mc);
+            }
+        };
+    }
+
+    private final Arithmetic<T> arithmetic;
+    private String text;
+    private int pos;
+
+    public ReferenceEvaluator(Arithmetic<T> arithmetic) {
+        this.arithmetic = arithmetic;
+    }
+
+    /** Throws SyntaxError if the engine should reject the text */
+    public static void check(String text) throws SyntaxError {
+        try {
+            new ReferenceEvaluator<>(SYNTAX).run(text);
+        } catch (MathOperations.CalcException | Unsupported e) {
+            throw new IllegalStateException("syntax pass did arithmetic", e);
+        }
+    }
+
+    /** Evaluates text the engine accepts; check it first */
+    public T evaluate(String text) throws SyntaxError, MathOperations.CalcException, Unsupported {
+        return run(text);
+    }
+
+    private T run(String text) throws SyntaxError, MathOperations.CalcException, Unsupported {
+        this.text = text.strip();
+        this.pos = 0;
+        if (this.text.isEmpty()) throw new SyntaxError("empty", 0);
+        T value = expression();
+        if (pos != this.text.length()) throw new SyntaxError("unexpected '" + peek() + "'", pos);
+        return value;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Grammar
+     *------------------------------------------------------------------*/
+
+    /** ['-'] term (('+' | '-') term)* */
+    private T expression() throws SyntaxError, MathOperations.CalcException, Unsupported {
+        boolean negate = peek() == '-';
+        if (negate) pos++;
+        T value = term();
+        if (negate) value = arithmetic.apply('-', arithmetic.number("0"), value);
+        while (peek() == '+' || peek() == '-') {
+            char op = text.charAt(pos++);
+            value = arithmetic.apply(op, value, term());
+        }
+        return value;
+    }
+
+    /** factor (('x' | '÷' | nothing) factor)* */
+    private T term() throws SyntaxError, MathOperations.CalcException, Unsupported {
+        T value = factor();
+        while (true) {
+            char c = peek();
+            if (c == 'x' || c == '÷') {
+                pos++;
+                value = arithmetic.apply(c, value, factor());
+            } else if (startsOperand(c)) {
+                value = arithmetic.apply('x', value, factor());
+            } else {
+                return value;
+            }
+        }
+    }
+
+    /** √(expression) with an exponent inside the root, √factor, or a primary; then postfix ! and powers */
+    private T factor() throws SyntaxError, MathOperations.CalcException, Unsupported {
+        char c = peek();
+        if (c == '√') {
+            pos++;
+            if (peek() == '(') {
+                T inside = bracket();
+                if (isSuperscript(peek())) inside = arithmetic.power(inside, superscript());
+                return postfix(arithmetic.sqrt(inside));
+            }
+            if (!startsOperand(peek())) throw new SyntaxError("√ without operand", pos);
+            return arithmetic.sqrt(factor());
+        }
+        if (c == '(') return postfix(bracket());
+        if (isDigit(c) || c == '.') return postfix(number());
+        throw new SyntaxError(pos < text.length() ? "unexpected '" + c + "'" : "unexpected end", pos);
+    }
+
+    private T bracket() throws SyntaxError, MathOperations.CalcException, Unsupported {
+        pos++;
+        if (peek() == ')') throw new SyntaxError("empty brackets", pos);
+        T value = expression();
+        if (peek() != ')') throw new SyntaxError("unclosed bracket", pos);
+        pos++;
+        return value;
+    }
+
+    private T postfix(T value) throws MathOperations.CalcException, Unsupported {
+        while (true) {
+            if (peek() == '!') {
+                pos++;
+                value = arithmetic.factorial(value);
+            } else if (isSuperscript(peek())) {
+                value = arithmetic.power(value, superscript());
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private T number() throws SyntaxError, Unsupported {
+        int start = pos;
+        boolean dot = false;
+        while (isDigit(peek()) || peek() == '.') {
+            if (peek() == '.') {
+                if (dot) throw new SyntaxError("second dot", pos);
+                dot = true;
+            }
+            pos++;
+        }
+        if (pos - start == 1 && dot) throw new SyntaxError("lone dot", start);
+        return arithmetic.number(text.substring(start, pos));
+    }
+
+    private String superscript() {
+        StringBuilder digits = new StringBuilder();
+        while (isSuperscript(peek())) digits.append("⁰¹²³⁴⁵⁶⁷⁸⁹".indexOf(text.charAt(pos++)));
+        return digits.toString();
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private static boolean startsOperand(char c) {
+        return isDigit(c) || c == '.' || c == '(' || c == '√';
+    }
+
+    /** ASCII digits only, as the calculator reads them */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSuperscript(char c) {
+        return c != 0 && "⁰¹²³⁴⁵⁶⁷⁸⁹".indexOf(c) >= 0;
+    }
+}
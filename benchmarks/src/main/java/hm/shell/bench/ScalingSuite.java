@@ -0,0 +1,171 @@
+package hm.shell.bench;
+
+import hm.shell.DecimalEvaluator;
+import hm.shell.Expression;
+import hm.shell.ExpressionEvaluator;
+import hm.shell.MathOperations;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+
+/**
+ * Measures how parsing and evaluation scale as the input grows tenfold at a time, from
+ * 10 characters up to {@code --max} (10 MB by default), for each {@link Inputs} shape and
+ * for random expressions from {@link ExpressionGenerator}.
+ *
+ * <pre>
+ * java -Xmx8g -cp target/benchmarks.jar hm.shell.bench.ScalingSuite [--max chars] [--shapes a,b,...]
+ * </pre>
+ *
+ * Each row gives the time to parse, to evaluate in double and in decimal, the bytes allocated
+ * and the peak heap, and the growth exponent k of the total time against the previous size
+ * (time ~ n^k): about 1 is linear, 2 or more shows a quadratic corner. Random expressions
+ * mostly end in an arithmetic error at large sizes; the row says so and times the work up to it.
+ * A shape stops growing once a size takes longer than a minute or runs out of memory or stack.
+ * Results are also written to {@code target/scaling.csv}.
+ */
+public class ScalingSuite {
+
+    private static final List<String> SHAPES = List.of("flat", "brackets", "powers", "sqrt", "factorial", "random");
+    private static final long STAGE_LIMIT_NANOS = 60_000_000_000L;
+    /** Repeat small sizes until each stage has run this long, and report the best run */
+    private static final long MIN_MEASURE_NANOS = 100_000_000L;
+
+    private static final ExpressionEvaluator EVALUATOR = new ExpressionEvaluator(ExpressionEvaluator.INTERPRET_ONLY);
+    private static final DecimalEvaluator DECIMAL = new DecimalEvaluator(MathContext.DECIMAL64);
+
+    private record Row(String shape, int chars, long parseNanos, long evalNanos, long decimalNanos,
+                       long allocated, long peakHeap, String outcome) {
+        long totalNanos() { return parseNanos + evalNanos + decimalNanos; }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int max = 10_000_000;
+        List<String> shapes = SHAPES;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--max"    -> max = Integer.parseInt(args[++i]);
+                    case "--shapes" -> shapes = List.of(args[++i].split(","));
+                    default -> throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("usage: ScalingSuite [--max chars] [--shapes a,b,...]");
+            System.exit(2);
+        }
+
+        Path csv = Path.of("target", "scaling.csv");
+        Files.createDirectories(csv.getParent());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv))) {
+            out.println("shape,chars,parse_ms,eval_ms,decimal_ms,allocated_mb,peak_heap_mb,outcome");
+            System.out.printf("%-10s %10s %10s %10s %10s %10s %10s %6s  %s%n",
+                    "shape", "chars", "parse ms", "eval ms", "decimal ms", "alloc MB", "peak MB", "k", "outcome");
+            for (String shape : shapes) {
+                Row previous = null;
+                for (long chars = 10; chars <= max; chars *= 10) {
+                    Row row = measure(shape, (int) chars);
+                    String growth = previous == null || previous.totalNanos() == 0 ? "" : String.format("%.2f",
+                            Math.log((double) row.totalNanos() / previous.totalNanos()) / Math.log((double) row.chars / previous.chars));
+                    System.out.printf("%-10s %10d %10.3f %10.3f %10.3f %10.1f %10.1f %6s  %s%n", shape, row.chars,
+                            millis(row.parseNanos), millis(row.evalNanos), millis(row.decimalNanos),
+                            mb(row.allocated), mb(row.peakHeap), growth, row.outcome);
+                    out.printf("%s,%d,%.3f,%.3f,%.3f,%.1f,%.1f,%s%n", shape, row.chars, millis(row.parseNanos),
+                            millis(row.evalNanos), millis(row.decimalNanos), mb(row.allocated), mb(row.peakHeap), row.outcome);
+                    out.flush();
+                    if (row.outcome.contains("memory") || row.outcome.contains("stack")) break;
+                    if (row.totalNanos() > STAGE_LIMIT_NANOS) break;
+                    previous = row;
+                }
+            }
+        }
+        System.out.println("Wrote " + csv);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Measurement
+     *------------------------------------------------------------------*/
+
+    private static Row measure(String shape, int chars) {
+        String input = shape.equals("random")
+                ? new ExpressionGenerator(chars, chars, 8).valid(chars)
+                : Inputs.ofLength(shape, chars);
+        long parse = 0, eval = 0, decimal = 0;
+        String outcome = "ok";
+
+        System.gc();
+        List<MemoryPoolMXBean> heap = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(p -> p.getType() == MemoryType.HEAP).toList();
+        long before = heap.stream().mapToLong(p -> p.getUsage().getUsed()).sum();
+        heap.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long allocatedBefore = allocatedBytes();
+        long allocated = 0, peak = 0;
+        try {
+            // memory of one pass through all stages, then the timings
+            Expression expression = EVALUATOR.parse(input);
+            outcome = outcome(expression::evaluate);
+            if (outcome.equals("ok")) outcome = outcome(() -> DECIMAL.evaluate(expression));
+            allocated = allocatedBytes() - allocatedBefore;
+            peak = heap.stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum() - before;
+
+            // an arithmetic error ends evaluation early, but the time up to it still counts
+            parse = best(() -> EVALUATOR.parse(input));
+            eval = best(expression::evaluate);
+            decimal = best(() -> DECIMAL.evaluate(expression));
+        } catch (MathOperations.CalcException e) {
+            outcome = "rejected " + e.getCode();
+        } catch (OutOfMemoryError e) {
+            outcome = "out of memory";
+        } catch (StackOverflowError e) {
+            outcome = "stack overflow";
+        }
+        return new Row(shape, input.length(), parse, eval, decimal, allocated, Math.max(0, peak), outcome);
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        Object run() throws MathOperations.CalcException;
+    }
+
+    /** Fastest of as many runs as fit in the minimum measuring time, and at least one */
+    private static long best(Stage stage) {
+        long best = Long.MAX_VALUE;
+        long spent = 0;
+        do {
+            long start = System.nanoTime();
+            outcome(stage);
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            spent += elapsed;
+        } while (spent < MIN_MEASURE_NANOS);
+        return best;
+    }
+
+    /** "ok", or "error" and the code the stage failed with */
+    private static String outcome(Stage stage) {
+        try {
+            stage.run();
+            return "ok";
+        } catch (MathOperations.CalcException e) {
+            return "error " + e.getCode();
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean t
+                ? t.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    private static double millis(long nanos) { return nanos / 1e6; }
+
+    private static double mb(long bytes) { return bytes / (1024.0 * 1024.0); }
+}
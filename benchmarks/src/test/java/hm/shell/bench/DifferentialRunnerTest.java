@@ -0,0 +1,31 @@
+package hm.shell.bench;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * A short differential run on fixed seeds: every generated expression must give the reference
+ * result in the interpreted, compiled, decimal, preview and streaming tiers. A failure prints
+ * the mismatching expressions; reproduce with {@code DifferentialRunner --seed s}.
+ */
+class DifferentialRunnerTest {
+
+    @Test
+    void shortExpressions() throws InterruptedException {
+        assertEquals(0, DifferentialRunner.runOnLargeStack(5_000, 1, 40, 6, 0.3));
+    }
+
+    @Test
+    void deepExpressions() throws InterruptedException {
+        assertEquals(0, DifferentialRunner.runOnLargeStack(500, 2, 400, 40, 0.3));
+    }
+
+    @Test
+    void sameSeedSameExpressions() {
+        ExpressionGenerator a = new ExpressionGenerator(3, 40, 6);
+        ExpressionGenerator b = new ExpressionGenerator(3, 40, 6);
+        for (int i = 0; i < 100; i++) assertEquals(a.next(0.3), b.next(0.3));
+    }
+}
@@ -1,6 +1,7 @@
 package hm.app.calculatorapp;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.image.Image;
@@ -15,15 +16,29 @@ public class CalculatorApplication extends Application {
         FXMLLoader fxmlLoader = new FXMLLoader(CalculatorApplication.class.getResource("Calculator.fxml"));
         Scene scene = new Scene(fxmlLoader.load(), 455, 671);
         stage.setTitle("Calculator");
-        // Load and set icon
-        stage.getIcons().add(new Image(Objects.requireNonNull(getClass().getResourceAsStream("/app-icon.png"))));
 
         stage.setScene(scene);
         stage.setResizable(false);
         stage.show();
+
+        afterFirstFrame(scene, () -> {
+            // Load and set icon, which the first frame does not need
+            stage.getIcons().add(new Image(Objects.requireNonNull(getClass().getResourceAsStream("/app-icon.png"))));
+            if (StartupProbe.ENABLED) StartupProbe.firstFrame();
+        });
+    }
+
+    /** Runs task once the scene's first pulse has been laid out and rendered */
+    private static void afterFirstFrame(Scene scene, Runnable task) {
+        Runnable[] listener = new Runnable[1];
+        listener[0] = () -> {
+            scene.removePostLayoutPulseListener(listener[0]);
+            Platform.runLater(task);
+        };
+        scene.addPostLayoutPulseListener(listener[0]);
     }
 
     public static void main(String[] args) {
         launch();
     }
-}
\ No newline at end of file
+}
@@ -1,19 +1,33 @@
 package hm.app.calculatorapp;
 
+import hm.shell.AsyncEvaluator;
+import hm.shell.DecimalEvaluator;
+import hm.shell.ErrorCode;
+import hm.shell.ExpressionCache;
+import hm.shell.ExpressionEvaluator;
+import hm.shell.ExpressionRope;
+import hm.shell.HistoryLog;
+import hm.shell.IncrementalEvaluator;
 import hm.shell.MathOperations;
+import hm.shell.ResultFormat;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TextFormatter;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyCodeCombination;
 import javafx.scene.layout.AnchorPane;
+import javafx.util.Duration;
 
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.math.MathContext;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.regex.Pattern;
 
 
 public class CalculatorController {
@@ -37,15 +51,50 @@ public class CalculatorController {
     /*------------------------------------------------------------------
      *  Constants / helpers
      *------------------------------------------------------------------*/
-    private static final char[] SUPERSCRIPT_DIGITS = { '⁰','¹','²','³','⁴','⁵','⁶','⁷','⁸','⁹' };
-    private static final char[] OPERATORS          = { '÷','x','+','-' };
-    private static final char[] PRIMARY_OPERATORS = { '÷','x' };
-    private static final char[] SECONDARY_OPERATORS = { '+','-' };
-    private static final Pattern NUMBER_PATTERN =
-            Pattern.compile("^[+-]?(?:\\d+(?:\\.\\d*)?|\\.\\d+)(?:[eE][+-]?\\d+)?");
+    /** Thread-safe, so one engine and cache serve every controller */
+    private static final ExpressionCache CACHE = new ExpressionCache(new ExpressionEvaluator(), 256);
 
-    /** Flag: resets calculator input screen */
-    private boolean clearInput = false;
+    /** Decimal evaluation, so display rounding sees exact decimal digits rather than binary ones */
+    private static final DecimalEvaluator DECIMAL = new DecimalEvaluator(MathContext.DECIMAL64);
+
+    /** Up to 4 places; exact integers in full up to 34 digits, beyond 10^21 in scientific notation */
+    private static final ResultFormat DISPLAY = new ResultFormat(ResultFormat.Notation.AUTO, 34, 4, false, true);
+
+    /** Typing pause before the live preview is refreshed */
+    private static final Duration PREVIEW_DELAY = Duration.millis(60);
+
+    /** Live preview: re-evaluates only the terms touched since the last keystroke */
+    private final IncrementalEvaluator preview = new IncrementalEvaluator(new ExpressionEvaluator(), DECIMAL);
+    private final PauseTransition previewDelay = new PauseTransition(PREVIEW_DELAY);
+
+    /** A preview taking longer than this is not shown; typing on cancels it anyway */
+    private static final java.time.Duration PREVIEW_TIMEOUT = java.time.Duration.ofMillis(250);
+
+    /** Runs previews off the FX thread, apart from "=" so a slow preview never holds up a calculation */
+    private static final AsyncEvaluator PREVIEW_ASYNC = new AsyncEvaluator(PREVIEW_TIMEOUT, 1);
+
+    /** The preview in progress, or null; and a count of previews started, so a late result of an old one is dropped */
+    private AsyncEvaluator.Handle previewing;
+    private int previewGeneration;
+
+    /**
+     * The input text as a rope, kept by the preview, which evaluates its terms from it; handlers
+     * look at the caret and brackets here without copying the field. Edit it through the preview.
+     */
+    private final ExpressionRope input = preview.text();
+
+    /** Flag: the last edit reached the rope through the formatter (undo and redo bypass it) */
+    private boolean mirrored = false;
+
+    /** Evaluation time limit, configurable with -Dcalculator.timeoutMillis (0 = none) */
+    private static final java.time.Duration TIMEOUT =
+            java.time.Duration.ofMillis(Long.getLong("calculator.timeoutMillis", 10_000));
+
+    /** Runs evaluations off the FX thread */
+    private static final AsyncEvaluator ASYNC = new AsyncEvaluator(TIMEOUT);
+
+    /** The evaluation in progress, or null */
+    private AsyncEvaluator.Handle running;
 
     /** Flag: superscript input toggle */
     private boolean superscriptMode = false;
@@ -53,6 +102,19 @@ public class CalculatorController {
     /** Flag: square root input toggle */
     private boolean sqrtMode = false;
 
+    /** Flag: an evaluation is running in the background */
+    private boolean computing = false;
+
+    /** History recall: what was typed before the first Up, and how far back we are (-1 = not recalling) */
+    private String recallPrefix = "";
+    private int recallDepth = -1;
+
+    /** Flag: the input is being replaced by a recalled entry, not edited */
+    private boolean recalling = false;
+
+    /** History segments already reported as skipped */
+    private int reportedSkipped = 0;
+
 
     /*------------------------------------------------------------------
      *  Initialisation
@@ -78,33 +140,56 @@ public class CalculatorController {
         equals.setDefaultButton(true);
         resultText.setOnAction(e -> calculate());
 
+        // every edit, typed, pasted or clicked, reaches the preview's rope and terms as the range it replaces
+        resultText.setTextFormatter(new TextFormatter<String>(change -> {
+            if (change.isContentChange()) {
+                preview.replace(change.getRangeStart(), change.getRangeEnd(), change.getText());
+                mirrored = true;
+            }
+            return change;
+        }));
+
+        // debounced live preview on every edit, typed or clicked; any edit also clears an error mark
+        previewDelay.setOnFinished(e -> updatePreview());
+        resultText.textProperty().addListener((obs, old, text) -> {
+            // undo and redo change the text without passing the formatter; copy it over then
+            if (!mirrored || input.length() != text.length()) preview.replace(0, input.length(), text);
+            mirrored = false;
+            cancelPreview();
+            resultText.getStyleClass().removeAll("error");
+            if (!recalling) recallDepth = -1;
+            previewDelay.playFromStart();
+        });
+
+        // Up / Down walk through earlier calculations starting with what was typed
+        resultText.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.UP) {
+                recall(recallDepth + 1);
+                e.consume();
+            } else if (e.getCode() == KeyCode.DOWN) {
+                recall(recallDepth - 1);
+                e.consume();
+            }
+        });
+
     }
 
     private void appendCharacter(String ch) {
 
-        if (clearInput)
+        if (!isDigit(ch))
+        {
+            // exit superscript mode when a non-numeric key is pressed
+            superscriptMode = false;
+        }
+        if (superscriptMode)
         {
-            resetForNextEntry();
+            resultText.insertText(resultText.getCaretPosition(), toSuperscript(ch));
         }
         else
         {
-            if (!isDigit(ch))
-            {
-                // exit superscript mode when a non-numeric key is pressed
-                superscriptMode = false;
-            }
-            if (superscriptMode)
-            {
-                resultText.insertText(resultText.getCaretPosition(), toSuperscript(ch));
-            }
-            else
-            {
-                resultText.insertText(resultText.getCaretPosition(), ch);
-            }
-            update();
+            resultText.insertText(resultText.getCaretPosition(), ch);
         }
-
-
+        update();
 
     }
 
@@ -113,53 +198,37 @@ public class CalculatorController {
      *------------------------------------------------------------------*/
 
     @FXML private void setPower() {
-        if (clearInput)
-        {
-            resetForNextEntry();
-        }
-        else
-        {
-            superscriptMode = !superscriptMode;
-            update();
-        }
-
+        superscriptMode = !superscriptMode;
+        update();
     }
 
     @FXML private void setSqrt() {
         superscriptMode = false;
-        if (clearInput)
+        sqrtMode = !sqrtMode;
+        if (sqrtMode)
         {
-            resetForNextEntry();
+            int caret = resultText.getCaretPosition();
+            resultText.insertText(caret, "√()");
+            resultText.positionCaret(caret + 2);
         }
         else
         {
-            sqrtMode = !sqrtMode;
-            if (sqrtMode)
-            {
-                resultText.insertText(resultText.getCaretPosition(), "√()");
-                resultText.positionCaret(resultText.getText().lastIndexOf("√") + 2);
-            }
-            else
-            {
-                resultText.positionCaret(resultText.getText().length());
-            }
-            update();
+            resultText.positionCaret(input.length());
         }
+        update();
     }
 
     @FXML
     private void setFactorial() {
         superscriptMode = false;
-        if (clearInput) resetForNextEntry();
 
-        String text  = resultText.getText();
-        int    caret = resultText.getCaretPosition();
+        int caret = resultText.getCaretPosition();
 
         // decide whether to prepend a 0
         boolean prependZero = true;
 
-        if (!text.isEmpty() && caret > 0) {          // we have a char before the caret
-            char prev = text.charAt(caret - 1);
+        if (caret > 0 && caret <= input.length()) {  // we have a char before the caret
+            char prev = input.charAt(caret - 1);
             if (Character.isDigit(prev) || prev == ')') {
                 prependZero = false;                 // something valid is already before '!'
             }
@@ -182,14 +251,13 @@ public class CalculatorController {
 
     private void insertBracket(String b) {
         superscriptMode = false;
-        if (clearInput) resetForNextEntry();
 
         resultText.insertText(resultText.getCaretPosition(), b);
     }
 
     @FXML
     private void deleteOne() {
-        if (!isError(resultText.getText()) && resultText.getCaretPosition() > 0)
+        if (resultText.getCaretPosition() > 0)
         {
             resultText.deleteText(resultText.getCaretPosition() - 1, resultText.getCaretPosition());
             update();
@@ -199,6 +267,10 @@ public class CalculatorController {
 
     @FXML
     private void clear() {
+        if (running != null) {
+            running.cancel();
+            setComputing(false);
+        }
         resultText.clear();
         operationText.setText("");
         superscriptMode = false;
@@ -211,137 +283,75 @@ public class CalculatorController {
      *------------------------------------------------------------------*/
     @FXML
     private void calculate() {
-        try {
-            superscriptMode = false;
-            sqrtMode = false;
-            String expr = resultText.getText();
-            resultText.clear();
-            operationText.setText(expr);
-
-            // 1) tidy input – negatives, implicit multiplications, superscripts, square roots
-            expr = preprocess(expr);
-            if (isError(expr)) return;
+        // while computing, "=" doubles as the cancel button
+        if (running != null) {
+            running.cancel();
+            return;
+        }
+        superscriptMode = false;
+        sqrtMode = false;
+        String expr = resultText.getText();
+        operationText.setText(expr);
+        setComputing(true);
+
+        // parse with the shared headless engine (reusing earlier parses) & evaluate in decimal, off the FX thread
+        running = ASYNC.submit(() -> DECIMAL.evaluate(CACHE.parse(expr)), Platform::runLater, new AsyncEvaluator.Callback<>() {
+            @Override
+            public void onResult(BigDecimal value) {
+                setComputing(false);
+                String result = DISPLAY.format(value);
+
+                remember(expr, result, null);
+                if (StartupProbe.ENABLED) StartupProbe.firstEvaluation();
+                resultText.setText(result);
+                resultText.positionCaret(result.length());
+                previewDelay.stop(); // keep the evaluated expression on display
+                update();
+            }
 
-            // 2) resolve parentheses recursively
-            expr = evaluateParentheses(expr);
-            if (isError(expr)) return;
+            @Override
+            public void onError(MathOperations.CalcException ex) {
+                setComputing(false);
+                showError(expr, ex);
+            }
 
-            // 3) final power sweep (e.g. nested parentheses produced new superscripts)
-            expr = handlePowers(expr);
-            if (isError(expr)) return;
+            @Override
+            public void onCancelled() {
+                if (!computing) return; // already torn down by clear()
+                // give the expression back for editing
+                setComputing(false);
+                resultText.setText(expr);
+                resultText.positionCaret(expr.length());
+                previewDelay.stop();
+                update();
+            }
+        });
+    }
 
-            // 4) straightforward left‑to‑right evaluation honouring precedence
-            expr = calculateFormatted(expr);
-            if (isError(expr)) return;
+    /** Shows or clears the "computing" state; input buttons are locked while computing */
+    private void setComputing(boolean computing) {
+        if (!computing) running = null;
+        this.computing = computing;
 
-            // 5) round & display
-            expr = round(expr);
-            resultText.setText(expr);
-            resultText.positionCaret(resultText.getText().length());
-            update();
-        } catch (MathOperations.CalcException ex) {
-            setError("Cannot calculate expression: " + ex.getMessage());
+        for (Node node : buttonPane.getChildren()) {
+            if (node != equals && node != clear) node.setDisable(computing);
+        }
+        resultText.setEditable(!computing);
+        equals.setText(computing ? "✕" : "=");
+        if (computing) {
+            resultText.getStyleClass().add("computing");
+            resultText.setText("Computing…");
+            previewDelay.stop();
+        } else {
+            resultText.getStyleClass().removeAll("computing");
+            resultText.clear();
         }
     }
 
     /*------------------------------------------------------------------
-     *  Pre‑processing helpers
+     *  Superscript input
      *------------------------------------------------------------------*/
 
-    private String preprocess(String expr) throws MathOperations.CalcException {
-        expr = checkForNegativeNumbers(expr);
-        expr = insertImplicitMultiplication(expr);
-        expr = handleFactorial(expr);
-        expr = handlePowers(expr);
-        expr = handleSqrt(expr);
-        expr = insertImplicitMultiplication(expr);
-        if (isValidFormula(expr)) return setError("Invalid expression produced from pre-processing: " + expr);
-        expr = checkForNegativeNumbers(expr);
-        return expr;
-    }
-
-    /*--------------------------------------------------------------
-     *  Superscript handling
-     *--------------------------------------------------------------*/
-
-    private String handlePowers(String expr) throws MathOperations.CalcException {
-        StringBuilder out = new StringBuilder();
-        int i = 0;
-        while (i < expr.length()) {
-            char c = expr.charAt(i);
-            if (charContains(SUPERSCRIPT_DIGITS, c)) {
-                int expStart = i;
-                while (i < expr.length() && charContains(SUPERSCRIPT_DIGITS, expr.charAt(i))) i++;
-                String exponentSup = expr.substring(expStart, i);
-                String exponent    = convertSuperscriptToNormal(exponentSup);
-
-                int baseEnd = expStart;
-                int baseStart;
-                String baseValue;
-
-                if (baseEnd == 0) return setError("No base to apply power to");
-                if (expr.charAt(baseEnd - 1) == ')') {
-                    int depth = 0;
-                    baseStart = baseEnd - 1;
-                    while (baseStart >= 0) {
-                        char ch = expr.charAt(baseStart);
-                        if (ch == ')') depth++;
-                        else if (ch == '(') {
-                            depth--;
-                            if (depth == 0) break;
-                        }
-                        baseStart--;
-                    }
-                    if (baseStart < 0) return setError("Brackets do not match on () to a power");
-
-                    String inside = expr.substring(baseStart + 1, baseEnd - 1);
-                    inside = preprocess(inside);
-                    inside = evaluateParentheses(inside);
-                    inside = handlePowers(inside);
-                    inside = calculateFormatted(inside);
-                    if (isError(inside)) return inside;
-                    baseValue = inside;
-
-                    if (expr.charAt(baseEnd - 1) == ')') {
-                        int exponentDepth = 0;
-                        int k     = out.length() - 1;
-                        while (k >= 0) {
-                            char ch = out.charAt(k);
-                            out.deleteCharAt(k--);
-                            if (ch == ')') exponentDepth++;
-                            else if (ch == '(') {
-                                exponentDepth--;
-                                if (exponentDepth == 0) break;
-                            }
-                        }
-                    } else {
-                        int k = out.length() - 1;
-                        while (k >= 0 &&
-                                (Character.isDigit(out.charAt(k))
-                                        || out.charAt(k) == '.'
-                                        || out.charAt(k) == '-')) {
-                            out.deleteCharAt(k--);
-                        }
-                    }
-                } else {
-                    baseStart = baseEnd - 1;
-                    while (baseStart >= 0 && !charContains(OPERATORS, expr.charAt(baseStart)) && expr.charAt(baseStart) != '(') {
-                        baseStart--;
-                    }
-                    baseStart++;
-                    baseValue = expr.substring(baseStart, baseEnd);
-                    out.delete(out.length() - (baseEnd - baseStart), out.length());
-                }
-                String computed = String.valueOf(MathOperations.power(baseValue, exponent));
-                out.append(computed);
-            } else {
-                out.append(c);
-                i++;
-            }
-        }
-        return out.toString();
-    }
-
     public  String toSuperscript(String input) {
         return input
                 .replace('0', '⁰')
@@ -356,389 +366,145 @@ public class CalculatorController {
                 .replace('9', '⁹');
     }
 
-    private String convertSuperscriptToNormal(String input) {
-        return input
-                .replace('⁰', '0')
-                .replace('¹', '1')
-                .replace('²', '2')
-                .replace('³', '3')
-                .replace('⁴', '4')
-                .replace('⁵', '5')
-                .replace('⁶', '6')
-                .replace('⁷', '7')
-                .replace('⁸', '8')
-                .replace('⁹', '9');
-    }
-
-
-    /*--------------------------------------------------------------
-     *  Square Root Handling
-     *--------------------------------------------------------------*/
-
-    private String handleSqrt(String expr) throws MathOperations.CalcException {
-        int idx;
-        while ((idx = expr.indexOf('√')) != -1) {
-            if (idx + 1 >= expr.length()) return setError("No value found on square root");
-
-            if (expr.charAt(idx + 1) == '(') {
-                int start = idx + 2;
-                int depth = 1;
-                int end = start;
-
-                while (end < expr.length() && depth > 0) {
-                    char c = expr.charAt(end);
-                    if (c == '(') depth++;
-                    else if (c == ')') depth--;
-                    end++;
-                }
-
-                if (depth != 0) return setError("Bracket Mismatch on square root");
-
-                String inside = expr.substring(start, end - 1);
-                String evaluatedInside = preprocess(inside);
-                if (isError(evaluatedInside))
-                    return setError("Error preprocessing inside of square root: " + inside);
-
-                evaluatedInside = evaluateParentheses(evaluatedInside);
-                if (isError(evaluatedInside))
-                    return setError("Error evaluating inside of square root: " + inside);
-
-                try {
-                    evaluatedInside = handlePowers(evaluatedInside);
-                    if (isError(evaluatedInside))
-                        return setError("Error evaluating inside of square root: " + inside);
-
-                    evaluatedInside = calculateFormatted(evaluatedInside);
-
-                    if (isError(evaluatedInside))
-                        return setError("Error evaluating inside of square root: " + inside);
-                } catch (MathOperations.CalcException e) {
-                    return setError("Bad expression passed to calculating functions: " + e.getMessage());
-                }
-
-                double result;
-                try {
-                    result = MathOperations.sqrt(evaluatedInside);
-                } catch (MathOperations.CalcException e) {
-                    return setError("Bad expression passed to calculating functions: " + e.getMessage());
-                }
-
-                String before = expr.substring(0, idx);
-                String after = expr.substring(end);
-                expr = before + result + after;
-                continue;
-            }
-
-            int valueStart = idx + 1;
-            java.util.regex.Matcher matcher = NUMBER_PATTERN.matcher(expr.substring(valueStart));
-            if (!matcher.find() || matcher.end() == 0)
-                return setError("No valid operand found on square root");
-
-            int valueEnd = valueStart + matcher.end();
-            String operand = expr.substring(valueStart, valueEnd);
-            double result;
-            try {
-                result = MathOperations.sqrt(operand);
-            } catch (MathOperations.CalcException e) {
-                return setError("Bad expression passed to calculating functions: " + e.getMessage());
-            }
-
-            String before = expr.substring(0, idx);
-            String after = expr.substring(valueEnd);
-            expr = before + result + after;
-        }
-
-        return expr;
-    }
-
-    /*--------------------------------------------------------------
-     *  Factorial Handling
-     *--------------------------------------------------------------*/
-
-    private String handleFactorial(String expr) {
-        int idx;
-        while ((idx = expr.indexOf('!')) != -1) {
-            if (idx == 0) return setError("Nothing before factorial");
-
-            if (isDigit(String.valueOf(expr.charAt(idx - 1))) || expr.charAt(idx - 1) == '.') {
-                // Handle numbers before !
-                int start = idx - 1;
-                while (start > 0 && (Character.isDigit(expr.charAt(start - 1)) || expr.charAt(start - 1) == '.')) {
-                    start--;
-                }
-                String number = expr.substring(start, idx);
-                double result;
-                try {
-                    result = MathOperations.factorial(number);
-                } catch (MathOperations.CalcException e) {
-                    return setError("Bad expression passed to calculating functions: " + e.getMessage());
-                }
-                expr = expr.substring(0, start) + result + expr.substring(idx + 1);
-            } else if (expr.charAt(idx - 1) == ')') {
-                int end = idx - 1;
-                int depth = 1;
-                int start = end - 1;
-                while (start >= 0 && depth > 0) {
-                    char c = expr.charAt(start);
-                    if (c == ')') depth++;
-                    else if (c == '(') depth--;
-                    start--;
-                }
-                if (depth != 0) return setError("Mismatched Brackets"); // mismatched parentheses
-                start++;
-
-                boolean hasSqrt = start > 0 && expr.charAt(start - 1) == '√';
-                int replaceStart = hasSqrt ? start - 1 : start;
-
-                String innerExpr = expr.substring(start + 1, end);
-                String evaluated;
-                try {
-                    evaluated = preprocess(innerExpr);
-                    evaluated = evaluateParentheses(evaluated);
-                    evaluated = handlePowers(evaluated);
-                    evaluated = calculateFormatted(evaluated);
-                    if (isError(evaluated)) return evaluated;
-                    if (hasSqrt) {
-                        evaluated = String.valueOf(MathOperations.sqrt(evaluated));
-                    }
-                    double result = MathOperations.factorial(evaluated);
-                    expr = expr.substring(0, replaceStart) + result + expr.substring(idx + 1);
-                } catch (MathOperations.CalcException e) {
-                    return setError("Bad expression passed to calculating functions: " + e.getMessage());
-                }
-            } else {
-                return setError("Invalid character before !");
-            }
-        }
-        return expr;
-    }
-
-
-    /*--------------------------------------------------------------
-     *  Parsing / validation utilities
-     *--------------------------------------------------------------*/
-
     private boolean isDigit(String s) {
         return s.length() == 1 && Character.isDigit(s.charAt(0));
     }
 
-    private boolean charContains(char[] arr, char c) {
-        for (char x : arr) {
-            if (x == c) return true;
-        }
-        return false;
-    }
-
-    private String checkForNegativeNumbers(String expr) {
-        if (expr.startsWith("-")) expr = "0" + expr;
-        return expr.replace("(-", "(0-");
-    }
+    /*--------------------------------------------------------------
+     *  Misc helpers
+     *--------------------------------------------------------------*/
 
-    private boolean isSuperscript(char c) {
-        return charContains(SUPERSCRIPT_DIGITS, c);
-    }
-    private boolean isDigitOrDot(char c) {
-        return Character.isDigit(c) || c == '.';
-    }
+    /** Puts the expression back for editing with the offending span marked and the reason above it */
+    private void showError(String expr, MathOperations.CalcException e) {
+        if (e.getCode() != ErrorCode.TIMED_OUT) remember(expr, null, e.getCode());
+        if (StartupProbe.ENABLED) StartupProbe.firstEvaluation();
+        resultText.setText(expr);
+        previewDelay.stop();
+        superscriptMode = false;
+        operationText.setText(e.getMessage());
 
-    private String insertImplicitMultiplication(String expr) {
-        if (expr.length() < 2) return expr;
-        StringBuilder sb = new StringBuilder(expr.length() * 2);
-        for (int i = 0; i < expr.length() - 1; i++) {
-            char cur = expr.charAt(i);
-            char nxt = expr.charAt(i + 1);
-            sb.append(cur);
-
-            // checks if multiplication is needed
-            boolean needMul =
-                    (cur == ')' && (Character.isDigit(nxt) || nxt == '(' || nxt == '√' || isSuperscript(nxt))) ||
-                            (isDigitOrDot(cur) && (nxt == '(' || nxt == '√')) ||
-                            (cur == '!' && (Character.isDigit(nxt) || nxt == '(' || nxt == '√' || isSuperscript(nxt))) ||
-                            (isSuperscript(cur) && (Character.isDigit(nxt) || nxt == '(' || nxt == '√'));
-
-            if (needMul) sb.append('x');
+        int from = Math.min(e.getPosition(), expr.length());
+        if (from >= 0) {
+            resultText.selectRange(from, Math.min(from + e.getLength(), expr.length()));
+        } else {
+            resultText.positionCaret(expr.length());
         }
-        sb.append(expr.charAt(expr.length() - 1));
-        return sb.toString();
+        resultText.getStyleClass().add("error");
+        update();
     }
 
     /*--------------------------------------------------------------
-     *  Formula validation
+     *  History
      *--------------------------------------------------------------*/
 
-    private boolean isValidFormula(String s) {
-        return s.isEmpty() || !hasBalancedParentheses(s) || !hasOnlyAllowedChars(s)
-                || hasConsecutiveOperators(s) || startsOrEndsWithOperator(s);
-    }
-
-    private boolean hasBalancedParentheses(String s) {
-        int depth = 0;
-        for (char c : s.toCharArray()) {
-            if (c == '(') depth++; else if (c == ')') depth--;
-            if (depth < 0) return false;
-        }
-        return depth == 0;
-    }
+    /** The on-disk history, opened on first use so startup never touches it */
+    private static final class History {
+        static final HistoryLog LOG = open();
 
-    private boolean hasOnlyAllowedChars(String s) {
-        for (char c : s.toCharArray()) {
-            if (!Character.isDigit(c) && "x-+÷().!".indexOf(c) == -1 && !charContains(SUPERSCRIPT_DIGITS, c)) {
-                return false;
+        private static HistoryLog open() {
+            Path home = Path.of(System.getProperty("user.home"), ".calculator", "history");
+            Path dir = Path.of(System.getProperty("calculator.historyDir", home.toString()));
+            try {
+                return new HistoryLog(dir);
+            } catch (IOException e) {
+                System.err.println("History disabled: " + e.getMessage());
+                return null;
             }
         }
-        return true;
     }
 
-    private boolean hasConsecutiveOperators(String s) {
-        String ops = "x-+÷";
-        for (int i = 1; i < s.length(); i++) {
-            if (ops.indexOf(s.charAt(i)) != -1 && ops.indexOf(s.charAt(i - 1)) != -1) return true;
+    private void remember(String expr, String result, ErrorCode error) {
+        HistoryLog log = History.LOG;
+        if (log == null || expr.isBlank()) return;
+        try {
+            if (error == null) log.append(expr, result);
+            else log.append(expr, error);
+        } catch (IOException e) {
+            System.err.println("Could not write history: " + e.getMessage());
         }
-        return false;
-    }
-
-    private boolean startsOrEndsWithOperator(String s) {
-        String ops = "x+÷";
-        return ops.indexOf(s.charAt(0)) != -1 || "x-+÷".indexOf(s.charAt(s.length() - 1)) != -1;
     }
 
-    /*--------------------------------------------------------------
-     *  Parentheses evaluation & expression calculation
-     *--------------------------------------------------------------*/
-
-    private String evaluateParentheses(String expr) {
-        int open;
-        while ((open = expr.lastIndexOf('(')) != -1) {
-            int close = expr.indexOf(')', open);
-            if (close == -1) return setError("No closing parenthesis");
-
-            String inside = expr.substring(open + 1, close);
-            if (isValidFormula(inside)) return setError("Formula inside of brackets invalid: " + inside);
-
-
-            String value = calculateFormatted(inside);
-            if (isError(value)) return value;
-
-            expr = expr.substring(0, open) + value + expr.substring(close + 1);
+    /** Shows the depth-th most recent calculation starting with the typed prefix; below 0 restores the typing */
+    private void recall(int depth) {
+        HistoryLog log = History.LOG;
+        if (log == null || computing) return;
+        if (recallDepth < 0) {
+            if (depth < 0) return;
+            recallPrefix = input.toString();
         }
-        return expr;
-    }
-
-    private String calculateFormatted(String expr) {
-
-        expr = checkForNegativeNumbers(expr);
-        while (true) {
-
-            int opIndex = findOperator(PRIMARY_OPERATORS, expr);
-            if (opIndex == -1) opIndex = findOperator(SECONDARY_OPERATORS, expr);
-            if (opIndex == -1) return expr;
-
-            char   op    = expr.charAt(opIndex);
-            String left  = findLeft(expr.substring(0, opIndex));
-            String right = findRight(expr.substring(opIndex + 1));
-            if (isError(left) || isError(right)) return setError("Left or Right of expression is invalid. " + left + " " + right);
 
+        String text = recallPrefix;
+        if (depth >= 0) {
             try {
-                double val = switch (op) {
-                    case '÷' -> MathOperations.divide(left, right);
-                    case 'x' -> MathOperations.multiply(left, right);
-                    case '+' -> MathOperations.add(left, right);
-                    case '-' -> MathOperations.subtract(left, right);
-                    default  -> throw new AssertionError();
-                };
-
-                String quoted = Pattern.quote(left + op + right);
-                expr = expr.replaceFirst(quoted, String.valueOf(val));
-            } catch (MathOperations.CalcException ex) {
-                return setError("Cannot calculate expression: " + ex.getMessage());
+                HistoryLog.Entry entry = log.recall(recallPrefix, depth);
+                reportSkipped(log);
+                if (entry == null) return; // nothing older
+                text = entry.expression();
+            } catch (IOException e) {
+                System.err.println("Could not read history: " + e.getMessage());
+                return;
             }
         }
-    }
-
-
 
-    private int findOperator(char[] operators, String expr) {
-        boolean expectUnary = true;
-        for (int i = 0; i < expr.length(); i++) {
-            char c = expr.charAt(i);
-
-            if (c == '(') {
-                expectUnary = true;
-                continue;
-            }
+        recalling = true;
+        resultText.setText(text);
+        resultText.positionCaret(text.length());
+        recalling = false;
+        recallDepth = Math.max(depth, -1);
+    }
 
-            if (charContains(operators, c)) {
-                if (c == '-' && expectUnary) {
-                    expectUnary = false;
-                    continue;
-                }
-                return i;
-            }
-            expectUnary = false;
+    /** Reports history segments newly left out of searches because they are corrupt */
+    private void reportSkipped(HistoryLog log) {
+        List<Path> skipped = log.skippedSegments();
+        for (int i = reportedSkipped; i < skipped.size(); i++) {
+            System.err.println("Skipping corrupt history segment " + skipped.get(i));
         }
-        return -1;
+        reportedSkipped = skipped.size();
     }
 
-    private String findLeft(String expr) {
-        StringBuilder out = new StringBuilder();
-        int i = expr.length() - 1;
-
-        while (i >= 0 && (Character.isDigit(expr.charAt(i)) || expr.charAt(i) == '.')) {
-            out.insert(0, expr.charAt(i--));
+    /** Evaluates the input for the preview in the background; any failure, a timeout included, shows none */
+    private void updatePreview() {
+        cancelPreview();
+        if (computing || input.isEmpty() || resultText.getStyleClass().contains("error")) return;
+        if (!input.balanced()) {
+            operationText.setText(""); // a bracket is still open, so it cannot evaluate yet
+            return;
         }
-
-        if (i >= 0 && expr.charAt(i) == '-' &&
-                (i == 0 || charContains(OPERATORS, expr.charAt(i-1)) || expr.charAt(i-1) == '(')) {
-            out.insert(0, '-');
+        IncrementalEvaluator.Revision revision;
+        try {
+            revision = preview.revision();
+        } catch (MathOperations.CalcException e) {
+            operationText.setText("");
+            return;
         }
-        return out.toString();
-    }
 
-    private String findRight(String expr)
-    {
-        StringBuilder result = new StringBuilder();
-        for (int i = 0; i < expr.length(); i++) {
-            if (charContains(OPERATORS, expr.charAt(i))) {
-                return result.toString();
+        int generation = previewGeneration;
+        previewing = PREVIEW_ASYNC.submit(() -> preview.evaluate(revision), Platform::runLater, new AsyncEvaluator.Callback<>() {
+            @Override
+            public void onResult(BigDecimal value) {
+                if (generation != previewGeneration) return;
+                previewing = null;
+                operationText.setText("= " + DISPLAY.format(value));
             }
-            else {
-                result.append(expr.charAt(i));
+
+            @Override
+            public void onError(MathOperations.CalcException e) {
+                if (generation != previewGeneration) return;
+                previewing = null;
+                operationText.setText(""); // incomplete or invalid so far, or too slow to preview
             }
-        }
-        return result.toString();
+        });
     }
 
-    /*--------------------------------------------------------------
-     *  Misc helpers
-     *--------------------------------------------------------------*/
-
-    private String round(String expr) {
-        try {
-            double num = Double.parseDouble(expr);
-            num = new BigDecimal(num).setScale(4, RoundingMode.HALF_UP).doubleValue();
-            return String.valueOf(num);
-        } catch (NumberFormatException e) {
-            return setError("Rounding Error");
+    /** Stops the preview in progress, if any, and drops its outcome should it already be on the way */
+    private void cancelPreview() {
+        previewGeneration++;
+        if (previewing != null) {
+            previewing.cancel();
+            previewing = null;
         }
     }
 
-    private String setError(String from) {
-        System.out.println("Error came from: " + from);
-        resultText.setText("Error");
-        clearInput = true;
-        superscriptMode = false;
-        return "Error";
-    }
-
-    private boolean isError(String s) { return "Error".equals(s); }
-
-    private void resetForNextEntry() {
-        operationText.setText(resultText.getText());
-        resultText.clear();
-        clearInput = false;
-        superscriptMode = false;
-    }
-
     private void update() {
         // superscript glow
         if (superscriptMode) {
@@ -0,0 +1,56 @@
+package hm.app.calculatorapp;
+
+import hm.shell.DecimalEvaluator;
+import hm.shell.ExpressionEvaluator;
+import hm.shell.MathOperations;
+import hm.shell.ResultFormat;
+import javafx.application.Platform;
+
+import java.math.MathContext;
+import java.time.Duration;
+import java.time.Instant;
+
+
+/**
+ * Reports how long after process start the first frame appeared and the first calculation finished.
+ *
+ * <p>{@code -Dcalculator.startupProbe=report} prints both to stderr; {@code =exit} warms up the engine
+ * and quits right after the first frame, for timing runs and the AppCDS training run.
+ */
+final class StartupProbe {
+
+    private static final String MODE = System.getProperty("calculator.startupProbe", "");
+
+    static final boolean ENABLED = MODE.equals("report") || MODE.equals("exit");
+
+    /** Loads the classes a first calculation needs, so the training run archives them */
+    private static final String WARM_UP = "2(3+4)²÷√(16)+5!-0.5";
+
+    private static boolean evaluated = false;
+
+    private StartupProbe() {}
+
+    static void firstFrame() {
+        report("first frame");
+        if (MODE.equals("exit")) {
+            try {
+                ResultFormat.DEFAULT.format(new DecimalEvaluator(MathContext.DECIMAL64).evaluate(new ExpressionEvaluator().parse(WARM_UP)));
+            } catch (MathOperations.CalcException e) {
+                throw new IllegalStateException("warm-up expression failed: " + e.getMessage());
+            }
+            Platform.exit();
+        }
+    }
+
+    static void firstEvaluation() {
+        if (evaluated) return;
+        evaluated = true;
+        report("first evaluation");
+    }
+
+    private static void report(String milestone) {
+        Instant started = ProcessHandle.current().info().startInstant().orElse(null);
+        String since = started == null ? "?" : String.valueOf(Duration.between(started, Instant.now()).toMillis());
+        System.err.println("startup: " + milestone + " " + since + " ms after process start");
+    }
+}
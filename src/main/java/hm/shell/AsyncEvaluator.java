@@ -0,0 +1,194 @@
+package hm.shell;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs evaluations on background daemon threads with a timeout and a cancel action.
+ * Exactly one callback is delivered per submission, through the given callback executor
+ * (e.g. {@code Platform::runLater}); runaway work is interrupted when it times out or is cancelled.
+ *
+ * <p>The worker threads are a fixed number. A computation that ignores the interrupt keeps its
+ * worker busy until it really returns, so later submissions wait in line (and time out there)
+ * rather than each starting another thread; {@link Callback#onStopped} tells when that happens.
+ */
+public class AsyncEvaluator implements AutoCloseable {
+
+    /** Work to run in the background */
+    @FunctionalInterface
+    public interface Computation<T> {
+        T compute() throws MathOperations.CalcException;
+    }
+
+    /** Receives the outcome of a submission */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        /** Evaluation failed or timed out */
+        void onError(MathOperations.CalcException e);
+
+        /** The submission was cancelled through its {@link Handle} */
+        default void onCancelled() {}
+
+        /**
+         * The computation is no longer running: it returned or threw, or was dropped before it
+         * started. Comes after the outcome, possibly long after a timeout or cancel, and is
+         * called directly on the thread that saw the computation stop.
+         */
+        default void onStopped() {}
+    }
+
+    /** A submitted evaluation */
+    public static final class Handle {
+        private final AtomicBoolean finished;
+        private final Runnable canceller;
+
+        private Handle(AtomicBoolean finished, Runnable canceller) {
+            this.finished = finished;
+            this.canceller = canceller;
+        }
+
+        /** Cancels the evaluation; returns false if it had already completed */
+        public boolean cancel() {
+            if (!finished.compareAndSet(false, true)) return false;
+            canceller.run();
+            return true;
+        }
+
+        public boolean isDone() { return finished.get(); }
+    }
+
+    /* States of a submission's computation, which decide who calls onStopped */
+    private static final int QUEUED = 0, RUNNING = 1, STOPPED = 2;
+
+    private final Duration timeout;
+    /**
+     * Platform threads rather than virtual ones: evaluation is CPU-bound, and a runaway task that
+     * ignores interruption would otherwise pin a carrier thread and starve later evaluations
+     */
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService timer;
+    private volatile boolean closed;
+
+    /** One worker per processor; see {@link #AsyncEvaluator(Duration, int)} */
+    public AsyncEvaluator(Duration timeout) {
+        this(timeout, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param timeout how long an evaluation may run, from its submission, before it is interrupted; zero for no limit
+     * @param maxWorkers how many evaluations run at once, counting timed-out ones that have not stopped yet
+     */
+    public AsyncEvaluator(Duration timeout, int maxWorkers) {
+        if (maxWorkers < 1) throw new IllegalArgumentException("maxWorkers must be positive: " + maxWorkers);
+        this.timeout = timeout;
+        workers = new ThreadPoolExecutor(maxWorkers, maxWorkers, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemon("calc-worker"));
+        workers.allowCoreThreadTimeOut(true);
+        ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1, daemon("calc-timeout"));
+        t.setRemoveOnCancelPolicy(true);
+        this.timer = t;
+    }
+
+    public <T> Handle submit(Computation<T> work, Executor callbacks, Callback<T> callback) {
+        AtomicBoolean finished = new AtomicBoolean();
+        AtomicInteger state = new AtomicInteger(QUEUED);
+        ScheduledFuture<?>[] deadline = new ScheduledFuture<?>[1];
+
+        Future<?> future;
+        try {
+            future = workers.submit(() -> {
+                if (!state.compareAndSet(QUEUED, RUNNING)) return;
+                try {
+                    MathOperations.CalcException error;
+                    try {
+                        if (closed) throw ErrorCode.INTERRUPTED.exception();
+                        T result = work.compute();
+                        if (finished.compareAndSet(false, true)) callbacks.execute(() -> callback.onResult(result));
+                        error = null;
+                    } catch (MathOperations.CalcException e) {
+                        error = e;
+                    } catch (Throwable e) {
+                        // a bug or an exhausted stack or heap still ends the submission with one callback
+                        error = new MathOperations.CalcException(ErrorCode.INTERNAL, e.toString());
+                    }
+                    if (error != null && finished.compareAndSet(false, true)) {
+                        MathOperations.CalcException e = error;
+                        callbacks.execute(() -> callback.onError(e));
+                    }
+                    synchronized (deadline) {
+                        if (deadline[0] != null) deadline[0].cancel(false);
+                    }
+                } finally {
+                    state.set(STOPPED);
+                    callback.onStopped();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+            finished.set(true);
+            callbacks.execute(() -> callback.onError(ErrorCode.INTERRUPTED.exception()));
+            callback.onStopped();
+            return new Handle(finished, () -> {});
+        }
+
+        // the computation is interrupted if it runs, or dropped if it is still waiting for a worker
+        Runnable stop = () -> {
+            future.cancel(true);
+            if (state.compareAndSet(QUEUED, STOPPED)) callback.onStopped();
+        };
+
+        if (!timeout.isZero()) {
+            synchronized (deadline) {
+                deadline[0] = timer.schedule(() -> {
+                    if (!finished.compareAndSet(false, true)) return;
+                    callbacks.execute(() -> callback.onError(
+                            new MathOperations.CalcException(ErrorCode.TIMED_OUT, timeout.toMillis() + " ms")));
+                    stop.run();
+                }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return new Handle(finished, () -> {
+            synchronized (deadline) {
+                if (deadline[0] != null) deadline[0].cancel(false);
+            }
+            callbacks.execute(callback::onCancelled);
+            stop.run();
+        });
+    }
+
+    /** Evaluations running now, including timed-out or cancelled ones that have not stopped yet */
+    public int busyWorkers() {
+        return workers.getActiveCount();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return Thread.ofPlatform().name(name + "-", 0).daemon(true).factory();
+    }
+
+    /** Throws if the current evaluation has been interrupted by a timeout or cancel */
+    public static void checkInterrupted() throws MathOperations.CalcException {
+        if (Thread.currentThread().isInterrupted()) throw ErrorCode.INTERRUPTED.exception();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // submissions still waiting for a worker end here, with INTERRUPTED
+        for (Runnable waiting : workers.shutdownNow()) waiting.run();
+        timer.shutdownNow();
+    }
+}
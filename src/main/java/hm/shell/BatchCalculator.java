@@ -0,0 +1,198 @@
+package hm.shell;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+
+/**
+ * Headless entry point: evaluates one expression per line from a file or stdin and streams
+ * {@code expression<TAB>result} (or {@code expression<TAB>Error: message}) to stdout in input order.
+ * Memory use is constant in the input size, and no JavaFX class is touched.
+ *
+ * <pre>
+ * java -cp CalculatorApp.jar hm.shell.BatchCalculator [-p parallelism] [-c chunkSize] [-d digits]
+ *      [-f auto|fixed|scientific|engineering] [-s significant] [-g] [-w] [file | -]
+ * </pre>
+ *
+ * Results are written by {@link ResultFormat#DEFAULT}, rounded to 4 places.
+ * With {@code -d} results are computed by {@link DecimalEvaluator} to that many significant digits,
+ * integer results exactly, and printed in full instead.
+ * {@code -f} picks the notation, {@code -s} the most significant digits shown and {@code -g} groups thousands.
+ * With {@code -p} the input is evaluated on that many cores by {@link ParallelBatchCalculator}.
+ * With {@code -w} the whole input is one expression, however long, evaluated in double as it is
+ * read by {@link StreamingEvaluator}; only its result is printed.
+ * Throughput is reported on stderr.
+ */
+public class BatchCalculator {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CACHE_SIZE  = 1024;
+    private static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private final ExpressionCache cache;
+    private final DecimalEvaluator decimal;
+    private final ResultFormat format;
+
+    public BatchCalculator(ExpressionCache cache) {
+        this(cache, null, ResultFormat.DEFAULT);
+    }
+
+    /**
+     * @param decimal evaluator for decimal mode, or null for double results
+     * @param format  how results are written
+     */
+    public BatchCalculator(ExpressionCache cache, DecimalEvaluator decimal, ResultFormat format) {
+        this.cache = cache;
+        this.decimal = decimal;
+        this.format = format;
+    }
+
+    public static void main(String[] args) {
+        int parallelism = 1;
+        int chunkSize = DEFAULT_CHUNK_SIZE;
+        int digits = 0;
+        ResultFormat.Notation notation = ResultFormat.Notation.AUTO;
+        int significant = 0;
+        boolean grouping = false;
+        boolean whole = false;
+        String source = "-";
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-p" -> parallelism = Integer.parseInt(args[++i]);
+                    case "-c" -> chunkSize = Integer.parseInt(args[++i]);
+                    case "-d" -> digits = Integer.parseInt(args[++i]);
+                    case "-f" -> notation = ResultFormat.Notation.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    case "-s" -> significant = Integer.parseInt(args[++i]);
+                    case "-g" -> grouping = true;
+                    case "-w" -> whole = true;
+                    default -> source = args[i];
+                }
+            }
+            if (whole && (digits > 0 || parallelism > 1)) throw new IllegalArgumentException("-w streams in double on one core");
+        } catch (RuntimeException e) {
+            System.err.println("usage: BatchCalculator [-p parallelism] [-c chunkSize] [-d digits]"
+                    + " [-f auto|fixed|scientific|engineering] [-s significant] [-g] [-w] [file | -]");
+            System.exit(2);
+        }
+
+        ExpressionCache cache = new ExpressionCache(new ExpressionEvaluator(), CACHE_SIZE);
+        ResultFormat format;
+        try {
+            format = new ResultFormat(notation, significant, digits > 0 ? -1 : 4, grouping, true);
+        } catch (IllegalArgumentException e) {
+            System.err.println("BatchCalculator: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (whole) {
+            runWhole(source, format);
+            return;
+        }
+        BatchCalculator batch = new BatchCalculator(cache, digits > 0 ? new DecimalEvaluator(new MathContext(digits)) : null, format);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try (BufferedReader in = open(source)) {
+            long start = System.nanoTime();
+            long lines = parallelism > 1
+                    ? new ParallelBatchCalculator(batch, parallelism, chunkSize).run(in, out)
+                    : batch.run(in, out);
+            out.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%d expressions in %.3f s (%.0f/s, parallelism %d)%n",
+                    lines, seconds, lines / Math.max(seconds, 1e-9), parallelism);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("BatchCalculator: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Evaluates the whole input as a single expression while reading it, and prints the result */
+    private static void runWhole(String source, ResultFormat format) {
+        StringBuilder result = new StringBuilder();
+        long start = System.nanoTime();
+        try {
+            double value;
+            if (source.equals("-")) {
+                value = StreamingEvaluator.evaluate(open(source));
+            } else {
+                value = StreamingEvaluator.evaluate(Path.of(source)); // memory-mapped
+            }
+            format.format(value, result);
+        } catch (MathOperations.CalcException e) {
+            error(e, result);
+        } catch (IOException e) {
+            System.err.println("BatchCalculator: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println(result);
+        System.err.printf("1 expression in %.3f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private static BufferedReader open(String source) throws IOException {
+        if (source.equals("-")) {
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+        return Files.newBufferedReader(Path.of(source), StandardCharsets.UTF_8);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Evaluation
+     *------------------------------------------------------------------*/
+
+    /** Evaluates every line of the input, writing one result line per input line; returns the line count */
+    public long run(BufferedReader in, Writer out) throws IOException {
+        // results are formatted into one reused buffer and handed to the writer in blocks
+        StringBuilder sb = new StringBuilder(BUFFER_SIZE + 256);
+        char[] chars = new char[0];
+        long lines = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            sb.append(line).append('\t');
+            evaluateLine(line, sb).append('\n');
+            lines++;
+            if (sb.length() >= BUFFER_SIZE) chars = drain(sb, chars, out);
+        }
+        drain(sb, chars, out);
+        return lines;
+    }
+
+    private static char[] drain(StringBuilder sb, char[] chars, Writer out) throws IOException {
+        if (chars.length < sb.length()) chars = new char[sb.length()];
+        sb.getChars(0, sb.length(), chars, 0);
+        out.write(chars, 0, sb.length());
+        sb.setLength(0);
+        return chars;
+    }
+
+    /** Result text for a single expression: the formatted value, or "Error: " and the reason */
+    public String evaluateLine(String line) {
+        return evaluateLine(line, new StringBuilder()).toString();
+    }
+
+    /** Appends the result text for a single expression to out */
+    public StringBuilder evaluateLine(String line, StringBuilder out) {
+        int start = out.length();
+        try {
+            if (decimal != null) return format.format(decimal.evaluate(cache.parse(line)), out);
+            return format.format(cache.evaluate(line), out);
+        } catch (MathOperations.CalcException e) {
+            out.setLength(start);
+            return error(e, out);
+        }
+    }
+
+    private static StringBuilder error(MathOperations.CalcException e, StringBuilder out) {
+        out.append("Error: ").append(e.getMessage());
+        return e.getPosition() >= 0 ? out.append(" at position ").append(e.getPosition()) : out;
+    }
+}
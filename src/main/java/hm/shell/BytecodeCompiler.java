@@ -0,0 +1,326 @@
+package hm.shell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * Compiles an expression tree into a hidden class implementing {@link Node}, so the JIT
+ * can inline the whole formula. The generated code does + - x inline and calls the same
+ * {@link MathOperations} methods as the interpreter for everything else, giving
+ * bit-identical results. With {@link EvaluationMetrics} on, + - x call MathOperations too,
+ * so compiled evaluations are counted like interpreted ones. Subtrees shared by hash-consing are computed once and kept in a local.
+ */
+final class BytecodeCompiler {
+
+    private static final String SUPER_CLASS = "java/lang/Object";
+    private static final String NODE_CLASS  = "hm/shell/Node";
+    private static final String MATH_CLASS  = "hm/shell/MathOperations";
+    private static final String THIS_CLASS  = "hm/shell/CompiledExpression";
+    private static final int    MAX_CODE_LENGTH = 65535;
+
+    // opcodes
+    private static final int ICONST_0      = 0x03;
+    private static final int BIPUSH        = 0x10;
+    private static final int SIPUSH        = 0x11;
+    private static final int ALOAD_0       = 0x2a;
+    private static final int ALOAD_1       = 0x2b;
+    private static final int DALOAD        = 0x31;
+    private static final int DLOAD         = 0x18;
+    private static final int DSTORE        = 0x39;
+    private static final int DUP2          = 0x5c;
+    private static final int WIDE          = 0xc4;
+    private static final int LDC2_W        = 0x14;
+    private static final int DADD          = 0x63;
+    private static final int DSUB          = 0x67;
+    private static final int DMUL          = 0x6b;
+    private static final int DRETURN       = 0xaf;
+    private static final int RETURN        = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC  = 0xb8;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    /** References to each node, counted by identity */
+    private final Map<Node, Integer> references = new IdentityHashMap<>();
+    /** Local variable slot holding the value of each shared subtree once computed */
+    private final Map<Node, Integer> locals = new IdentityHashMap<>();
+    /** Next free local slot: 0 is this, 1 the variables array */
+    private int nextLocal = 2;
+
+    private BytecodeCompiler() {}
+
+    /**
+     * Compiles a tree into a new hidden class instance.
+     * Returns null if the tree cannot be compiled, e.g. because the method would be too large.
+     */
+    static Node compile(Node root) {
+        try {
+            byte[] bytes = new BytecodeCompiler().generate(root);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (Node) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            if (e instanceof Error && !(e instanceof LinkageError)) throw (Error) e;
+            return null;
+        }
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Code generation
+     *------------------------------------------------------------------*/
+
+    /** Counts how often each subtree is referenced, visiting shared ones once */
+    private void count(Node root) {
+        Postorder.walk(root, new Postorder.Visitor() {
+            @Override
+            public boolean enter(Node node) {
+                return references.merge(node, 1, Integer::sum) == 1;
+            }
+
+            @Override
+            public void leave(Node node) {}
+        });
+    }
+
+    /**
+     * Emits code leaving the root's value on the operand stack; returns the stack slots needed.
+     * A shared subtree is computed at its first use and loaded from a local afterwards; the code
+     * is straight-line, so the first use always runs before the others.
+     */
+    private int emit(Node root) {
+        int[] stack = { 0, 0 }; // current and maximum slots
+        Postorder.walk(root, new Postorder.Visitor() {
+            @Override
+            public boolean enter(Node node) {
+                Integer local = locals.get(node);
+                if (local == null) return true;
+                localInstruction(DLOAD, local);
+                push(stack, 2);
+                return false;
+            }
+
+            @Override
+            public void leave(Node node) {
+                push(stack, emitOperation(node));
+                boolean leaf = node instanceof Node.Constant || node instanceof Node.Variable;
+                if (!leaf && references.getOrDefault(node, 1) > 1) {
+                    int slot = nextLocal;
+                    nextLocal += 2;
+                    locals.put(node, slot);
+                    code.write(DUP2);
+                    push(stack, 2);
+                    localInstruction(DSTORE, slot);
+                    push(stack, -2);
+                }
+                // give up on huge trees before generating all of their code
+                if (code.size() > MAX_CODE_LENGTH) throw new IllegalStateException("expression too large to compile");
+            }
+        });
+        return stack[1];
+    }
+
+    private static void push(int[] stack, int slots) {
+        stack[0] += slots;
+        stack[1] = Math.max(stack[1], stack[0]);
+    }
+
+    private void localInstruction(int opcode, int slot) {
+        if (slot <= 0xff) {
+            code.write(opcode);
+            code.write(slot);
+        } else {
+            code.write(WIDE);
+            code.write(opcode);
+            writeShort(code, slot);
+        }
+    }
+
+    /** Emits the node's own instructions, its operands already on the stack; returns the change in stack slots */
+    private int emitOperation(Node node) {
+        if (node instanceof Node.Constant c) {
+            code.write(LDC2_W);
+            writeShort(code, pool.doubleConstant(c.value()));
+            return 2;
+        }
+        if (node instanceof Node.Variable v) {
+            code.write(ALOAD_1);
+            int index = v.index();
+            if (index <= 5) {
+                code.write(ICONST_0 + index);
+            } else if (index <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(index);
+            } else {
+                code.write(SIPUSH);
+                writeShort(code, index);
+            }
+            code.write(DALOAD);
+            return 2;
+        }
+        if (node instanceof Node.Binary b) {
+            switch (b.op()) {
+                case '+' -> arithmetic(DADD, "add");
+                case '-' -> arithmetic(DSUB, "subtract");
+                case 'x' -> arithmetic(DMUL, "multiply");
+                case '÷' -> invokeMath("divide", "(DD)D");
+                default  -> throw new IllegalArgumentException("unknown operator " + b.op());
+            }
+            return -2;
+        }
+        if (node instanceof Node.Power) {
+            invokeMath("power", "(DD)D");
+            return -2;
+        }
+        if (node instanceof Node.Sqrt) {
+            invokeMath("sqrt", "(D)D");
+            return 0;
+        }
+        if (node instanceof Node.Factorial) {
+            invokeMath("factorial", "(D)D");
+            return 0;
+        }
+        throw new IllegalArgumentException("cannot compile " + node.getClass().getSimpleName());
+    }
+
+    /** An inline + - x, or with metrics on the MathOperations call that counts it; the JIT inlines either */
+    private void arithmetic(int opcode, String name) {
+        if (EvaluationMetrics.ENABLED) invokeMath(name, "(DD)D");
+        else code.write(opcode);
+    }
+
+    private void invokeMath(String name, String descriptor) {
+        code.write(INVOKESTATIC);
+        writeShort(code, pool.methodRef(MATH_CLASS, name, descriptor));
+    }
+
+    private byte[] generate(Node root) throws IOException {
+        count(root);
+        int maxStack = emit(root);
+        if (maxStack > 0xffff || nextLocal > 0xffff) throw new IllegalStateException("expression too large to compile");
+        code.write(DRETURN);
+        if (code.size() > MAX_CODE_LENGTH) throw new IllegalStateException("expression too large to compile");
+
+        int thisClass  = pool.classRef(THIS_CLASS);
+        int superClass = pool.classRef(SUPER_CLASS);
+        int node       = pool.classRef(NODE_CLASS);
+        int superInit  = pool.methodRef(SUPER_CLASS, "<init>", "()V");
+        int codeAttr   = pool.utf8("Code");
+        int initName   = pool.utf8("<init>");
+        int initDesc   = pool.utf8("()V");
+        int evalName   = pool.utf8("evaluate");
+        int evalDesc   = pool.utf8("([D)D");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(65);                    // Java 21
+        pool.writeTo(out);                     // every pool entry must be interned by now
+        out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(node);
+        out.writeShort(0);                     // fields
+        out.writeShort(2);                     // methods
+
+        // public <init>() { super(); }
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(ALOAD_0);
+        init.write(INVOKESPECIAL);
+        writeShort(init, superInit);
+        init.write(RETURN);
+        writeMethod(out, initName, initDesc, codeAttr, 1, 1, init.toByteArray());
+
+        // public double evaluate(double[] vars) { return <expression>; }
+        writeMethod(out, evalName, evalDesc, codeAttr, maxStack, nextLocal, code.toByteArray());
+
+        out.writeShort(0);                     // class attributes
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttr,
+                                    int maxStack, int maxLocals, byte[] body) throws IOException {
+        out.writeShort(0x0001);                // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttr);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);                     // exception table
+        out.writeShort(0);                     // code attributes
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Constant pool
+     *------------------------------------------------------------------*/
+
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int next = 1;
+
+        int utf8(String s) {
+            return intern("U" + s, 1, () -> { out.writeByte(1); out.writeUTF(s); });
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return intern("C" + internalName, 1, () -> { out.writeByte(7); out.writeShort(name); });
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int cls = classRef(owner);
+            int n = utf8(name), d = utf8(descriptor);
+            int nat = intern("N" + name + descriptor, 1, () -> { out.writeByte(12); out.writeShort(n); out.writeShort(d); });
+            return intern("M" + owner + '.' + name + descriptor, 1, () -> { out.writeByte(10); out.writeShort(cls); out.writeShort(nat); });
+        }
+
+        /** Doubles take two pool slots */
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            return intern("D" + bits, 2, () -> { out.writeByte(6); out.writeLong(bits); });
+        }
+
+        private interface Writer { void write() throws IOException; }
+
+        private int intern(String key, int slots, Writer writer) {
+            Integer index = indices.get(key);
+            if (index != null) return index;
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = next;
+            next += slots;
+            if (next > 0xFFFF) throw new IllegalStateException("constant pool overflow");
+            indices.put(key, index);
+            return index;
+        }
+
+        void writeTo(DataOutputStream dest) throws IOException {
+            dest.writeShort(next);
+            bytes.writeTo(dest);
+        }
+    }
+}
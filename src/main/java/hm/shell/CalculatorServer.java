@@ -0,0 +1,328 @@
+package hm.shell;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Headless HTTP/JSON entry point serving the calculator grammar, one virtual thread per request.
+ *
+ * <pre>
+ * java -cp CalculatorApp.jar hm.shell.CalculatorServer [-h host] [-p port] [-d digits]
+ *      [-b maxBodyBytes] [-n maxBatchSize] [-c maxConcurrent] [-t timeoutMillis]
+ * </pre>
+ *
+ * <ul>
+ *   <li>{@code POST /evaluate} with {@code {"expression": "2(3+4)²"}} returns
+ *       {@code {"expression": ..., "result": "98"}}, or status 422 with
+ *       {@code "error": {"code", "message", "position", "length"}}</li>
+ *   <li>{@code POST /batch} with a JSON array of expressions returns an array of such objects in order</li>
+ *   <li>{@code GET /metrics} returns request counts and the request latency histogram</li>
+ * </ul>
+ *
+ * Results are exact decimals from {@link DecimalEvaluator}, as strings. Requests beyond the
+ * concurrency limit get 503 rather than queueing, and each expression, alone or in a batch, is
+ * given the timeout. A request keeps its place under the limit until every evaluation it started
+ * has stopped, so timed-out work that ignores the interrupt still counts against it.
+ */
+public class CalculatorServer implements AutoCloseable {
+
+    /** Request limits; zero timeout means none */
+    public record Limits(int maxBodyBytes, int maxBatchSize, int maxConcurrent, Duration timeout) {
+        public static final Limits DEFAULT = new Limits(1 << 20, 10_000, 64, Duration.ofSeconds(10));
+    }
+
+    private static final int CACHE_SIZE = 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExpressionCache cache;
+    private final DecimalEvaluator decimal;
+    private final AsyncEvaluator async;
+    private final Limits limits;
+    private final Semaphore permits;
+
+    private final EvaluationMetrics.Histogram latency = new EvaluationMetrics.Histogram();
+    private final LongAdder rejected = new LongAdder();
+
+    public CalculatorServer(InetSocketAddress address, ExpressionCache cache, DecimalEvaluator decimal, Limits limits)
+            throws IOException {
+        this.cache = cache;
+        this.decimal = decimal;
+        this.limits = limits;
+        this.async = new AsyncEvaluator(limits.timeout(), limits.maxConcurrent());
+        this.permits = new Semaphore(limits.maxConcurrent());
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/evaluate", exchange -> handle(exchange, "POST", this::evaluate));
+        server.createContext("/batch", exchange -> handle(exchange, "POST", this::batch));
+        server.createContext("/metrics", exchange -> handle(exchange, "GET", this::metrics));
+    }
+
+    public static void main(String[] args) {
+        String host = "localhost";
+        int port = 8080;
+        int digits = 16;
+        Limits d = Limits.DEFAULT;
+        int maxBody = d.maxBodyBytes(), maxBatch = d.maxBatchSize(), maxConcurrent = d.maxConcurrent();
+        long timeoutMillis = d.timeout().toMillis();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-h" -> host = args[++i];
+                    case "-p" -> port = Integer.parseInt(args[++i]);
+                    case "-d" -> digits = Integer.parseInt(args[++i]);
+                    case "-b" -> maxBody = Integer.parseInt(args[++i]);
+                    case "-n" -> maxBatch = Integer.parseInt(args[++i]);
+                    case "-c" -> maxConcurrent = Integer.parseInt(args[++i]);
+                    case "-t" -> timeoutMillis = Long.parseLong(args[++i]);
+                    default -> throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("usage: CalculatorServer [-h host] [-p port] [-d digits] [-b maxBodyBytes] "
+                    + "[-n maxBatchSize] [-c maxConcurrent] [-t timeoutMillis]");
+            System.exit(2);
+        }
+
+        try {
+            CalculatorServer server = new CalculatorServer(new InetSocketAddress(host, port),
+                    new ExpressionCache(new ExpressionEvaluator(), CACHE_SIZE),
+                    new DecimalEvaluator(new MathContext(digits)),
+                    new Limits(maxBody, maxBatch, maxConcurrent, Duration.ofMillis(timeoutMillis)));
+            server.start();
+            System.err.println("CalculatorServer listening on http://" + host + ":" + server.port());
+        } catch (IOException e) {
+            System.err.println("CalculatorServer: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public void start() { server.start(); }
+
+    /** The bound port, useful when started on port 0 */
+    public int port() { return server.getAddress().getPort(); }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+        async.close();
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Request handling
+     *------------------------------------------------------------------*/
+
+    /** A rejected request: status and message */
+    private static final class HttpError extends Exception {
+        final int status;
+
+        HttpError(int status, String msg) {
+            super(msg, null, false, false);
+            this.status = status;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        /** Writes the response body and returns the status */
+        int respond(String body, StringBuilder out, Lease lease) throws HttpError;
+    }
+
+    /** A request's concurrency permit, held until the request and every evaluation it started are done */
+    private final class Lease {
+        private final AtomicInteger holders = new AtomicInteger(1);
+
+        void retain() {
+            holders.incrementAndGet();
+        }
+
+        void release() {
+            if (holders.decrementAndGet() == 0) permits.release();
+        }
+    }
+
+    private void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            if (!permits.tryAcquire()) {
+                rejected.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, error("Too many concurrent requests"));
+                return;
+            }
+            Lease lease = new Lease();
+            try {
+                if (!exchange.getRequestMethod().equals(method)) throw new HttpError(405, "Use " + method);
+                StringBuilder out = new StringBuilder();
+                int status = endpoint.respond(readBody(exchange), out, lease);
+                send(exchange, status, out);
+            } catch (HttpError e) {
+                send(exchange, e.status, error(e.getMessage()));
+            } catch (StackOverflowError e) {
+                send(exchange, 400, error("Request nested too deeply"));
+            } finally {
+                lease.release();
+            }
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    private String readBody(HttpExchange exchange) throws IOException, HttpError {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(limits.maxBodyBytes() + 1);
+            if (body.length > limits.maxBodyBytes()) {
+                throw new HttpError(413, "Request body exceeds " + limits.maxBodyBytes() + " bytes");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static StringBuilder error(String message) {
+        return Json.quote(new StringBuilder("{\"error\":"), message).append('}');
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Endpoints
+     *------------------------------------------------------------------*/
+
+    private int evaluate(String body, StringBuilder out, Lease lease) throws HttpError {
+        if (!(parse(body) instanceof Map<?, ?> request) || !(request.get("expression") instanceof String expr)) {
+            throw new HttpError(400, "Expected {\"expression\": \"...\"}");
+        }
+        return result(expr, out, lease) ? 200 : 422;
+    }
+
+    private int batch(String body, StringBuilder out, Lease lease) throws HttpError {
+        if (!(parse(body) instanceof List<?> expressions)) throw new HttpError(400, "Expected an array of expressions");
+        if (expressions.size() > limits.maxBatchSize()) {
+            throw new HttpError(413, "Batch exceeds " + limits.maxBatchSize() + " expressions");
+        }
+        for (Object e : expressions) {
+            if (!(e instanceof String)) throw new HttpError(400, "Expected an array of expressions");
+        }
+
+        out.append('[');
+        for (int i = 0; i < expressions.size(); i++) {
+            if (i > 0) out.append(',');
+            result((String) expressions.get(i), out, lease);
+        }
+        out.append(']');
+        return 200;
+    }
+
+    private int metrics(String body, StringBuilder out, Lease lease) {
+        out.append("{\"requests\":").append(latency.count.sum())
+                .append(",\"rejected\":").append(rejected.sum())
+                .append(",\"busyWorkers\":").append(async.busyWorkers())
+                .append(",\"meanMicros\":").append(latency.meanMicros())
+                .append(",\"p50Micros\":").append(latency.percentileMicros(0.5))
+                .append(",\"p99Micros\":").append(latency.percentileMicros(0.99))
+                .append(",\"latencyBucketsMicros\":").append(array(EvaluationMetrics.Histogram.bounds()))
+                .append(",\"latencyCounts\":").append(array(latency.snapshot()))
+                .append('}');
+        return 200;
+    }
+
+    private static Object parse(String body) throws HttpError {
+        try {
+            return Json.parse(body);
+        } catch (Json.ParseException e) {
+            throw new HttpError(400, "Malformed JSON: " + e.getMessage());
+        }
+    }
+
+    private static String array(long[] values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /** Appends the result object for one expression; returns false if it failed */
+    private boolean result(String expr, StringBuilder out, Lease lease) {
+        Json.quote(out.append("{\"expression\":"), expr);
+        try {
+            BigDecimal value = calculate(expr, lease);
+            Json.quote(out.append(",\"result\":"), value.toString()).append('}');
+            return true;
+        } catch (MathOperations.CalcException e) {
+            out.append(",\"error\":{\"code\":\"").append(e.getCode().name()).append('"');
+            Json.quote(out.append(",\"message\":"), e.getMessage());
+            if (e.getPosition() >= 0) {
+                out.append(",\"position\":").append(e.getPosition()).append(",\"length\":").append(e.getLength());
+            }
+            out.append("}}");
+            return false;
+        }
+    }
+
+    /**
+     * Evaluates on the async workers so a runaway expression is cut off at the timeout. The
+     * request waits no longer than the timeout either, but its lease is kept until the worker
+     * has really stopped.
+     */
+    private BigDecimal calculate(String expr, Lease lease) throws MathOperations.CalcException {
+        CompletableFuture<BigDecimal> outcome = new CompletableFuture<>();
+        lease.retain();
+        AsyncEvaluator.Handle handle = async.submit(() -> decimal.evaluate(cache.parse(expr)), Runnable::run, new AsyncEvaluator.Callback<>() {
+            @Override
+            public void onResult(BigDecimal result) { outcome.complete(result); }
+
+            @Override
+            public void onError(MathOperations.CalcException e) { outcome.completeExceptionally(e); }
+
+            @Override
+            public void onStopped() { lease.release(); }
+        });
+        Duration timeout = limits.timeout();
+        try {
+            return timeout.isZero() ? outcome.get() : outcome.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (MathOperations.CalcException) e.getCause();
+        } catch (TimeoutException e) {
+            handle.cancel();
+            throw new MathOperations.CalcException(ErrorCode.TIMED_OUT, timeout.toMillis() + " ms");
+        } catch (InterruptedException e) {
+            handle.cancel();
+            Thread.currentThread().interrupt();
+            throw ErrorCode.INTERRUPTED.exception();
+        }
+    }
+}
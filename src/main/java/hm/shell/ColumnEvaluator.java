@@ -0,0 +1,203 @@
+package hm.shell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Evaluates one expression over whole columns of variable values, e.g. {@code √(x)x²+3!}
+ * for every x of a dataset.
+ *
+ * <p>The tree is flattened once into a postfix program, then run block by block: every
+ * instruction processes a block of rows at a time, with + - x ÷ and √ going through
+ * {@link ColumnKernels} (SIMD lanes when the Vector API is available). Results are
+ * identical to evaluating each row on its own: a row that would fail, such as with a division
+ * by zero, gets NaN and the {@link ErrorCode} it would fail with, and the other rows go on.
+ */
+public final class ColumnEvaluator {
+
+    /** Rows per block: small enough that the working stack of blocks stays in cache */
+    private static final int BLOCK = 1024;
+
+    private static final ColumnKernels KERNELS = ColumnKernels.best();
+
+    private enum OpCode { CONSTANT, VARIABLE, ADD, SUBTRACT, MULTIPLY, DIVIDE, POWER, SQRT, FACTORIAL }
+
+    private record Instruction(OpCode code, double constant, int variable) {}
+
+    /** One value per row, and per row the error it failed with, or null; a failed row's value is NaN */
+    public record Result(double[] values, ErrorCode[] errors) {
+        public boolean failed(int row) { return errors[row] != null; }
+
+        /** Number of rows that failed */
+        public int failures() {
+            int n = 0;
+            for (ErrorCode e : errors) {
+                if (e != null) n++;
+            }
+            return n;
+        }
+    }
+
+    private final Expression expression;
+    private final Instruction[] program;
+    private final int maxDepth;
+
+    public ColumnEvaluator(Expression expression) {
+        this.expression = expression;
+        List<Instruction> out = new ArrayList<>();
+        this.maxDepth = flatten(expression.root(), out);
+        this.program = out.toArray(new Instruction[0]);
+    }
+
+    /** True when the SIMD kernels are in use rather than the scalar fallback */
+    public static boolean isVectorized() {
+        return !(KERNELS instanceof ColumnKernels.Scalar);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Evaluation
+     *------------------------------------------------------------------*/
+
+    /** Evaluates every row; {@code columns[i]} holds the values of the i-th declared variable */
+    public Result evaluate(double[]... columns) {
+        int rows = rowCount(columns);
+        Result result = new Result(new double[rows], new ErrorCode[rows]);
+        evaluateInto(columns, result.values(), result.errors());
+        return result;
+    }
+
+    /**
+     * Evaluates every row into {@code out}, and the error of each failed row into {@code errors}
+     * (null for the others); both must be as long as the columns
+     */
+    public void evaluateInto(double[][] columns, double[] out, ErrorCode[] errors) {
+        if (columns.length != expression.variables().size()) {
+            throw new IllegalArgumentException("expected " + expression.variables().size() + " columns, got " + columns.length);
+        }
+        int rows = columns.length == 0 ? out.length : rowCount(columns);
+        if (out.length != rows) throw new IllegalArgumentException("output length " + out.length + " != " + rows + " rows");
+        if (errors.length != rows) throw new IllegalArgumentException("errors length " + errors.length + " != " + rows + " rows");
+
+        Arrays.fill(errors, null);
+        double[][] stack = new double[maxDepth][BLOCK];
+        for (int offset = 0; offset < rows; offset += BLOCK) {
+            int n = Math.min(BLOCK, rows - offset);
+            runBlock(columns, offset, n, stack, errors);
+            System.arraycopy(stack[0], 0, out, offset, n);
+        }
+        for (int i = 0; i < rows; i++) {
+            if (errors[i] != null) out[i] = Double.NaN;
+        }
+    }
+
+    /*
+     * A row keeps the first error it meets, in the order the program runs, which is the order
+     * evaluating the row alone would meet them in. Its later values are not looked at.
+     */
+
+    private void runBlock(double[][] columns, int offset, int n, double[][] stack, ErrorCode[] errors) {
+        int sp = 0;
+        for (Instruction ins : program) {
+            switch (ins.code) {
+                case CONSTANT  -> Arrays.fill(stack[sp++], 0, n, ins.constant);
+                case VARIABLE  -> System.arraycopy(columns[ins.variable], offset, stack[sp++], 0, n);
+                case ADD       -> KERNELS.add(stack[sp - 2], stack[--sp], n);
+                case SUBTRACT  -> KERNELS.subtract(stack[sp - 2], stack[--sp], n);
+                case MULTIPLY  -> KERNELS.multiply(stack[sp - 2], stack[--sp], n);
+                case DIVIDE -> {
+                    double[] divisor = stack[--sp];
+                    if (KERNELS.anyZero(divisor, n)) {
+                        for (int i = 0; i < n; i++) {
+                            if (divisor[i] == 0) fail(errors, offset + i, ErrorCode.DIVISION_BY_ZERO);
+                        }
+                    }
+                    KERNELS.divide(stack[sp - 1], divisor, n);
+                }
+                case SQRT -> {
+                    double[] a = stack[sp - 1];
+                    if (KERNELS.anyNegative(a, n)) {
+                        for (int i = 0; i < n; i++) {
+                            if (a[i] < 0) fail(errors, offset + i, ErrorCode.NEGATIVE_SQRT);
+                        }
+                    }
+                    KERNELS.sqrt(a, n);
+                }
+                case POWER -> {
+                    double[] base = stack[sp - 2], exponent = stack[--sp];
+                    for (int i = 0; i < n; i++) base[i] = MathOperations.power(base[i], exponent[i]);
+                }
+                case FACTORIAL -> {
+                    double[] a = stack[sp - 1];
+                    for (int i = 0; i < n; i++) {
+                        try {
+                            a[i] = MathOperations.factorial(a[i]);
+                        } catch (MathOperations.CalcException e) {
+                            fail(errors, offset + i, e.getCode());
+                            a[i] = Double.NaN;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void fail(ErrorCode[] errors, int row, ErrorCode error) {
+        if (errors[row] == null) errors[row] = error;
+    }
+
+    private static int rowCount(double[][] columns) {
+        if (columns.length == 0) throw new IllegalArgumentException("no columns given");
+        int rows = columns[0].length;
+        for (double[] c : columns) {
+            if (c.length != rows) throw new IllegalArgumentException("columns differ in length");
+        }
+        return rows;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Flattening
+     *------------------------------------------------------------------*/
+
+    /** Appends the postfix program for a tree; returns the stack depth it needs */
+    private static int flatten(Node root, List<Instruction> out) {
+        int[] depth = { 0, 0 }; // current and maximum
+        Postorder.walk(root, new Postorder.Visitor() {
+            @Override
+            public boolean enter(Node node) { return true; }
+
+            @Override
+            public void leave(Node node) {
+                out.add(instruction(node));
+                depth[0] += switch (out.get(out.size() - 1).code) {
+                    case CONSTANT, VARIABLE -> 1;
+                    case SQRT, FACTORIAL -> 0;
+                    default -> -1;
+                };
+                depth[1] = Math.max(depth[1], depth[0]);
+            }
+        });
+        return depth[1];
+    }
+
+    private static Instruction instruction(Node node) {
+        if (node instanceof Node.Constant c) return new Instruction(OpCode.CONSTANT, c.value(), -1);
+        if (node instanceof Node.Variable v) return new Instruction(OpCode.VARIABLE, 0, v.index());
+        if (node instanceof Node.Binary b) {
+            return new Instruction(switch (b.op()) {
+                case '+' -> OpCode.ADD;
+                case '-' -> OpCode.SUBTRACT;
+                case 'x' -> OpCode.MULTIPLY;
+                case '÷' -> OpCode.DIVIDE;
+                default  -> throw new IllegalArgumentException("unknown operator " + b.op());
+            }, 0, -1);
+        }
+        if (node instanceof Node.Power) return new Instruction(OpCode.POWER, 0, -1);
+        if (node instanceof Node.Sqrt) return new Instruction(OpCode.SQRT, 0, -1);
+        if (node instanceof Node.Factorial) return new Instruction(OpCode.FACTORIAL, 0, -1);
+        throw new IllegalArgumentException("cannot evaluate " + node.getClass().getSimpleName() + " over columns");
+    }
+}
@@ -0,0 +1,87 @@
+package hm.shell;
+
+
+/**
+ * Element-wise array operations used by {@link ColumnEvaluator}. Each method works in place on
+ * the first {@code n} elements of {@code a}. Implementations must match the scalar
+ * {@link MathOperations} results bit for bit wherever those succeed; the rows where they would
+ * fail are found with {@link #anyZero} and {@link #anyNegative} and reported by the caller.
+ */
+interface ColumnKernels {
+
+    void add(double[] a, double[] b, int n);
+
+    void subtract(double[] a, double[] b, int n);
+
+    void multiply(double[] a, double[] b, int n);
+
+    /** Divides as IEEE 754 does, so a zero divisor gives an infinity or NaN rather than an error */
+    void divide(double[] a, double[] b, int n);
+
+    /** Square roots as IEEE 754 does, NaN for a negative */
+    void sqrt(double[] a, int n);
+
+    /** True if any of the first n elements is zero, of either sign */
+    boolean anyZero(double[] a, int n);
+
+    /** True if any of the first n elements is below zero */
+    boolean anyNegative(double[] a, int n);
+
+
+    /** Kernels for this JVM: SIMD when jdk.incubator.vector is available, plain loops otherwise */
+    static ColumnKernels best() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return new VectorColumnKernels();
+            } catch (LinkageError e) {
+                // fall through to the scalar loops
+            }
+        }
+        return new Scalar();
+    }
+
+
+    /** Plain loops, used when the Vector API is not available */
+    final class Scalar implements ColumnKernels {
+        @Override
+        public void add(double[] a, double[] b, int n) {
+            for (int i = 0; i < n; i++) a[i] = a[i] + b[i];
+        }
+
+        @Override
+        public void subtract(double[] a, double[] b, int n) {
+            for (int i = 0; i < n; i++) a[i] = a[i] - b[i];
+        }
+
+        @Override
+        public void multiply(double[] a, double[] b, int n) {
+            for (int i = 0; i < n; i++) a[i] = a[i] * b[i];
+        }
+
+        @Override
+        public void divide(double[] a, double[] b, int n) {
+            for (int i = 0; i < n; i++) a[i] = a[i] / b[i];
+        }
+
+        @Override
+        public void sqrt(double[] a, int n) {
+            for (int i = 0; i < n; i++) a[i] = Math.sqrt(a[i]);
+        }
+
+        @Override
+        public boolean anyZero(double[] a, int n) {
+            for (int i = 0; i < n; i++) {
+                if (a[i] == 0) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean anyNegative(double[] a, int n) {
+            for (int i = 0; i < n; i++) {
+                if (a[i] < 0) return true;
+            }
+            return false;
+        }
+    }
+}
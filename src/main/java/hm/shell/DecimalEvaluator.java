@@ -0,0 +1,364 @@
+package hm.shell;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+
+/**
+ * Arbitrary-precision evaluation of a parsed {@link Expression} under a {@link MathContext}.
+ *
+ * <p>Most expressions are integer arithmetic, so they are first evaluated over the integers:
+ * in {@code long} with overflow checks and powers by squaring, and if a step overflows, again
+ * in {@link BigInteger}. Integer results are exact whatever the context's precision, so 2⁶³
+ * is 9223372036854775808 rather than 9.223372036854776E18. As soon as a step leaves the
+ * integers (an inexact ÷ or √, a non-integer factorial) or an exact result would grow beyond
+ * {@link #MAX_EXACT_BITS}, the whole tree is re-evaluated in {@link BigDecimal}, rounded to
+ * the context after every step.
+ *
+ * <p>Literals enter every path with their value exactly as written, not as the double the
+ * other evaluators use, so a DECIMAL128 context sees all the digits of
+ * {@code 1.0000000000000000000001}.
+ *
+ * <p>All paths run over the expression's {@link Postorder} form, so they use no recursion
+ * and compute each shared subtree once.
+ */
+public class DecimalEvaluator {
+
+    /** Largest integer a double represents exactly, together with all smaller ones */
+    private static final long EXACT_LIMIT = 1L << 53;
+
+    /** Largest n! computed exactly; beyond this the exact product gets too expensive */
+    public static final int MAX_EXACT_FACTORIAL = 100_000;
+
+    /**
+     * Largest exact product or power, in bits (about 630,000 digits; {@link #MAX_EXACT_FACTORIAL}!
+     * fits); anything larger is computed in BigDecimal, rounded to the context
+     */
+    public static final int MAX_EXACT_BITS = 1 << 21;
+
+    /*
+     * Results of a long step that are not values. Both send the evaluation on: OVERFLOW to
+     * BigInteger, NOT_INTEGER to BigDecimal, which also reports errors such as ÷ by zero.
+     * A step whose true result is one of these two numbers reports OVERFLOW.
+     */
+    private static final long OVERFLOW = Long.MIN_VALUE;
+    private static final long NOT_INTEGER = Long.MIN_VALUE + 1;
+
+    /** n! for every n whose factorial fits in a long */
+    private static final long[] FACTORIALS = new long[21];
+    static {
+        FACTORIALS[0] = 1;
+        for (int n = 1; n < FACTORIALS.length; n++) FACTORIALS[n] = FACTORIALS[n - 1] * n;
+    }
+
+    private final MathContext mc;
+
+    public DecimalEvaluator(MathContext mc) {
+        this.mc = mc;
+    }
+
+    public MathContext mathContext() { return mc; }
+
+    /** Evaluates with one value per declared variable, in declaration order */
+    public BigDecimal evaluate(Expression expression, BigDecimal... values) throws MathOperations.CalcException {
+        Number value = value(expression, values);
+        if (value instanceof Long l) return BigDecimal.valueOf(l);
+        if (value instanceof BigInteger i) return new BigDecimal(i);
+        return round((BigDecimal) value);
+    }
+
+    /**
+     * As {@link #evaluate}, but tells an exact integer result, returned as a BigInteger, from a
+     * BigDecimal. The BigDecimal is the value an enclosing expression would take as its operand:
+     * rounded by the last step, but a lone literal keeps all its digits.
+     */
+    Number evaluateExact(Expression expression, BigDecimal... values) throws MathOperations.CalcException {
+        Number value = value(expression, values);
+        return value instanceof Long l ? BigInteger.valueOf(l) : value;
+    }
+
+    /** A non-integer result as {@link #evaluate} returns it */
+    BigDecimal round(BigDecimal x) {
+        return normalize(x.round(mc));
+    }
+
+    /** A Long or BigInteger if the result is an exact integer, otherwise a BigDecimal as the last step left it */
+    private Number value(Expression expression, BigDecimal[] values) throws MathOperations.CalcException {
+        if (values.length != expression.variables().size()) {
+            throw new IllegalArgumentException("expected " + expression.variables().size() + " variable values, got " + values.length);
+        }
+        long start = EvaluationMetrics.ENABLED ? System.nanoTime() : 0;
+        StageEvents.Evaluate event = StageEvents.evaluate(true);
+        boolean failed = false;
+        try {
+            long[] longs = new long[values.length];
+            for (int i = 0; i < values.length; i++) longs[i] = integer(values[i]);
+
+            Postorder order = expression.postorder();
+            long exact = integer(order, longs);
+            if (exact > NOT_INTEGER) return exact;
+            if (exact == OVERFLOW) {
+                BigInteger[] integers = new BigInteger[values.length];
+                for (int i = 0; i < values.length; i++) integers[i] = bigInteger(values[i]);
+                BigInteger big = integer(order, integers);
+                if (big != null) return big;
+            }
+            return decimal(order, values);
+        } catch (MathOperations.CalcException e) {
+            failed = true;
+            if (EvaluationMetrics.ENABLED) EvaluationMetrics.failed(e);
+            throw e;
+        } finally {
+            StageEvents.finish(event, expression.source().length(), failed);
+            if (EvaluationMetrics.ENABLED) EvaluationMetrics.evaluated(start);
+        }
+    }
+
+    /**
+     * Drops trailing zeros left by rounding to the context precision, e.g. 1.5 x 2. A large
+     * result keeps its negative scale, 1E+30 rather than 30 zeros: expanding 2⁹⁹⁹⁹⁹⁹⁹ would
+     * build millions of digits that rounding has already made meaningless.
+     */
+    private static BigDecimal normalize(BigDecimal x) {
+        return x.stripTrailingZeros();
+    }
+
+
+    /*------------------------------------------------------------------
+     *  long path
+     *------------------------------------------------------------------*/
+
+    /** Value of the expression if every step is an integer that fits in a long, OVERFLOW or NOT_INTEGER otherwise */
+    private static long integer(Postorder order, long[] vars) {
+        long[] values = new long[order.size()];
+        for (int i = 0; i < values.length; i++) {
+            int a = order.first(i), b = order.second(i);
+            long value = integer(order.node(i), a < 0 ? NOT_INTEGER : values[a], b < 0 ? NOT_INTEGER : values[b], vars);
+            if (value <= NOT_INTEGER) return value;
+            values[i] = value;
+        }
+        return values[values.length - 1];
+    }
+
+    /**
+     * Value of a node whose operands are constants, if it is an integer a double represents
+     * exactly; NaN otherwise. Used for constant folding at parse time.
+     */
+    static double fold(Node node) {
+        Node a = Postorder.firstOperand(node), b = Postorder.secondOperand(node);
+        long x = a instanceof Node.Constant c ? foldable(c) : NOT_INTEGER;
+        long y = b instanceof Node.Constant c ? foldable(c) : NOT_INTEGER;
+        if (x <= NOT_INTEGER || (b != null && y <= NOT_INTEGER)) return Double.NaN;
+        long value = integer(node, x, y, null);
+        if (value <= NOT_INTEGER || Math.abs(value) >= EXACT_LIMIT) return Double.NaN;
+        if (value != 0) return value;
+
+        // a long has no negative zero, as in 0 x -1; the double operations, exact here, keep it
+        double p = ((Node.Constant) a).value(), q = b == null ? 0 : ((Node.Constant) b).value();
+        if (node instanceof Node.Binary bin) {
+            return switch (bin.op()) {
+                case '+' -> p + q;
+                case '-' -> p - q;
+                case 'x' -> p * q;
+                default  -> p / q;
+            };
+        }
+        return node instanceof Node.Power ? Math.pow(p, q) : Math.sqrt(p);
+    }
+
+    /**
+     * The constant as a long if it is an integer its double holds exactly, so folding it keeps
+     * the double result; decided from the literal, as 9007199254740993 has no double of its own
+     */
+    private static long foldable(Node.Constant c) {
+        long x = integer(c.exact());
+        return x > NOT_INTEGER && Math.abs(x) < EXACT_LIMIT ? x : NOT_INTEGER;
+    }
+
+    /** One long step, given the values x and y of the node's operands */
+    private static long integer(Node node, long x, long y, long[] vars) {
+        try {
+            if (node instanceof Node.Constant c) return integer(c.exact());
+            if (node instanceof Node.Variable v) return vars[v.index()];
+            if (node instanceof Node.Binary b) {
+                return switch (b.op()) {
+                    case '+' -> checked(Math.addExact(x, y));
+                    case '-' -> checked(Math.subtractExact(x, y));
+                    case 'x' -> checked(Math.multiplyExact(x, y));
+                    case '÷' -> y != 0 && x % y == 0 ? x / y : NOT_INTEGER;
+                    default  -> NOT_INTEGER;
+                };
+            }
+            if (node instanceof Node.Power) return y < 0 ? NOT_INTEGER : power(x, y);
+            if (node instanceof Node.Sqrt) {
+                if (x < 0) return NOT_INTEGER;
+                long r = (long) Math.sqrt(x);
+                if (r * r == x) return r;
+                // Math.sqrt is exact below 2^53; above, let BigInteger decide
+                return x < EXACT_LIMIT ? NOT_INTEGER : OVERFLOW;
+            }
+            if (node instanceof Node.Factorial) {
+                if (x < 0) return NOT_INTEGER;
+                return x < FACTORIALS.length ? FACTORIALS[(int) x] : OVERFLOW;
+            }
+            return NOT_INTEGER;
+        } catch (ArithmeticException e) {
+            return OVERFLOW;
+        }
+    }
+
+    /** x<sup>n</sup> for n &ge; 0 by repeated squaring */
+    private static long power(long x, long n) {
+        long result = 1;
+        while (true) {
+            if ((n & 1) != 0) result = Math.multiplyExact(result, x);
+            n >>= 1;
+            if (n == 0) return checked(result);
+            // a remaining bit multiplies the result by at least x², so this overflows only if the result would
+            x = Math.multiplyExact(x, x);
+        }
+    }
+
+    private static long checked(long x) {
+        return x <= NOT_INTEGER ? OVERFLOW : x;
+    }
+
+    /** Called for every literal, so it decides without throwing */
+    private static long integer(BigDecimal x) {
+        if (x.scale() > 0) {
+            x = x.stripTrailingZeros();
+            if (x.scale() > 0) return NOT_INTEGER;
+        }
+        // up to 18 digits always fit in a long
+        if (x.precision() - x.scale() > 18) return OVERFLOW;
+        return checked(x.longValueExact());
+    }
+
+
+    /*------------------------------------------------------------------
+     *  BigInteger path
+     *------------------------------------------------------------------*/
+
+    /** Exact value of the expression if every step is an integer within MAX_EXACT_BITS, null otherwise */
+    private static BigInteger integer(Postorder order, BigInteger[] vars) throws MathOperations.CalcException {
+        BigInteger[] values = new BigInteger[order.size()];
+        for (int i = 0; i < values.length; i++) {
+            AsyncEvaluator.checkInterrupted();
+            int a = order.first(i), b = order.second(i);
+            BigInteger value = integer(order.node(i), a < 0 ? null : values[a], b < 0 ? null : values[b], vars);
+            if (value == null) return null;
+            values[i] = value;
+        }
+        return values[values.length - 1];
+    }
+
+    /** One BigInteger step, given the values x and y of the node's operands */
+    private static BigInteger integer(Node node, BigInteger x, BigInteger y, BigInteger[] vars) {
+        if (node instanceof Node.Constant c) return bigInteger(c.exact());
+        if (node instanceof Node.Variable v) return vars[v.index()];
+        if (node instanceof Node.Binary b) {
+            return switch (b.op()) {
+                case '+' -> x.add(y);
+                case '-' -> x.subtract(y);
+                case 'x' -> (long) x.bitLength() + y.bitLength() <= MAX_EXACT_BITS ? x.multiply(y) : null;
+                case '÷' -> {
+                    if (y.signum() == 0) yield null;
+                    BigInteger[] qr = x.divideAndRemainder(y);
+                    yield qr[1].signum() == 0 ? qr[0] : null;
+                }
+                default  -> null;
+            };
+        }
+        if (node instanceof Node.Power) {
+            if (y.signum() < 0) return null;
+            // 0, 1 and -1 only depend on whether the exponent is 0, odd or even
+            if (x.abs().compareTo(BigInteger.ONE) <= 0) return x.pow(y.signum() == 0 ? 0 : y.testBit(0) ? 1 : 2);
+            if (y.bitLength() > 31 || (long) x.bitLength() * y.intValue() > MAX_EXACT_BITS) return null;
+            return x.pow(y.intValue());
+        }
+        if (node instanceof Node.Sqrt) {
+            if (x.signum() < 0) return null;
+            BigInteger r = x.sqrt();
+            return r.multiply(r).equals(x) ? r : null;
+        }
+        if (node instanceof Node.Factorial) {
+            if (x.signum() < 0 || x.compareTo(BigInteger.valueOf(MAX_EXACT_FACTORIAL)) > 0) return null;
+            return Factorials.exact(x.intValue());
+        }
+        return null;
+    }
+
+    private static BigInteger bigInteger(BigDecimal x) {
+        try {
+            return x.toBigIntegerExact();
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+
+    /*------------------------------------------------------------------
+     *  BigDecimal path
+     *------------------------------------------------------------------*/
+
+    private BigDecimal decimal(Postorder order, BigDecimal[] vars) throws MathOperations.CalcException {
+        BigDecimal[] values = new BigDecimal[order.size()];
+        for (int i = 0; i < values.length; i++) {
+            AsyncEvaluator.checkInterrupted();
+            int a = order.first(i), b = order.second(i);
+            values[i] = decimal(order.node(i), a < 0 ? null : values[a], b < 0 ? null : values[b], vars);
+        }
+        return values[values.length - 1];
+    }
+
+    /** One BigDecimal step, given the values x and y of the node's operands */
+    private BigDecimal decimal(Node node, BigDecimal x, BigDecimal y, BigDecimal[] vars) throws MathOperations.CalcException {
+        if (node instanceof Node.Constant c) return c.exact();
+        if (node instanceof Node.Variable v) return vars[v.index()];
+        if (node instanceof Node.Binary b) {
+            return switch (b.op()) {
+                case '+' -> x.add(y, mc);
+                case '-' -> x.subtract(y, mc);
+                case 'x' -> x.multiply(y, mc);
+                case '÷' -> {
+                    if (y.signum() == 0) throw ErrorCode.DIVISION_BY_ZERO.exception();
+                    yield x.divide(y, mc);
+                }
+                default  -> throw ErrorCode.UNKNOWN_OPERATOR.exception();
+            };
+        }
+        if (node instanceof Node.Power) {
+            try {
+                return x.pow(y.intValueExact(), mc);
+            } catch (ArithmeticException e) {
+                // non-integer or huge exponent: only a double approximation is available
+                return approximate(Math.pow(x.doubleValue(), y.doubleValue()));
+            }
+        }
+        if (node instanceof Node.Sqrt) {
+            if (x.signum() < 0) throw ErrorCode.NEGATIVE_SQRT.exception();
+            return x.sqrt(mc);
+        }
+        if (node instanceof Node.Factorial) {
+            if (x.signum() < 0) throw ErrorCode.NEGATIVE_FACTORIAL.exception();
+            BigInteger n;
+            try {
+                n = x.toBigIntegerExact();
+            } catch (ArithmeticException e) {
+                return approximate(MathOperations.factorial(x.doubleValue()));
+            }
+            if (n.compareTo(BigInteger.valueOf(MAX_EXACT_FACTORIAL)) > 0) {
+                throw ErrorCode.FACTORIAL_TOO_LARGE.exception();
+            }
+            return new BigDecimal(Factorials.exact(n.intValue()), mc);
+        }
+        throw new MathOperations.CalcException(ErrorCode.INTERNAL, "cannot evaluate " + node.getClass().getSimpleName());
+    }
+
+    /** Promotes a double-only result, keeping just the digits the double actually determines */
+    private static BigDecimal approximate(double x) throws MathOperations.CalcException {
+        if (Double.isNaN(x) || Double.isInfinite(x)) throw ErrorCode.OUT_OF_RANGE.exception();
+        return BigDecimal.valueOf(x);
+    }
+}
@@ -0,0 +1,51 @@
+package hm.shell;
+
+
+/**
+ * Why an expression could not be calculated. Carried by {@link MathOperations.CalcException}
+ * together with the offset and length of the offending input, so callers can branch on the
+ * code and highlight the span without parsing messages.
+ */
+public enum ErrorCode {
+
+    // input
+    INVALID_CHARACTER("Invalid character"),
+    INVALID_NUMBER("Invalid number"),
+    MISPLACED_DOT("Misplaced '.'"),
+    UNMATCHED_BRACKET("Unmatched ')'"),
+    UNCLOSED_BRACKET("No closing parenthesis"),
+    EMPTY_EXPRESSION("Empty expression"),
+    EMPTY_BRACKETS("Empty brackets"),
+    UNEXPECTED_SYMBOL("Unexpected symbol"),
+    UNEXPECTED_END("Expression ends unexpectedly"),
+    MISSING_ROOT_OPERAND("No value found on square root"),
+    UNKNOWN_OPERATOR("Unknown operator"),
+
+    // arithmetic
+    DIVISION_BY_ZERO("Division by zero"),
+    NEGATIVE_SQRT("Square root of negative number"),
+    NEGATIVE_FACTORIAL("Factorial of negative number is undefined"),
+    FACTORIAL_TOO_LARGE("Factorial is too large to calculate"),
+    OUT_OF_RANGE("Result out of range"),
+    ROUNDING("Rounding Error"),
+
+    // evaluation
+    INTERRUPTED("Calculation interrupted"),
+    TIMED_OUT("Timed out"),
+    INTERNAL("Internal error");
+
+    private final String message;
+
+    /** Thrown for this code when there is no position to report, so such errors never allocate */
+    private final MathOperations.CalcException shared;
+
+    ErrorCode(String message) {
+        this.message = message;
+        this.shared = new MathOperations.CalcException(this, -1, 0);
+    }
+
+    public String message() { return message; }
+
+    /** The preallocated, position-free exception for this code */
+    public MathOperations.CalcException exception() { return shared; }
+}
@@ -0,0 +1,184 @@
+package hm.shell;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Process-wide evaluation counters, exposed over JMX as {@value #OBJECT_NAME}.
+ *
+ * <p>Off unless started with {@code -Dcalculator.metrics=true}. Call sites test
+ * {@link #ENABLED}, a constant the JIT folds away, so disabled metrics cost nothing.
+ */
+public final class EvaluationMetrics implements EvaluationMetricsMXBean {
+
+    public static final String OBJECT_NAME = "hm.shell:type=EvaluationMetrics";
+
+    /** Read once at startup, so disabled checks compile away */
+    static final boolean ENABLED = Boolean.getBoolean("calculator.metrics");
+
+    /** Operations counted in {@link MathOperations} */
+    enum Operation { ADD, SUBTRACT, MULTIPLY, DIVIDE, POWER, SQRT, FACTORIAL, ROUND }
+
+    /** Power-of-two buckets from 1µs to about 1s, plus an overflow bucket */
+    private static final int BUCKETS = 22;
+
+    private static final EvaluationMetrics INSTANCE = new EvaluationMetrics();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                System.err.println("Could not register " + OBJECT_NAME + ": " + e);
+            }
+        }
+    }
+
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder[] errorsByCode = adders(ErrorCode.values().length);
+    private final Histogram parses = new Histogram();
+    private final Histogram evaluations = new Histogram();
+    private final LongAdder[] operations = adders(Operation.values().length);
+
+    private EvaluationMetrics() {}
+
+    public static EvaluationMetrics get() { return INSTANCE; }
+
+
+    /*------------------------------------------------------------------
+     *  Recording, only called when ENABLED
+     *------------------------------------------------------------------*/
+
+    static void parsed(long startNanos) { INSTANCE.parses.record(System.nanoTime() - startNanos); }
+
+    static void evaluated(long startNanos) { INSTANCE.evaluations.record(System.nanoTime() - startNanos); }
+
+    static void failed(MathOperations.CalcException e) {
+        INSTANCE.errors.increment();
+        INSTANCE.errorsByCode[e.getCode().ordinal()].increment();
+    }
+
+    static void called(Operation op) { INSTANCE.operations[op.ordinal()].increment(); }
+
+
+    /*------------------------------------------------------------------
+     *  MXBean
+     *------------------------------------------------------------------*/
+
+    @Override public long getParseCount() { return parses.count.sum(); }
+
+    @Override public long getEvaluationCount() { return evaluations.count.sum(); }
+
+    @Override public long getErrorCount() { return errors.sum(); }
+
+    @Override
+    public Map<String, Long> getErrorsByCategory() {
+        Map<String, Long> out = new TreeMap<>();
+        for (ErrorCode code : ErrorCode.values()) {
+            long n = errorsByCode[code.ordinal()].sum();
+            if (n > 0) out.put(code.name(), n);
+        }
+        return out;
+    }
+
+    @Override public long[] getLatencyBucketsMicros() { return Histogram.bounds(); }
+
+    @Override public long[] getParseLatencyHistogram() { return parses.snapshot(); }
+
+    @Override public long[] getEvaluationLatencyHistogram() { return evaluations.snapshot(); }
+
+    @Override
+    public double getMeanEvaluationMicros() {
+        return evaluations.meanMicros();
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> out = new TreeMap<>();
+        for (Operation op : Operation.values()) out.put(op.name().toLowerCase(), operations[op.ordinal()].sum());
+        return out;
+    }
+
+    @Override
+    public void reset() {
+        errors.reset();
+        for (LongAdder a : errorsByCode) a.reset();
+        parses.reset();
+        evaluations.reset();
+        for (LongAdder a : operations) a.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EvaluationMetrics[parses=%d, evaluations=%d, errors=%d, mean=%.1fµs]",
+                getParseCount(), getEvaluationCount(), getErrorCount(), getMeanEvaluationMicros());
+    }
+
+
+    /** Latency histogram with log2 microsecond buckets; also used by {@link CalculatorServer} */
+    static final class Histogram {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder[] buckets = adders(BUCKETS);
+
+        void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            // bucket i holds latencies below 2^i µs
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets[bucket].increment();
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        /** Upper bound of each bucket in microseconds; the last is unbounded */
+        static long[] bounds() {
+            long[] bounds = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS - 1; i++) bounds[i] = 1L << i;
+            bounds[BUCKETS - 1] = Long.MAX_VALUE;
+            return bounds;
+        }
+
+        double meanMicros() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e3 / n;
+        }
+
+        /** Upper bound in microseconds of the bucket holding the given fraction of samples */
+        long percentileMicros(double fraction) {
+            long[] counts = snapshot();
+            long total = 0;
+            for (long c : counts) total += c;
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return i < BUCKETS - 1 ? 1L << i : Long.MAX_VALUE;
+            }
+            return 0;
+        }
+
+        long[] snapshot() {
+            long[] out = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) out[i] = buckets[i].sum();
+            return out;
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            for (LongAdder b : buckets) b.reset();
+        }
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] out = new LongAdder[n];
+        for (int i = 0; i < n; i++) out[i] = new LongAdder();
+        return out;
+    }
+}
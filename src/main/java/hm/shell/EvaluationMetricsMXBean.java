@@ -0,0 +1,34 @@
+package hm.shell;
+
+import java.util.Map;
+
+
+/**
+ * Management view of {@link EvaluationMetrics}, registered as {@value EvaluationMetrics#OBJECT_NAME}.
+ * Latencies are histograms over {@link #getLatencyBucketsMicros()}.
+ */
+public interface EvaluationMetricsMXBean {
+
+    long getParseCount();
+
+    long getEvaluationCount();
+
+    long getErrorCount();
+
+    /** Error count per {@link ErrorCode}, parse and evaluation errors alike */
+    Map<String, Long> getErrorsByCategory();
+
+    /** Upper bound of each latency bucket in microseconds; the last bucket is unbounded */
+    long[] getLatencyBucketsMicros();
+
+    long[] getParseLatencyHistogram();
+
+    long[] getEvaluationLatencyHistogram();
+
+    double getMeanEvaluationMicros();
+
+    /** Calls into MathOperations per operation */
+    Map<String, Long> getOperationCounts();
+
+    void reset();
+}
@@ -0,0 +1,103 @@
+package hm.shell;
+
+import java.util.List;
+
+
+/**
+ * A calculator expression parsed once into a {@link Node} tree.
+ * Instances are immutable from the caller's view and may be evaluated concurrently from any thread.
+ *
+ * <p>Evaluation is tiered: the tree is interpreted until it has been evaluated
+ * {@code compileThreshold} times, then compiled to bytecode by {@link BytecodeCompiler}.
+ * Both tiers produce bit-identical results. Trees too deep to walk recursively are interpreted
+ * from their {@link Postorder} form instead, so nesting is limited only by memory.
+ */
+public final class Expression {
+
+    private static final double[] NO_VARIABLES = {};
+
+    /** Deepest tree interpreted by recursion through {@link Node#evaluate}, well within any thread's stack */
+    private static final int MAX_RECURSIVE_HEIGHT = 500;
+
+    private final String source;
+    private final Node root;
+    private final List<String> variables;
+    private final boolean sharedSubtrees;
+    private final Postorder postorder;
+    private final Node interpreter;
+
+    /** What evaluate() runs: the interpreter until compiled */
+    private volatile Node target;
+
+    /** Calls left before compiling; counted without synchronization, a lost update only delays compilation */
+    private int remaining;
+    private boolean compileAttempted = false;
+
+    Expression(String source, Node root, List<String> variables, boolean sharedSubtrees, int compileThreshold) {
+        this.source = source;
+        this.root = root;
+        this.variables = variables;
+        this.sharedSubtrees = sharedSubtrees;
+        this.postorder = Postorder.of(root, sharedSubtrees);
+        this.interpreter = postorder.height() <= MAX_RECURSIVE_HEIGHT ? root : postorder;
+        this.target = interpreter;
+        this.remaining = compileThreshold;
+        if (compileThreshold == 0) compile();
+    }
+
+    public String source() { return source; }
+
+    public Node root() { return root; }
+
+    /** True if identical subtrees of the root are shared, so memoizing evaluators can reuse their values */
+    public boolean hasSharedSubtrees() { return sharedSubtrees; }
+
+    /** The tree flattened for iterative evaluation, listing shared subtrees once */
+    Postorder postorder() { return postorder; }
+
+    /** Variable names in the order their values are passed to evaluate */
+    public List<String> variables() { return variables; }
+
+    public double evaluate() throws MathOperations.CalcException {
+        return evaluate(NO_VARIABLES);
+    }
+
+    /** Evaluates with one value per declared variable, in declaration order */
+    public double evaluate(double... values) throws MathOperations.CalcException {
+        if (values.length != variables.size()) {
+            throw new IllegalArgumentException("expected " + variables.size() + " variable values, got " + values.length);
+        }
+        Node t = target;
+        if (remaining > 0 && --remaining == 0) t = compile();
+
+        long start = EvaluationMetrics.ENABLED ? System.nanoTime() : 0;
+        StageEvents.Evaluate event = StageEvents.evaluate(false);
+        boolean failed = false;
+        try {
+            return t.evaluate(values);
+        } catch (MathOperations.CalcException e) {
+            failed = true;
+            if (EvaluationMetrics.ENABLED) EvaluationMetrics.failed(e);
+            throw e;
+        } finally {
+            StageEvents.finish(event, source.length(), failed);
+            if (EvaluationMetrics.ENABLED) EvaluationMetrics.evaluated(start);
+        }
+    }
+
+    /** True once evaluation runs compiled bytecode instead of the interpreter */
+    public boolean isCompiled() { return target != interpreter; }
+
+    /** Compiles the tree now, at most once; stays interpreted if compilation fails */
+    private synchronized Node compile() {
+        if (!compileAttempted) {
+            compileAttempted = true;
+            Node compiled = BytecodeCompiler.compile(root);
+            if (compiled != null) target = compiled;
+        }
+        return target;
+    }
+
+    @Override
+    public String toString() { return source; }
+}
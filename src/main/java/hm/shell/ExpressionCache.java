@@ -0,0 +1,145 @@
+package hm.shell;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Bounded, thread-safe cache of parsed expressions and their results, keyed by the
+ * expression text exactly as given, so a cached error reports the same positions as parsing
+ * that text directly would. The least recently used entry is evicted once the
+ * cache is full, so a repeated evaluation costs a hash lookup instead of a re-parse.
+ * A miss only parses; the double result is computed when first asked for, so callers
+ * that evaluate the tree another way, such as in decimal, do not pay for it.
+ */
+public class ExpressionCache {
+
+    /** A parsed expression, or the error parsing produced */
+    private static final class Entry {
+        final Expression expression;
+        final MathOperations.CalcException error;
+        /** The double result (a Double) or the CalcException evaluating failed with; null until first asked for */
+        volatile Object outcome;
+
+        Entry(Expression expression, MathOperations.CalcException error) {
+            this.expression = expression;
+            this.error = error;
+        }
+    }
+
+    private final ExpressionEvaluator evaluator;
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+
+    private final LongAdder hits      = new LongAdder();
+    private final LongAdder misses    = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpressionCache(ExpressionEvaluator evaluator, int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        this.evaluator = evaluator;
+        this.maxSize = maxSize;
+        // access-ordered, so iteration starts at the least recently used entry
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= ExpressionCache.this.maxSize) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Lookups
+     *------------------------------------------------------------------*/
+
+    /** Returns the parsed form of an expression, parsing it on a miss */
+    public Expression parse(String expr) throws MathOperations.CalcException {
+        Entry entry = lookup(expr);
+        if (entry.expression == null) throw entry.error;
+        return entry.expression;
+    }
+
+    /** Returns the result of an expression, evaluating it the first time it is asked for */
+    public double evaluate(String expr) throws MathOperations.CalcException {
+        Entry entry = lookup(expr);
+        if (entry.expression == null) throw entry.error;
+        Object outcome = entry.outcome;
+        if (outcome == null) {
+            // racing threads may both evaluate, the results are identical
+            try {
+                outcome = entry.expression.evaluate();
+            } catch (MathOperations.CalcException e) {
+                outcome = e;
+            }
+            entry.outcome = outcome;
+        }
+        if (outcome instanceof MathOperations.CalcException e) throw e;
+        return (Double) outcome;
+    }
+
+    private Entry lookup(String expr) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(expr);
+        }
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+
+        // compute outside the lock; racing threads may both compute, the results are identical
+        misses.increment();
+        entry = compute(expr);
+        synchronized (entries) {
+            entries.put(expr, entry);
+        }
+        return entry;
+    }
+
+    private Entry compute(String expr) {
+        try {
+            return new Entry(evaluator.parse(expr), null);
+        } catch (MathOperations.CalcException e) {
+            return new Entry(null, e);
+        }
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Statistics
+     *------------------------------------------------------------------*/
+
+    public long hits()      { return hits.sum(); }
+    public long misses()    { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+
+    /** Fraction of lookups served from the cache, 0 when nothing has been looked up */
+    public double hitRate() {
+        long h = hits(), total = h + misses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int maxSize() { return maxSize; }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExpressionCache[size=%d/%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f]",
+                size(), maxSize, hits(), misses(), evictions(), hitRate());
+    }
+}
@@ -0,0 +1,98 @@
+package hm.shell;
+
+import java.util.List;
+
+
+/**
+ * Stateless evaluator for the calculator grammar: superscript powers, √, !,
+ * implicit multiplication and brackets.
+ * Holds no mutable state, so a single instance can be shared by any number of threads.
+ *
+ * <p>A parsed expression that is evaluated again and again, such as a formula over variables
+ * in a loop, is compiled to bytecode once it gets hot. One evaluated once, as through
+ * {@link ExpressionCache}, which keeps the result, stays interpreted and costs nothing extra.
+ */
+public class ExpressionEvaluator {
+
+    /** Compile threshold that keeps expressions in the interpreter forever */
+    public static final int INTERPRET_ONLY = -1;
+
+    /**
+     * Evaluations of one expression before it is compiled, by default: compiling costs about as
+     * much as this many interpreted evaluations of a typical formula
+     */
+    public static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+
+    private final int compileThreshold;
+
+    /** Compiles expressions after {@link #DEFAULT_COMPILE_THRESHOLD} evaluations */
+    public ExpressionEvaluator() {
+        this(DEFAULT_COMPILE_THRESHOLD);
+    }
+
+    /**
+     * @param compileThreshold number of interpreted evaluations after which a parsed expression
+     *                         is compiled to bytecode; 0 compiles at parse time, {@link #INTERPRET_ONLY} never
+     */
+    public ExpressionEvaluator(int compileThreshold) {
+        if (compileThreshold < INTERPRET_ONLY) throw new IllegalArgumentException("bad compile threshold: " + compileThreshold);
+        this.compileThreshold = compileThreshold;
+    }
+
+    /** Parses an expression into a reusable tree */
+    public Expression parse(String expr) throws MathOperations.CalcException {
+        return parse(expr, List.of());
+    }
+
+    /**
+     * Parses an expression over single-letter variables, e.g. {@code parse("√(x)x²+3!", "x")}.
+     * Values are passed to {@link Expression#evaluate(double...)} in the order declared here.
+     */
+    public Expression parse(String expr, String... variables) throws MathOperations.CalcException {
+        return parse(expr, List.of(variables));
+    }
+
+    private Expression parse(String expr, List<String> variables) throws MathOperations.CalcException {
+        for (String v : variables) {
+            if (v.length() != 1 || !Character.isLetter(v.charAt(0))) throw new IllegalArgumentException("variables must be single letters: " + v);
+        }
+        long start = EvaluationMetrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            StageEvents.Lex lex = StageEvents.lex();
+            List<Token> tokens;
+            boolean failed = false;
+            try {
+                tokens = Lexer.tokenize(expr, variables);
+            } catch (MathOperations.CalcException e) {
+                failed = true;
+                throw e;
+            } finally {
+                StageEvents.finish(lex, expr.length(), failed);
+            }
+
+            StageEvents.Parse parse = StageEvents.parse();
+            try {
+                ExpressionParser parser = new ExpressionParser(tokens, variables);
+                Node root = parser.parse();
+                return new Expression(expr, root, variables, parser.hasSharedSubtrees(), compileThreshold);
+            } catch (MathOperations.CalcException e) {
+                failed = true;
+                throw e;
+            } finally {
+                StageEvents.finish(parse, expr.length(), failed);
+            }
+        } catch (MathOperations.CalcException e) {
+            if (EvaluationMetrics.ENABLED) EvaluationMetrics.failed(e);
+            throw e;
+        } finally {
+            if (EvaluationMetrics.ENABLED) EvaluationMetrics.parsed(start);
+        }
+    }
+
+    /** Parses and evaluates an expression in one step */
+    public double evaluate(String expr) throws MathOperations.CalcException {
+        return parse(expr).evaluate();
+    }
+
+    public int compileThreshold() { return compileThreshold; }
+}
@@ -0,0 +1,259 @@
+package hm.shell;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Operator-precedence parser over the tokens produced by {@link Lexer}.
+ * Pending operators and operands are kept on explicit stacks instead of the Java stack,
+ * so nesting depth is limited only by memory and parsing is linear in the number of tokens.
+ * A parser instance holds the read position, so use one instance per parse.
+ *
+ * <pre>
+ * expression := ['-'] term (('+' | '-') term)*
+ * term       := factor (('x' | '÷' | implicit) factor)*
+ * factor     := '√' '(' expression ')' exponent? postfix*
+ *             | '√' factor
+ *             | primary postfix*
+ * primary    := number | variable | '(' expression ')'
+ * postfix    := '!' | exponent
+ * </pre>
+ */
+class ExpressionParser {
+
+    /*------------------------------------------------------------------
+     *  Constants
+     *------------------------------------------------------------------*/
+    static final char[] SUPERSCRIPT_DIGITS  = { '⁰','¹','²','³','⁴','⁵','⁶','⁷','⁸','⁹' };
+    static final char[] PRIMARY_OPERATORS   = { '÷','x' };
+    static final char[] SECONDARY_OPERATORS = { '+','-' };
+
+    /** Operator stack entries besides the binary operators: an open '(', an open '√(' and a pending '√' */
+    private static final char GROUP = '(', ROOT_GROUP = '[', ROOT = '√';
+
+    private final List<Token> tokens;
+    private final List<String> variables;
+    private final NodeFactory nodes = new NodeFactory();
+    private int pos = 0;
+
+    private Node[] operands = new Node[8];
+    private int operandCount = 0;
+    private char[] operators = new char[8];
+    private int operatorCount = 0;
+    private int openGroups = 0;
+
+    ExpressionParser(List<Token> tokens, List<String> variables) {
+        this.tokens = tokens;
+        this.variables = variables;
+    }
+
+    /** Parses the whole token list, rejecting empty input and trailing tokens */
+    Node parse() throws MathOperations.CalcException {
+        if (peek().type() == Token.Type.END) throw error(ErrorCode.EMPTY_EXPRESSION);
+        beginExpression();
+        pushOperand(parseFactor());
+        while (true) {
+            Token t = peek();
+            if (isOperator(t, PRIMARY_OPERATORS) || t.type() == Token.Type.IMPLICIT_MULTIPLY) {
+                pos++;
+                reduce(precedence('x'));
+                pushOperator(t.type() == Token.Type.IMPLICIT_MULTIPLY ? 'x' : t.symbol());
+                pushOperand(parseFactor());
+            } else if (isOperator(t, SECONDARY_OPERATORS)) {
+                pos++;
+                reduce(precedence('+'));
+                pushOperator(t.symbol());
+                pushOperand(parseFactor());
+            } else if (t.type() == Token.Type.RIGHT_BRACKET && openGroups > 0) {
+                pushOperand(closeRoots(closeGroup()));
+            } else if (t.type() == Token.Type.END && openGroups == 0) {
+                reduce(precedence('+'));
+                return operands[0];
+            } else {
+                throw error(openGroups > 0 ? ErrorCode.UNCLOSED_BRACKET : ErrorCode.UNEXPECTED_SYMBOL);
+            }
+        }
+    }
+
+    /** True if the parsed tree shares identical subtrees, see {@link NodeFactory} */
+    boolean hasSharedSubtrees() { return nodes.hasSharedSubtrees(); }
+
+
+    /*------------------------------------------------------------------
+     *  Grammar rules
+     *------------------------------------------------------------------*/
+
+    /** Unary minus is only allowed at the start of an expression or bracket: -a == 0-a */
+    private void beginExpression() {
+        if (isOperator(peek(), '-')) {
+            pos++;
+            pushOperand(nodes.constant(0));
+            pushOperator('-');
+        }
+    }
+
+    /**
+     * Reads up to the next number or variable, opening the brackets and roots before it.
+     * Returns that operand with its postfix, under any roots that end with it.
+     */
+    private Node parseFactor() throws MathOperations.CalcException {
+        while (true) {
+            Token t = peek();
+            switch (t.type()) {
+                case SQRT -> {
+                    pos++;
+                    if (peek().type() == Token.Type.LEFT_BRACKET) {
+                        openGroup(ROOT_GROUP);
+                    } else if (!peek().startsOperand()) {
+                        throw error(ErrorCode.MISSING_ROOT_OPERAND);
+                    } else {
+                        pushOperator(ROOT);
+                    }
+                }
+                case LEFT_BRACKET -> openGroup(GROUP);
+                case NUMBER -> {
+                    pos++;
+                    return closeRoots(parsePostfix(nodes.constant(t.value(), t.exact())));
+                }
+                case VARIABLE -> {
+                    pos++;
+                    int index = (int) t.value();
+                    return closeRoots(parsePostfix(nodes.variable(variables.get(index), index)));
+                }
+                case END -> throw error(ErrorCode.UNEXPECTED_END);
+                default -> throw error(ErrorCode.UNEXPECTED_SYMBOL);
+            }
+        }
+    }
+
+    private void openGroup(char marker) throws MathOperations.CalcException {
+        pos++; // '('
+        if (peek().type() == Token.Type.RIGHT_BRACKET) throw error(ErrorCode.EMPTY_BRACKETS);
+        pushOperator(marker);
+        openGroups++;
+        beginExpression();
+    }
+
+    /** Completes the innermost bracket at its ')' and returns it with its postfix */
+    private Node closeGroup() {
+        pos++; // ')'
+        reduce(precedence('+'));
+        char marker = operators[--operatorCount];
+        openGroups--;
+        Node inside = popOperand();
+        if (marker == ROOT_GROUP) {
+            // √(a)² squares inside the root, √(a)! takes the factorial of the root
+            return parsePostfix(nodes.sqrt(parseExponent(inside)));
+        }
+        return parsePostfix(inside);
+    }
+
+    /** Applies the pending '√' prefixes that end with this factor, as in √√16 */
+    private Node closeRoots(Node node) {
+        while (operatorCount > 0 && operators[operatorCount - 1] == ROOT) {
+            operatorCount--;
+            node = nodes.sqrt(node);
+        }
+        return node;
+    }
+
+    /** Builds the pending binary operators binding at least as tightly as the given precedence */
+    private void reduce(int precedence) {
+        while (operatorCount > 0 && precedence(operators[operatorCount - 1]) >= precedence) {
+            char op = operators[--operatorCount];
+            Node right = popOperand();
+            Node left = popOperand();
+            pushOperand(nodes.binary(op, left, right));
+        }
+    }
+
+    private Node parsePostfix(Node node) {
+        while (true) {
+            Token t = peek();
+            if (t.type() == Token.Type.FACTORIAL) {
+                pos++;
+                node = nodes.factorial(node);
+            } else if (t.type() == Token.Type.EXPONENT) {
+                node = parseExponent(node);
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private Node parseExponent(Node base) {
+        Token t = peek();
+        if (t.type() != Token.Type.EXPONENT) return base;
+        pos++;
+        return nodes.power(base, nodes.constant(t.value(), t.exact()));
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Stacks
+     *------------------------------------------------------------------*/
+
+    private void pushOperand(Node node) {
+        if (operandCount == operands.length) operands = Arrays.copyOf(operands, operandCount * 2);
+        operands[operandCount++] = node;
+    }
+
+    private Node popOperand() {
+        Node node = operands[--operandCount];
+        operands[operandCount] = null;
+        return node;
+    }
+
+    private void pushOperator(char op) {
+        if (operatorCount == operators.length) operators = Arrays.copyOf(operators, operatorCount * 2);
+        operators[operatorCount++] = op;
+    }
+
+    /** 2 for x and ÷, 1 for + and -, 0 for the markers */
+    static int precedence(char op) {
+        if (charContains(PRIMARY_OPERATORS, op)) return 2;
+        if (charContains(SECONDARY_OPERATORS, op)) return 1;
+        return 0;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Helpers
+     *------------------------------------------------------------------*/
+
+    private Token peek() {
+        return tokens.get(pos);
+    }
+
+    private MathOperations.CalcException error(ErrorCode code) {
+        Token t = peek();
+        return new MathOperations.CalcException(code, t.offset(), t.length());
+    }
+
+    private static boolean isOperator(Token t, char op) {
+        return t.type() == Token.Type.OPERATOR && t.symbol() == op;
+    }
+
+    private static boolean isOperator(Token t, char[] ops) {
+        return t.type() == Token.Type.OPERATOR && charContains(ops, t.symbol());
+    }
+
+    static boolean isSuperscript(char c) {
+        return superscriptValue(c) != -1;
+    }
+
+    static int superscriptValue(char c) {
+        for (int i = 0; i < SUPERSCRIPT_DIGITS.length; i++) {
+            if (SUPERSCRIPT_DIGITS[i] == c) return i;
+        }
+        return -1;
+    }
+
+    static boolean charContains(char[] arr, char c) {
+        for (char x : arr) {
+            if (x == c) return true;
+        }
+        return false;
+    }
+}
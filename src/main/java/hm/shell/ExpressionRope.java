@@ -0,0 +1,308 @@
+package hm.shell;
+
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+
+/**
+ * Editable expression text for long inputs: a rope of chunks of up to a few hundred characters,
+ * kept in a randomly balanced tree (a treap ordered by position). Inserting or deleting at the
+ * caret touches one chunk and the path above it, so an edit costs O(log n) however long the
+ * text is; a paste or a cut across chunks splits and re-joins the tree, also in O(log n).
+ *
+ * <p>Every subtree caches its length and its bracket balance, so {@link #depth()},
+ * {@link #balanced()} and {@link #depthAt} answer without scanning the text, and
+ * {@link #subSequence} copies only the requested window, such as the part on screen.
+ *
+ * <p>Not thread-safe; one instance mirrors one input field.
+ */
+public final class ExpressionRope implements CharSequence {
+
+    /** Size of the chunks text is cut into; an edit lets a chunk grow to twice this before it is split */
+    static final int CHUNK = 256;
+    private static final int MAX_CHUNK = 2 * CHUNK;
+
+    private final SplittableRandom random = new SplittableRandom();
+    private Chunk root;
+
+    public ExpressionRope() {
+    }
+
+    public ExpressionRope(CharSequence text) {
+        root = build(text, 0, text.length());
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Chunks
+     *------------------------------------------------------------------*/
+
+    private static final class Chunk {
+        final StringBuilder text;
+        final int priority;
+        Chunk left, right;
+
+        /** This chunk's own ( minus ), and the lowest that count reaches within it (at most 0) */
+        int ownDepth, ownLowest;
+        /** The same over the whole subtree, and its length in characters */
+        int depth, lowest, length;
+
+        Chunk(CharSequence text, int priority) {
+            this.text = new StringBuilder(Math.max(CHUNK, text.length())).append(text);
+            this.priority = priority;
+            scan();
+            pull();
+        }
+
+        /** Recounts this chunk's brackets after its text changed */
+        void scan() {
+            int d = 0, low = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '(') {
+                    d++;
+                } else if (c == ')' && --d < low) {
+                    low = d;
+                }
+            }
+            ownDepth = d;
+            ownLowest = low;
+        }
+
+        /** Recomputes the subtree totals from the children: left, then this chunk, then right */
+        void pull() {
+            int d = 0, low = 0, n = text.length();
+            if (left != null) {
+                d = left.depth;
+                low = left.lowest;
+                n += left.length;
+            }
+            low = Math.min(low, d + ownLowest);
+            d += ownDepth;
+            if (right != null) {
+                low = Math.min(low, d + right.lowest);
+                d += right.depth;
+                n += right.length;
+            }
+            depth = d;
+            lowest = low;
+            length = n;
+        }
+    }
+
+    private static int size(Chunk c) {
+        return c == null ? 0 : c.length;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Editing
+     *------------------------------------------------------------------*/
+
+    /** Inserts text before the character at index; index may equal the length to append */
+    public void insert(int index, CharSequence s) {
+        Objects.checkIndex(index, length() + 1);
+        if (s.isEmpty()) return;
+        // a keystroke or a short insert goes into the chunk at the caret if it has room
+        if (root != null && s.length() <= CHUNK && insertInto(root, index, s)) return;
+        Chunk[] parts = split(root, index);
+        root = merge(merge(parts[0], build(s, 0, s.length())), parts[1]);
+    }
+
+    /** Deletes the characters from {@code from} (inclusive) to {@code to} (exclusive) */
+    public void delete(int from, int to) {
+        Objects.checkFromToIndex(from, to, length());
+        if (from == to) return;
+        if (deleteFrom(root, from, to)) return;
+        Chunk[] head = split(root, from);
+        Chunk[] tail = split(head[1], to - from);
+        root = merge(head[0], tail[1]);
+    }
+
+    /** Replaces the characters from {@code from} to {@code to} with s, as a text field edit does */
+    public void replace(int from, int to, CharSequence s) {
+        delete(from, to);
+        insert(from, s);
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    /** Inserts into the chunk holding index if it has room; false leaves the tree unchanged */
+    private static boolean insertInto(Chunk c, int index, CharSequence s) {
+        int before = size(c.left), own = c.text.length();
+        if (index < before) {
+            if (!insertInto(c.left, index, s)) return false;
+        } else if (index <= before + own) {
+            if (own + s.length() > MAX_CHUNK) return false;
+            c.text.insert(index - before, s);
+            c.scan();
+        } else {
+            if (!insertInto(c.right, index - before - own, s)) return false;
+        }
+        c.pull();
+        return true;
+    }
+
+    /** Deletes within a single chunk that keeps at least one character; false leaves the tree unchanged */
+    private static boolean deleteFrom(Chunk c, int from, int to) {
+        int before = size(c.left), own = c.text.length();
+        if (to <= before) {
+            if (!deleteFrom(c.left, from, to)) return false;
+        } else if (from >= before + own) {
+            if (!deleteFrom(c.right, from - before - own, to - before - own)) return false;
+        } else if (from >= before && to <= before + own && to - from < own) {
+            c.text.delete(from - before, to - before);
+            c.scan();
+        } else {
+            return false;
+        }
+        c.pull();
+        return true;
+    }
+
+    /** Splits into the first index characters and the rest, cutting a chunk in two if index falls inside it */
+    private Chunk[] split(Chunk c, int index) {
+        if (c == null) return new Chunk[2];
+        int before = size(c.left), own = c.text.length();
+        if (index <= before) {
+            Chunk[] parts = split(c.left, index);
+            c.left = parts[1];
+            c.pull();
+            parts[1] = c;
+            return parts;
+        }
+        if (index >= before + own) {
+            Chunk[] parts = split(c.right, index - before - own);
+            c.right = parts[0];
+            c.pull();
+            parts[0] = c;
+            return parts;
+        }
+        Chunk tail = new Chunk(c.text.substring(index - before), random.nextInt());
+        Chunk right = c.right;
+        c.text.setLength(index - before);
+        c.right = null;
+        c.scan();
+        c.pull();
+        return new Chunk[] { c, merge(tail, right) };
+    }
+
+    /** Joins two trees, all of a before all of b */
+    private static Chunk merge(Chunk a, Chunk b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority >= b.priority) {
+            a.right = merge(a.right, b);
+            a.pull();
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.pull();
+        return b;
+    }
+
+    /** A tree of the text from..to in full chunks */
+    private Chunk build(CharSequence s, int from, int to) {
+        Chunk tree = null;
+        for (int i = from; i < to; i += CHUNK) {
+            tree = merge(tree, new Chunk(s.subSequence(i, Math.min(i + CHUNK, to)), random.nextInt()));
+        }
+        return tree;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Reading
+     *------------------------------------------------------------------*/
+
+    @Override
+    public int length() {
+        return size(root);
+    }
+
+    @Override
+    public char charAt(int index) {
+        Objects.checkIndex(index, length());
+        Chunk c = root;
+        while (true) {
+            int before = size(c.left);
+            if (index < before) {
+                c = c.left;
+            } else if ((index -= before) < c.text.length()) {
+                return c.text.charAt(index);
+            } else {
+                index -= c.text.length();
+                c = c.right;
+            }
+        }
+    }
+
+    /** A copy of the characters from start to end, visiting only the chunks they span */
+    @Override
+    public String subSequence(int start, int end) {
+        Objects.checkFromToIndex(start, end, length());
+        StringBuilder out = new StringBuilder(end - start);
+        appendTo(root, start, end, out);
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length());
+    }
+
+    private static void appendTo(Chunk c, int from, int to, StringBuilder out) {
+        if (c == null || from >= to) return;
+        int before = size(c.left), own = c.text.length();
+        if (from < before) appendTo(c.left, from, Math.min(to, before), out);
+        if (from < before + own && to > before) {
+            out.append(c.text, Math.max(from - before, 0), Math.min(to - before, own));
+        }
+        if (to > before + own) appendTo(c.right, Math.max(from - before - own, 0), to - before - own, out);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Brackets
+     *------------------------------------------------------------------*/
+
+    /** Opening brackets minus closing ones over the whole text: how many are still open if positive */
+    public int depth() {
+        return root == null ? 0 : root.depth;
+    }
+
+    /** True if every bracket is closed and none is closed before it was opened */
+    public boolean balanced() {
+        return root == null || (root.depth == 0 && root.lowest == 0);
+    }
+
+    /** Brackets open just before the character at index, counted from the start of the text */
+    public int depthAt(int index) {
+        Objects.checkIndex(index, length() + 1);
+        int depth = 0;
+        Chunk c = root;
+        while (c != null) {
+            int before = size(c.left);
+            if (index < before) {
+                c = c.left;
+                continue;
+            }
+            if (c.left != null) depth += c.left.depth;
+            index -= before;
+            if (index <= c.text.length()) {
+                for (int i = 0; i < index; i++) {
+                    char ch = c.text.charAt(i);
+                    if (ch == '(') depth++;
+                    else if (ch == ')') depth--;
+                }
+                return depth;
+            }
+            depth += c.ownDepth;
+            index -= c.text.length();
+            c = c.right;
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,150 @@
+package hm.shell;
+
+import org.apache.commons.math3.special.Gamma;
+
+import java.math.BigInteger;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Factorial engine behind {@link MathOperations#factorial(double)}.
+ * <ul>
+ *   <li>integers up to 170 come from a table of exact, correctly rounded values</li>
+ *   <li>{@link #exact(int)} gives exact results of any size, using the split-recursive
+ *       algorithm with partial products multiplied in parallel</li>
+ *   <li>other arguments go through a memoized {@link Gamma#gamma(double)}</li>
+ * </ul>
+ */
+public final class Factorials {
+
+    /** Largest n for which n! is finite as a double */
+    public static final int MAX_DOUBLE_ARGUMENT = 170;
+
+    /** Odd-number ranges longer than this are multiplied as parallel fork-join tasks */
+    private static final int PARALLEL_THRESHOLD = 1 << 10;
+
+    private static final double[] TABLE = buildTable();
+
+    private static final int GAMMA_CACHE_BITS = 10;
+    private record GammaEntry(double x, double value) {}
+    /** Direct-mapped and lock-free: entries are immutable, a lost write only costs a recomputation */
+    private static final GammaEntry[] GAMMA_CACHE = new GammaEntry[1 << GAMMA_CACHE_BITS];
+
+    private Factorials() {}
+
+    private static double[] buildTable() {
+        double[] table = new double[MAX_DOUBLE_ARGUMENT + 1];
+        BigInteger f = BigInteger.ONE;
+        table[0] = 1;
+        for (int n = 1; n <= MAX_DOUBLE_ARGUMENT; n++) {
+            f = f.multiply(BigInteger.valueOf(n));
+            table[n] = f.doubleValue();
+        }
+        return table;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Double precision
+     *------------------------------------------------------------------*/
+
+    public static double factorial(double x) throws MathOperations.CalcException {
+        if (x < 0) throw ErrorCode.NEGATIVE_FACTORIAL.exception();
+        if (x == Math.rint(x)) {
+            if (x > MAX_DOUBLE_ARGUMENT) throw ErrorCode.FACTORIAL_TOO_LARGE.exception();
+            return TABLE[(int) x];
+        }
+        return gamma(x + 1);
+    }
+
+    private static double gamma(double x) {
+        long bits = Double.doubleToLongBits(x);
+        int slot = (int) ((bits * 0x9E3779B97F4A7C15L) >>> (64 - GAMMA_CACHE_BITS));
+        GammaEntry entry = GAMMA_CACHE[slot];
+        if (entry != null && Double.doubleToLongBits(entry.x) == bits) return entry.value;
+
+        double value = Gamma.gamma(x);
+        GAMMA_CACHE[slot] = new GammaEntry(x, value);
+        return value;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Exact
+     *------------------------------------------------------------------*/
+
+    /**
+     * Exact n!. Uses Luschny's split-recursive algorithm: n! is the product of odd numbers
+     * in bands {@code (n/2^(k+1), n/2^k]}, raised to successive powers, shifted left by
+     * {@code n - bitCount(n)}.
+     *
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    public static BigInteger exact(int n) {
+        if (n < 0) throw new IllegalArgumentException("Factorial of negative number is undefined");
+        if (n <= 20) return BigInteger.valueOf(Math.round(TABLE[n]));
+
+        BigInteger p = BigInteger.ONE;   // product of the odd numbers seen so far
+        BigInteger r = BigInteger.ONE;   // odd part of n!
+        int shift = 0, h = 0, high = 1;
+        int log2n = 31 - Integer.numberOfLeadingZeros(n);
+
+        while (h != n) {
+            if (Thread.currentThread().isInterrupted()) throw new CancellationException("factorial interrupted");
+            shift += h;
+            h = n >> log2n--;
+            int low = high;
+            high = (h - 1) | 1;
+            if (high > low) {
+                p = multiply(p, oddProduct(low + 2, high));
+                r = multiply(r, p);
+            }
+        }
+        return r.shiftLeft(shift);
+    }
+
+    /** Product of the odd numbers lo, lo + 2, ..., hi */
+    private static BigInteger oddProduct(int lo, int hi) {
+        int count = (hi - lo) / 2 + 1;
+        if (count > PARALLEL_THRESHOLD) return ForkJoinPool.commonPool().invoke(new OddProduct(lo, hi));
+        return sequentialOddProduct(lo, hi);
+    }
+
+    private static BigInteger sequentialOddProduct(int lo, int hi) {
+        int count = (hi - lo) / 2 + 1;
+        if (count <= 8) {
+            BigInteger result = BigInteger.valueOf(lo);
+            for (long k = lo + 2; k <= hi; k += 2) result = result.multiply(BigInteger.valueOf(k));
+            return result;
+        }
+        int mid = lo + 2 * (count / 2);      // first odd number of the upper half
+        return sequentialOddProduct(lo, mid - 2).multiply(sequentialOddProduct(mid, hi));
+    }
+
+    private static BigInteger multiply(BigInteger a, BigInteger b) {
+        // parallelMultiply only pays off for operands with many thousands of bits
+        return a.bitLength() > 1 << 16 && b.bitLength() > 1 << 16 ? a.parallelMultiply(b) : a.multiply(b);
+    }
+
+    private static final class OddProduct extends RecursiveTask<BigInteger> {
+        private final int lo, hi;
+
+        OddProduct(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            int count = (hi - lo) / 2 + 1;
+            if (count <= PARALLEL_THRESHOLD) return sequentialOddProduct(lo, hi);
+            int mid = lo + 2 * (count / 2);
+            OddProduct upper = new OddProduct(mid, hi);
+            upper.fork();
+            BigInteger lower = new OddProduct(lo, mid - 2).compute();
+            return multiply(lower, upper.join());
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package hm.shell;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+
+/**
+ * Append-only calculation history, written through memory-mapped segment files.
+ *
+ * <p>Each segment is a fixed-size file {@code history-NNNNNN.log} holding a small header and
+ * then records of {@code [int size][long timestamp][byte kind][int len][expression][int len][text]},
+ * where text is the result, or the {@link ErrorCode} name for failed calculations.
+ * The size is written last, so a crash mid-append leaves a zero that ends the segment.
+ * When a segment is full the next one is started and the oldest beyond the retention
+ * limit are deleted.
+ *
+ * <p>Opening only maps the newest segment, so it costs the same however long the history is.
+ * The search index over all segments is built on the first search and then kept up to date
+ * by appends. A segment with a malformed record is left out of it rather than failing every
+ * search, and listed by {@link #skippedSegments()} for the caller to report. Only one process
+ * may hold the log at a time.
+ */
+public final class HistoryLog implements AutoCloseable {
+
+    /** One calculation: result is null when it failed with error */
+    public record Entry(long timestamp, String expression, String result, ErrorCode error) {
+        public boolean isError() { return error != null; }
+    }
+
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    private static final int MAGIC = 0x48495354; // "HIST"
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+    private static final int RECORD_OVERHEAD = 4 + 8 + 1 + 4 + 4;
+    private static final byte RESULT = 0, ERROR = 1;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    /** The segment being appended to */
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+
+    /** Search index, oldest first; null until first needed */
+    private List<Indexed> entries;
+    /** Latest entry per distinct expression, for prefix search */
+    private NavigableMap<String, Indexed> latest;
+
+    private record Indexed(int segment, long sequence, Entry entry) {}
+    private long sequence = 0;
+
+    /** Segments left out of the index because a record in them is malformed */
+    private final List<Path> skipped = new ArrayList<>();
+
+    public HistoryLog(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public HistoryLog(Path dir, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < HEADER + RECORD_OVERHEAD) throw new IllegalArgumentException("segment too small: " + segmentSize);
+        if (maxSegments < 1) throw new IllegalArgumentException("need at least one segment: " + maxSegments);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(dir);
+        lockChannel = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null; // held by another HistoryLog in this JVM
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("history " + dir + " is in use");
+        }
+        lock = acquired;
+
+        List<Integer> numbers = segmentNumbers();
+        if (numbers.isEmpty()) {
+            startSegment(1, segmentSize);
+        } else {
+            openSegment(numbers.get(numbers.size() - 1));
+        }
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Appending
+     *------------------------------------------------------------------*/
+
+    /** Records a successful calculation */
+    public void append(String expression, String result) throws IOException {
+        append(expression, RESULT, result, null);
+    }
+
+    /** Records a failed calculation */
+    public void append(String expression, ErrorCode error) throws IOException {
+        append(expression, ERROR, error.name(), error);
+    }
+
+    private synchronized void append(String expression, byte kind, String text, ErrorCode error) throws IOException {
+        byte[] expr = expression.getBytes(StandardCharsets.UTF_8);
+        byte[] txt = text.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_OVERHEAD + expr.length + txt.length;
+        long timestamp = System.currentTimeMillis();
+
+        // room for this record plus the zero size that ends the segment
+        if (segment.remaining() < size + 4) {
+            roll(size);
+        }
+
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putLong(timestamp).put(kind);
+        segment.putInt(expr.length).put(expr);
+        segment.putInt(txt.length).put(txt);
+        segment.putInt(segment.position(), 0); // terminate, in case a torn record was left here
+        segment.putInt(start, size);           // publish last
+
+        if (entries != null) index(segmentNumber, new Entry(timestamp, expression, error == null ? text : null, error));
+    }
+
+    /** Starts the next segment, sized for at least one record, and applies retention */
+    private void roll(int recordSize) throws IOException {
+        segment.force();
+        channel.close();
+        startSegment(segmentNumber + 1, Math.max(segmentSize, HEADER + recordSize + 4));
+
+        List<Integer> numbers = segmentNumbers();
+        for (int i = 0; i < numbers.size() - maxSegments; i++) {
+            Files.deleteIfExists(segmentPath(numbers.get(i)));
+            skipped.remove(segmentPath(numbers.get(i)));
+            if (entries != null) dropSegment(numbers.get(i));
+        }
+    }
+
+    private void startSegment(int number, int size) throws IOException {
+        segmentNumber = number;
+        channel = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segment.putInt(MAGIC).putInt(VERSION);
+    }
+
+    /** Maps an existing segment and positions after its last complete record */
+    private void openSegment(int number) throws IOException {
+        segmentNumber = number;
+        channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (segment.capacity() < HEADER || segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION) {
+            throw new IOException("not a history segment: " + segmentPath(number));
+        }
+        segment.position(end(segment));
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Search
+     *------------------------------------------------------------------*/
+
+    /** Most recent distinct expressions starting with prefix, newest first */
+    public synchronized List<Entry> searchPrefix(String prefix, int limit) throws IOException {
+        loadIndex();
+        List<Indexed> matches = new ArrayList<>(latest.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+        matches.sort((a, b) -> Long.compare(b.sequence(), a.sequence()));
+        List<Entry> out = new ArrayList<>(Math.min(limit, matches.size()));
+        for (Indexed m : matches) {
+            if (out.size() == limit) break;
+            out.add(m.entry());
+        }
+        return out;
+    }
+
+    /** Most recent distinct expressions containing text, newest first */
+    public synchronized List<Entry> search(String text, int limit) throws IOException {
+        loadIndex();
+        List<Entry> out = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int i = entries.size() - 1; i >= 0 && out.size() < limit; i--) {
+            Entry e = entries.get(i).entry();
+            if (e.expression().contains(text) && seen.add(e.expression())) out.add(e);
+        }
+        return out;
+    }
+
+    /**
+     * The {@code back}-th most recent distinct expression starting with prefix (0 = latest),
+     * or null; what Up-arrow recall walks through.
+     */
+    public Entry recall(String prefix, int back) throws IOException {
+        List<Entry> matches = searchPrefix(prefix, back + 1);
+        return back < matches.size() ? matches.get(back) : null;
+    }
+
+    /** Number of entries currently retained */
+    public synchronized int size() throws IOException {
+        loadIndex();
+        return entries.size();
+    }
+
+    /**
+     * Segments left out of searches because a record in them is malformed, oldest first;
+     * known once the index is built by the first search
+     */
+    public synchronized List<Path> skippedSegments() {
+        return List.copyOf(skipped);
+    }
+
+    private void loadIndex() throws IOException {
+        if (entries != null) return;
+        entries = new ArrayList<>();
+        latest = new TreeMap<>();
+        for (int number : segmentNumbers()) {
+            if (number == segmentNumber) {
+                read(number, segment.duplicate());
+            } else {
+                try (FileChannel ch = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+                    read(number, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+                }
+            }
+        }
+    }
+
+    /** Indexes the records of a segment, or none of them if one is malformed */
+    private void read(int number, ByteBuffer buf) {
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC) return;
+        List<Entry> records = new ArrayList<>();
+        int end = end(buf);
+        int pos = HEADER;
+        while (pos < end) {
+            int size = buf.getInt(pos); // within the segment, as checked by end()
+            long timestamp = buf.getLong(pos + 4);
+            byte kind = buf.get(pos + 12);
+            int exprLength = buf.getInt(pos + 13);
+            int textLength = exprLength >= 0 && exprLength <= size - RECORD_OVERHEAD ? buf.getInt(pos + 17 + exprLength) : -1;
+            if (kind != RESULT && kind != ERROR || textLength < 0 || size != RECORD_OVERHEAD + exprLength + textLength) {
+                skipped.add(segmentPath(number));
+                return;
+            }
+            String expression = string(buf, pos + 17, exprLength);
+            String text = string(buf, pos + 21 + exprLength, textLength);
+            records.add(kind == ERROR
+                    ? new Entry(timestamp, expression, null, errorCode(text))
+                    : new Entry(timestamp, expression, text, null));
+            pos += size;
+        }
+        for (Entry entry : records) index(number, entry);
+    }
+
+    private void index(int number, Entry entry) {
+        Indexed indexed = new Indexed(number, sequence++, entry);
+        entries.add(indexed);
+        latest.put(entry.expression(), indexed);
+    }
+
+    /** Removes a deleted segment's entries, which are always the oldest */
+    private void dropSegment(int number) {
+        int n = 0;
+        while (n < entries.size() && entries.get(n).segment() == number) n++;
+        entries.subList(0, n).clear();
+        latest.clear();
+        for (Indexed e : entries) latest.put(e.entry().expression(), e);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Helpers
+     *------------------------------------------------------------------*/
+
+    /** Offset just after the last complete record; a torn or zero size ends the segment */
+    private static int end(ByteBuffer buf) {
+        int pos = HEADER;
+        while (pos + 4 <= buf.capacity()) {
+            int size = buf.getInt(pos);
+            if (size < RECORD_OVERHEAD || size > buf.capacity() - pos) break;
+            pos += size;
+        }
+        return pos;
+    }
+
+    private static String string(ByteBuffer buf, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buf.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ErrorCode errorCode(String name) {
+        try {
+            return ErrorCode.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return ErrorCode.INTERNAL; // written by a version with codes this one lacks
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("history-%06d.log", number));
+    }
+
+    /** Segment numbers on disk, oldest first */
+    private List<Integer> segmentNumbers() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.matches("history-\\d{6}\\.log"))
+                    .map(name -> Integer.parseInt(name.substring(8, 14)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segment.force();
+        channel.close();
+        lock.release();
+        lockChannel.close();
+    }
+}
@@ -0,0 +1,375 @@
+package hm.shell;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Re-evaluates an expression that is being edited, reusing work from the previous revision.
+ *
+ * <p>The text is kept split into its top-level terms, the operands of the + and - outside all
+ * brackets. An edit is applied with {@link #replace}: only the terms it touches are scanned and
+ * split again, and only those are parsed and evaluated again; the others keep their values from
+ * earlier revisions. An edit that adds or removes a bracket changes which + and - are at the top
+ * level anywhere after it, so the text is split again in full before the next evaluation.
+ *
+ * <p>The terms are summed left to right, exactly as the full tree would be: exactly if every
+ * term is an exact integer, rounded to the context if none is. A mix, where the full tree would
+ * round the integers step by step, is evaluated whole.
+ *
+ * <p>Errors are those of the full text, at their positions in it: an error of the {@link Lexer}
+ * in any term first, then the first grammar error, then the first arithmetic error. A term is
+ * parsed alone, so what only its place makes wrong, such as a second sign in {@code 2--3} or
+ * nothing after the last one, is checked separately.
+ *
+ * <p>Edits and {@link #revision()} belong to one thread, such as the UI thread. A revision is a
+ * snapshot of the terms and can be evaluated on any thread, while later edits come in.
+ */
+public class IncrementalEvaluator {
+
+    private final ExpressionEvaluator evaluator;
+    private final DecimalEvaluator decimal;
+
+    private final ExpressionRope text = new ExpressionRope();
+    /** The terms of the text in order, or null if it must be split again in full */
+    private List<Term> terms = new ArrayList<>(List.of(new Term("", 0, '+')));
+    /**
+     * Edits move the terms after them; rather than updating every one, the move is added to the
+     * terms from {@code shiftFrom} on only when they are next looked at. Consecutive edits near
+     * each other, as in typing, so touch only the terms between them.
+     */
+    private int shiftFrom, shift;
+    private volatile int reevaluated;
+
+    public IncrementalEvaluator(ExpressionEvaluator evaluator, DecimalEvaluator decimal) {
+        this.evaluator = evaluator;
+        this.decimal = decimal;
+    }
+
+    /** One top-level term: where it lies in the text, its sign, its source and, once evaluated, its value */
+    private static final class Term {
+        /** Its text as typed; blanks at the ends of the whole text are left to the {@link Lexer} to skip */
+        final String source;
+        /** Where it starts in the text, before the pending shift */
+        int start;
+        final char sign;
+        /** BigInteger if exact, else BigDecimal, or the Failure it failed with; null until evaluated */
+        volatile Object value;
+
+        Term(String source, int start, char sign) {
+            this.source = source;
+            this.start = start;
+            this.sign = sign;
+        }
+    }
+
+    /** Stages of a term's failure, in the order the full text reports them */
+    private static final int ARITHMETIC = 0, GRAMMAR = 1, LEXER = 2;
+
+    /** Why a term failed, with the position relative to its start, as terms move while their values are kept */
+    private record Failure(MathOperations.CalcException error, int stage) {}
+
+    /** The terms of one revision of the text, for {@link #evaluate(Revision)} */
+    public static final class Revision {
+        private final Term[] terms;
+        private final int[] starts;
+
+        private Revision(Term[] terms, int[] starts) {
+            this.terms = terms;
+            this.starts = starts;
+        }
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Editing
+     *------------------------------------------------------------------*/
+
+    /** The current text; read it, but edit it only through {@link #replace} */
+    public ExpressionRope text() { return text; }
+
+    /** Replaces the characters from {@code from} to {@code to} with s, as a text field edit does */
+    public void replace(int from, int to, CharSequence s) {
+        boolean brackets = hasBracket(s, 0, s.length()) || hasBracket(text, from, to);
+        boolean leading = from <= firstVisible();
+        text.replace(from, to, s);
+        if (terms == null) return;
+        // a new bracket shifts the depth of everything after it, and a new leading '-' is a sign
+        if (brackets || leading) {
+            terms = null;
+            return;
+        }
+        resplit(from, from + s.length(), s.length() - (to - from));
+    }
+
+    /** Evaluates the whole text for a caller that has it rather than the edits: the changed span is found and applied */
+    public BigDecimal evaluate(String expr) throws MathOperations.CalcException {
+        String old = text.toString();
+        int max = Math.min(old.length(), expr.length());
+        int prefix = 0;
+        while (prefix < max && old.charAt(prefix) == expr.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && old.charAt(old.length() - 1 - suffix) == expr.charAt(expr.length() - 1 - suffix)) suffix++;
+        if (prefix < old.length() || prefix < expr.length()) {
+            replace(prefix, old.length() - suffix, expr.substring(prefix, expr.length() - suffix));
+        }
+        return evaluate(revision());
+    }
+
+    /** The current terms; fails with the bracket error if the text has to be split in full and cannot be */
+    public Revision revision() throws MathOperations.CalcException {
+        if (terms == null) {
+            terms = split();
+            shift = 0;
+        }
+        int[] starts = new int[terms.size()];
+        for (int k = 0; k < starts.length; k++) starts[k] = start(k);
+        return new Revision(terms.toArray(new Term[0]), starts);
+    }
+
+    /** Number of terms parsed and evaluated by the last evaluation */
+    public int lastReevaluated() { return reevaluated; }
+
+
+    /*------------------------------------------------------------------
+     *  Evaluation
+     *------------------------------------------------------------------*/
+
+    /** Evaluates a revision, re-evaluating only terms not evaluated in an earlier one; may run on any thread */
+    public BigDecimal evaluate(Revision revision) throws MathOperations.CalcException {
+        Term[] parts = revision.terms;
+        int count = 0;
+        BigInteger exact = BigInteger.ZERO;
+        BigDecimal sum = null;
+        int integers = 0;
+        Failure error = null;
+        int errorStart = 0;
+        for (int i = 0; i < parts.length; i++) {
+            Term term = parts[i];
+            Object value = term.value;
+            if (value == null) {
+                AsyncEvaluator.checkInterrupted();
+                value = evaluateTerm(term.source, i > 0 || term.sign == '-');
+                term.value = value;
+                count++;
+            }
+
+            if (value instanceof Failure f) {
+                // a later term's failure wins only from a stage the full text reports first
+                if (error == null || f.stage() > error.stage()) {
+                    error = f;
+                    errorStart = revision.starts[i];
+                }
+                continue;
+            }
+            if (error != null) continue;
+            if (value instanceof BigInteger v) {
+                integers++;
+                exact = term.sign == '-' ? exact.subtract(v) : exact.add(v);
+                continue;
+            }
+            BigDecimal v = (BigDecimal) value;
+            // a leading minus is 0 - v to the full tree, which rounds a long literal
+            if (sum == null) sum = term.sign == '-' ? v.negate(decimal.mathContext()) : v;
+            else sum = term.sign == '+' ? sum.add(v, decimal.mathContext()) : sum.subtract(v, decimal.mathContext());
+        }
+        reevaluated = count;
+
+        if (error != null) throw at(error.error(), errorStart);
+        if (integers == parts.length) return new BigDecimal(exact);
+        if (integers == 0) return decimal.round(sum);
+        return decimal.evaluate(evaluator.parse(whole(parts)));
+    }
+
+    /** The term's value, or its Failure as part of the full text; signed if a + or - comes before it */
+    private Object evaluateTerm(String term, boolean signed) throws MathOperations.CalcException {
+        Failure misplaced = signed ? misplaced(term) : null;
+        if (misplaced != null && misplaced.stage() == LEXER) return misplaced;
+        Expression expression;
+        try {
+            expression = evaluator.parse(term);
+        } catch (MathOperations.CalcException e) {
+            if (lexes(term)) return misplaced != null ? misplaced : new Failure(e, GRAMMAR);
+            return new Failure(e, LEXER);
+        }
+        if (misplaced != null) return misplaced;
+        try {
+            return decimal.evaluateExact(expression);
+        } catch (MathOperations.CalcException e) {
+            // a cancelled evaluation says nothing about the term; leave it to be evaluated again
+            if (e.getCode() == ErrorCode.INTERRUPTED) throw e;
+            return new Failure(e, ARITHMETIC);
+        }
+    }
+
+    /**
+     * The error at the start of a term that follows a sign, which parsing the term alone misses:
+     * the Lexer skips no blank there, and the parser takes no second sign and no missing operand.
+     */
+    private static Failure misplaced(String term) {
+        int blanks = 0;
+        while (blanks < term.length() && Character.isWhitespace(term.charAt(blanks))) blanks++;
+        // blanks alone can only end the text, where the Lexer does skip them
+        if (blanks == term.length()) return new Failure(new MathOperations.CalcException(ErrorCode.UNEXPECTED_END, 0, 0), GRAMMAR);
+        if (blanks > 0) return new Failure(new MathOperations.CalcException(ErrorCode.INVALID_CHARACTER, 0, 1), LEXER);
+        char c = term.charAt(0);
+        if (c == '+' || c == '-') return new Failure(new MathOperations.CalcException(ErrorCode.UNEXPECTED_SYMBOL, 0, 1), GRAMMAR);
+        return null;
+    }
+
+    private static boolean lexes(String term) {
+        try {
+            Lexer.tokenize(term);
+            return true;
+        } catch (MathOperations.CalcException e) {
+            return false;
+        }
+    }
+
+    /** A term's error moved to the term's position in the text */
+    private static MathOperations.CalcException at(MathOperations.CalcException e, int start) {
+        if (e.getPosition() < 0 || start == 0) return e;
+        return new MathOperations.CalcException(e.getCode(), start + e.getPosition(), e.getLength());
+    }
+
+    /** The text back from its terms, without any blanks before a leading '-' */
+    private static String whole(Term[] parts) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0 || parts[i].sign == '-') sb.append(parts[i].sign);
+            sb.append(parts[i].source);
+        }
+        return sb.toString();
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Splitting
+     *------------------------------------------------------------------*/
+
+    /*
+     * The text splits at every + or - that is outside brackets, follows an operand and is not the
+     * first character of a term. A leading unary minus is the first term's sign. Whether a + or -
+     * splits depends only on the character before it and the bracket depth, so after an edit
+     * without brackets the splits before the edited term and after the first split past the edit
+     * are the old ones.
+     */
+
+    /** Splits the edited text again from the start of the term the edit begins in, up to the first split after the edit */
+    private void resplit(int from, int editEnd, int delta) {
+        int a = termAt(from);
+        List<Term> found = new ArrayList<>();
+        int start = start(a);
+        char sign = terms.get(a).sign;
+        int depth = 0;
+        int n = text.length();
+        int next = -1;
+        for (int i = start; i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+            else if (depth == 0 && (c == '+' || c == '-') && i > start && endsOperand(text.charAt(i - 1))) {
+                found.add(term(text, start, i, sign));
+                sign = c;
+                start = i + 1;
+                if (i > editEnd) {
+                    // the character before this split was not edited, so from here on the old terms stand
+                    next = termAt(start - delta);
+                    break;
+                }
+            }
+        }
+        if (next < 0) {
+            found.add(term(text, start, n, sign));
+            next = terms.size();
+        }
+
+        // move the pending shift to exactly the terms from next on, then add this edit's
+        if (shift != 0) {
+            for (int k = shiftFrom; k < a; k++) terms.get(k).start += shift;
+            for (int k = next; k < Math.min(shiftFrom, terms.size()); k++) terms.get(k).start -= shift;
+        }
+        shift += delta;
+        if (found.size() == next - a) {
+            for (int k = 0; k < found.size(); k++) terms.set(a + k, found.get(k));
+        } else {
+            terms.subList(a, next).clear();
+            terms.addAll(a, found);
+        }
+        shiftFrom = a + found.size();
+    }
+
+    /** Splits the whole text */
+    private List<Term> split() throws MathOperations.CalcException {
+        String expr = text.toString();
+        List<Term> parts = new ArrayList<>();
+        int depth = 0;
+        int start = firstVisible();
+        char sign = '+';
+        if (start < expr.length() && expr.charAt(start) == '-') {
+            sign = '-';
+            start++;
+        } else {
+            start = 0;
+        }
+        for (int i = start; i < expr.length(); i++) {
+            char c = expr.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+            else if (depth == 0 && (c == '+' || c == '-') && i > start && endsOperand(expr.charAt(i - 1))) {
+                parts.add(term(expr, start, i, sign));
+                sign = c;
+                start = i + 1;
+            }
+        }
+        if (depth != 0) {
+            // the Lexer reports the first error in the text, which need not be the bracket
+            Lexer.tokenize(expr);
+            throw (depth > 0 ? ErrorCode.UNCLOSED_BRACKET : ErrorCode.UNMATCHED_BRACKET).exception();
+        }
+        parts.add(term(expr, start, expr.length(), sign));
+        return parts;
+    }
+
+    private static Term term(CharSequence s, int start, int end, char sign) {
+        return new Term(s.subSequence(start, end).toString(), start, sign);
+    }
+
+    /** Where the k-th term starts in the text */
+    private int start(int k) {
+        return terms.get(k).start + (k >= shiftFrom ? shift : 0);
+    }
+
+    /** Index of the last term starting at or before index */
+    private int termAt(int index) {
+        int lo = 0, hi = terms.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (start(mid) <= index) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /** Position of the first character that is not whitespace, or the length if there is none */
+    private int firstVisible() {
+        int i = 0;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean hasBracket(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '(' || c == ')') return true;
+        }
+        return false;
+    }
+
+    private static boolean endsOperand(char c) {
+        return Lexer.isDigit(c) || c == '.' || c == ')' || c == '!' || ExpressionParser.isSuperscript(c);
+    }
+}
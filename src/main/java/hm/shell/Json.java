@@ -0,0 +1,187 @@
+package hm.shell;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Just enough JSON for {@link CalculatorServer}: parses into String, Double, Boolean, null,
+ * List and Map, and quotes strings for output.
+ */
+final class Json {
+
+    /** Malformed input; the message says where */
+    static final class ParseException extends Exception {
+        ParseException(String msg, int offset) {
+            super(msg + " at offset " + offset, null, false, false);
+        }
+    }
+
+    private final String text;
+    private int pos = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) throws ParseException {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.pos != text.length()) throw new ParseException("Trailing characters", json.pos);
+        return value;
+    }
+
+    /** Appends s as a quoted JSON string */
+    static StringBuilder quote(StringBuilder out, String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"'  -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                    else out.append(c);
+                }
+            }
+        }
+        return out.append('"');
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Recursive descent
+     *------------------------------------------------------------------*/
+
+    private Object value() throws ParseException {
+        skipWhitespace();
+        if (pos >= text.length()) throw new ParseException("Unexpected end", pos);
+        char c = text.charAt(pos);
+        return switch (c) {
+            case '{' -> object();
+            case '[' -> array();
+            case '"' -> string();
+            case 't' -> literal("true", Boolean.TRUE);
+            case 'f' -> literal("false", Boolean.FALSE);
+            case 'n' -> literal("null", null);
+            default -> {
+                if (c == '-' || (c >= '0' && c <= '9')) yield number();
+                throw new ParseException("Unexpected character", pos);
+            }
+        };
+    }
+
+    private Map<String, Object> object() throws ParseException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') throw new ParseException("Expected a key", pos);
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return map;
+            }
+        }
+    }
+
+    private List<Object> array() throws ParseException {
+        List<Object> list = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String string() throws ParseException {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= text.length()) break;
+            char e = text.charAt(pos++);
+            switch (e) {
+                case '"', '\\', '/' -> sb.append(e);
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    if (pos + 4 > text.length()) throw new ParseException("Bad escape", pos);
+                    try {
+                        sb.append((char) Integer.parseInt(text, pos, pos + 4, 16));
+                    } catch (NumberFormatException ex) {
+                        throw new ParseException("Bad escape", pos);
+                    }
+                    pos += 4;
+                }
+                default -> throw new ParseException("Bad escape", pos - 1);
+            }
+        }
+        throw new ParseException("Unterminated string", pos);
+    }
+
+    private Double number() throws ParseException {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) pos++;
+        try {
+            return Double.parseDouble(text.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw new ParseException("Bad number", start);
+        }
+    }
+
+    private Object literal(String word, Object value) throws ParseException {
+        if (!text.startsWith(word, pos)) throw new ParseException("Unexpected character", pos);
+        pos += word.length();
+        return value;
+    }
+
+    private void expect(char c) throws ParseException {
+        if (peek() != c) throw new ParseException("Expected '" + c + "'", pos);
+        pos++;
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+}
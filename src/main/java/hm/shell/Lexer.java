@@ -0,0 +1,128 @@
+package hm.shell;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Single-pass tokenizer for the calculator grammar.
+ * Walks the input once, emitting typed tokens and implicit multiplication markers,
+ * and rejects illegal characters and unbalanced brackets with their offsets.
+ * Numbers and superscript exponents carry their exact decimal value besides the double, which
+ * for an integer literal is the nearest double to the integer, not to an earlier rounding.
+ *
+ * <p>Whitespace around the whole input is skipped, so {@code " 2+3 "} reads as {@code 2+3};
+ * whitespace anywhere else is an invalid character. Offsets always count from the start of the
+ * input as given, blanks included, so they can be used to highlight the caller's own text.
+ *
+ * <p>Single-letter variables are recognised only when the caller declares them.
+ * A declared {@code x} is read as the multiply operator where it sits between two operands,
+ * as in {@code 2x3}, and as the variable everywhere else, as in {@code √(x)x²}.
+ */
+public final class Lexer {
+
+    /** Integer literals up to this many digits are read straight into a long; longer ones from their text */
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private Lexer() {}
+
+    /** Tokenizes the input; the returned list always ends with an END token */
+    public static List<Token> tokenize(CharSequence expr) throws MathOperations.CalcException {
+        return tokenize(expr, List.of());
+    }
+
+    /**
+     * Tokenizes the input with the given single-letter variables;
+     * a variable's token value is its index in the list
+     */
+    public static List<Token> tokenize(CharSequence expr, List<String> variables) throws MathOperations.CalcException {
+        List<Token> tokens = new ArrayList<>(expr.length() + 1);
+        int depth = 0;
+        int outermostOpen = -1; // offset of the last '(' opened outside all brackets
+        int i = 0;
+        while (i < expr.length() && Character.isWhitespace(expr.charAt(i))) i++;
+        int n = expr.length();
+        while (n > i && Character.isWhitespace(expr.charAt(n - 1))) n--;
+
+        while (i < n) {
+            char c = expr.charAt(i);
+            int start = i;
+            Token token;
+
+            if (isDigit(c) || c == '.') {
+                boolean dot = false;
+                long integer = 0;
+                while (i < n && (isDigit(expr.charAt(i)) || expr.charAt(i) == '.')) {
+                    if (expr.charAt(i) == '.') {
+                        if (dot) throw new MathOperations.CalcException(ErrorCode.MISPLACED_DOT, i, 1);
+                        dot = true;
+                    } else if (!dot && i - start < MAX_LONG_DIGITS) {
+                        integer = integer * 10 + (expr.charAt(i) - '0');
+                    }
+                    i++;
+                }
+                if (i - start == 1 && dot) throw new MathOperations.CalcException(ErrorCode.INVALID_NUMBER, start, 1);
+                String literal = expr.subSequence(start, i).toString();
+                token = !dot && i - start <= MAX_LONG_DIGITS
+                        ? new Token(Token.Type.NUMBER, start, i - start, integer, (char) 0, BigDecimal.valueOf(integer))
+                        : new Token(Token.Type.NUMBER, start, i - start, Double.parseDouble(literal), (char) 0, new BigDecimal(literal));
+            } else if (ExpressionParser.isSuperscript(c)) {
+                long exponent = 0;
+                StringBuilder digits = new StringBuilder();
+                while (i < n && ExpressionParser.isSuperscript(expr.charAt(i))) {
+                    int digit = ExpressionParser.superscriptValue(expr.charAt(i++));
+                    if (i - start <= MAX_LONG_DIGITS) exponent = exponent * 10 + digit;
+                    digits.append((char) ('0' + digit));
+                }
+                token = i - start <= MAX_LONG_DIGITS
+                        ? new Token(Token.Type.EXPONENT, start, i - start, exponent, (char) 0, BigDecimal.valueOf(exponent))
+                        : new Token(Token.Type.EXPONENT, start, i - start, Double.parseDouble(digits.toString()), (char) 0, new BigDecimal(digits.toString()));
+            } else if (!variables.isEmpty() && variables.contains(String.valueOf(c)) && !(c == 'x' && isMultiply(expr, i, tokens, variables))) {
+                i++;
+                token = new Token(Token.Type.VARIABLE, start, 1, variables.indexOf(String.valueOf(c)), (char) 0);
+            } else {
+                i++;
+                switch (c) {
+                    case '÷', 'x', '+', '-' -> token = new Token(Token.Type.OPERATOR, start, 1, 0, c);
+                    case '√' -> token = Token.of(Token.Type.SQRT, start, 1);
+                    case '!' -> token = Token.of(Token.Type.FACTORIAL, start, 1);
+                    case '(' -> {
+                        if (depth++ == 0) outermostOpen = start;
+                        token = Token.of(Token.Type.LEFT_BRACKET, start, 1);
+                    }
+                    case ')' -> {
+                        if (--depth < 0) throw new MathOperations.CalcException(ErrorCode.UNMATCHED_BRACKET, start, 1);
+                        token = Token.of(Token.Type.RIGHT_BRACKET, start, 1);
+                    }
+                    default -> throw new MathOperations.CalcException(ErrorCode.INVALID_CHARACTER, start, 1);
+                }
+            }
+
+            if (!tokens.isEmpty()) {
+                Token prev = tokens.get(tokens.size() - 1);
+                if (prev.endsOperand() && token.startsOperand()) {
+                    tokens.add(Token.of(Token.Type.IMPLICIT_MULTIPLY, start, 0));
+                }
+            }
+            tokens.add(token);
+        }
+
+        if (depth > 0) throw new MathOperations.CalcException(ErrorCode.UNCLOSED_BRACKET, outermostOpen, 1);
+        tokens.add(Token.of(Token.Type.END, n, 0));
+        return tokens;
+    }
+
+    /** Only ASCII digits: other Unicode digits, such as ٣ or ５, are invalid characters */
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** A declared x at index i multiplies when it follows an operand and another operand follows it */
+    private static boolean isMultiply(CharSequence expr, int i, List<Token> tokens, List<String> variables) {
+        if (tokens.isEmpty() || !tokens.get(tokens.size() - 1).endsOperand() || i + 1 >= expr.length()) return false;
+        char next = expr.charAt(i + 1);
+        return isDigit(next) || next == '.' || next == '(' || next == '√'
+                || variables.contains(String.valueOf(next));
+    }
+}
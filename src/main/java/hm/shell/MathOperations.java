@@ -1,56 +1,161 @@
 package hm.shell;
-import org.apache.commons.math3.special.Gamma;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 
 
 public class MathOperations {
 
 
 
-    /** Thrown when a calculation error occurs*/
+    /**
+     * Thrown when a calculation error occurs. Position-free errors reuse the instance
+     * preallocated by {@link ErrorCode#exception()}, so bad input costs no more than good input.
+     */
     public static class CalcException extends Exception {
-        public CalcException(String msg) { super(msg); }
+        private final ErrorCode code;
+        private final int position;
+        private final int length;
+        private final String detail;
+
+        public CalcException(ErrorCode code, int position, int length) { this(code, position, length, null); }
+
+        /** Carries extra text for the message; for rare errors only, as it builds a string */
+        public CalcException(ErrorCode code, String detail) { this(code, -1, 0, detail); }
+
+        private CalcException(ErrorCode code, int position, int length, String detail) {
+            // no stack trace and no suppression: these are expected, user-facing conditions,
+            // must stay cheap to throw and are shared between threads
+            super(null, null, false, false);
+            this.code = code;
+            this.position = position;
+            this.length = length;
+            this.detail = detail;
+        }
+
+        public ErrorCode getCode() { return code; }
+
+        /** Offset of the offending character in the input, or -1 if unknown */
+        public int getPosition() { return position; }
+
+        /** Number of offending characters from {@link #getPosition()}, 0 if unknown */
+        public int getLength() { return length; }
+
+        @Override
+        public String getMessage() {
+            return detail == null ? code.message() : code.message() + " (" + detail + ")";
+        }
     }
 
 
     // Math Operations used in calculator
 
-    public static double divide(String a, String b) throws CalcException {
-        double x = format(a), y = format(b);
-        if (y == 0) throw new CalcException("division by zero");
+    /** Applies one of the infix operators ÷ x + - without leaving primitive form */
+    public static double apply(char op, double x, double y) throws CalcException {
+        return switch (op) {
+            case '÷' -> divide(x, y);
+            case 'x' -> multiply(x, y);
+            case '+' -> add(x, y);
+            case '-' -> subtract(x, y);
+            default  -> throw ErrorCode.UNKNOWN_OPERATOR.exception();
+        };
+    }
+
+    public static double divide(double x, double y) throws CalcException {
+        if (EvaluationMetrics.ENABLED) EvaluationMetrics.called(EvaluationMetrics.Operation.DIVIDE);
+        if (y == 0) throw ErrorCode.DIVISION_BY_ZERO.exception();
         return x / y;
     }
 
+    public static double multiply(double x, double y) {
+        if (EvaluationMetrics.ENABLED) EvaluationMetrics.called(EvaluationMetrics.Operation.MULTIPLY);
+        return x * y;
+    }
+
+    public static double add(double x, double y) {
+        if (EvaluationMetrics.ENABLED) EvaluationMetrics.called(EvaluationMetrics.Operation.ADD);
+        return x + y;
+    }
+
+    public static double subtract(double x, double y) {
+        if (EvaluationMetrics.ENABLED) EvaluationMetrics.called(EvaluationMetrics.Operation.SUBTRACT);
+        return x - y;
+    }
+
+    public static double power(double x, double y) {
+        if (EvaluationMetrics.ENABLED) EvaluationMetrics.called(EvaluationMetrics.Operation.POWER);
+        return Math.pow(x, y);
+    }
+
+    public static double sqrt(double x) throws CalcException {
+        if (EvaluationMetrics.ENABLED) EvaluationMetrics.called(EvaluationMetrics.Operation.SQRT);
+        if (x < 0) throw ErrorCode.NEGATIVE_SQRT.exception();
+        return Math.sqrt(x);
+    }
+
+    public static double nlog(double x) {
+        return Math.log(x);
+    }
+
+    public static double factorial(double x) throws CalcException {
+        if (EvaluationMetrics.ENABLED) EvaluationMetrics.called(EvaluationMetrics.Operation.FACTORIAL);
+        return Factorials.factorial(x);
+    }
+
+
+    /** Rounds a result half-up to the given number of decimal places for display */
+    public static double round(double x, int places) throws CalcException {
+        if (Double.isNaN(x) || Double.isInfinite(x)) throw ErrorCode.ROUNDING.exception();
+        return round(new BigDecimal(x), places);
+    }
+
+    /** Rounds an exact decimal result half-up to the given number of decimal places for display */
+    public static double round(BigDecimal x, int places) throws CalcException {
+        if (EvaluationMetrics.ENABLED) EvaluationMetrics.called(EvaluationMetrics.Operation.ROUND);
+        StageEvents.Round event = StageEvents.round();
+        // with no more places than asked for there is nothing to round; rescaling 1E+999999 would expand it
+        double rounded = (x.scale() <= places ? x : x.setScale(places, RoundingMode.HALF_UP)).doubleValue();
+        StageEvents.finish(event, x.precision(), Double.isInfinite(rounded));
+        if (Double.isInfinite(rounded)) throw ErrorCode.ROUNDING.exception();
+        return rounded;
+    }
+
+
+    // String overloads, parsing each operand first
+
+    public static double divide(String a, String b) throws CalcException {
+        return divide(format(a), format(b));
+    }
+
     public static double multiply(String a, String b) throws CalcException {
-        return format(a) * format(b);
+        return multiply(format(a), format(b));
     }
 
     public static double add(String a, String b) throws CalcException {
-        return format(a) + format(b);
+        return add(format(a), format(b));
     }
 
     public static double subtract(String a, String b) throws CalcException {
-        return format(a) - format(b);
+        return subtract(format(a), format(b));
     }
 
     public static double power(String a, String b) throws CalcException {
-        return Math.pow(format(a), format(b));
+        return power(format(a), format(b));
     }
 
     public static double sqrt(String a) throws CalcException {
-        return Math.sqrt(format(a));
+        return sqrt(format(a));
     }
 
     public static double nlog(String a) throws CalcException {
-        return Math.log(format(a));
+        return nlog(format(a));
     }
 
     public static double factorial(String a) throws CalcException {
         try {
-            double x = Double.parseDouble(a);
-            if (x < 0) throw new CalcException("Factorial of negative number is undefined");
-            return Gamma.gamma(x + 1);
+            return factorial(Double.parseDouble(a));
         } catch (NumberFormatException e) {
-            throw new CalcException("Invalid number");
+            throw ErrorCode.INVALID_NUMBER.exception();
         }
     }
 
@@ -61,7 +166,7 @@ public class MathOperations {
         try {
             return Double.parseDouble(s);
         } catch (NumberFormatException ex) {
-            throw new CalcException("bad number: " + s);
+            throw ErrorCode.INVALID_NUMBER.exception();
         }
     }
 
@@ -0,0 +1,72 @@
+package hm.shell;
+
+import java.math.BigDecimal;
+
+
+/**
+ * A node of a parsed calculator expression.
+ * Nodes are immutable, so a parsed tree can be shared freely between threads.
+ */
+public interface Node {
+
+    /**
+     * @param vars values of the expression's variables, indexed as declared at parse time
+     */
+    double evaluate(double[] vars) throws MathOperations.CalcException;
+
+
+    /*------------------------------------------------------------------
+     *  Node types
+     *------------------------------------------------------------------*/
+
+    /**
+     * A literal number: its double for the double evaluators, and its value exactly as written
+     * for {@link DecimalEvaluator}, as a literal may have more digits than a double holds
+     */
+    record Constant(double value, BigDecimal exact) implements Node {
+        @Override
+        public double evaluate(double[] vars) {
+            return value;
+        }
+    }
+
+    /** A variable declared at parse time, e.g. the x in √(x)x² */
+    record Variable(String name, int index) implements Node {
+        @Override
+        public double evaluate(double[] vars) {
+            return vars[index];
+        }
+    }
+
+    /** One of the four infix operators: ÷ x + - */
+    record Binary(char op, Node left, Node right) implements Node {
+        @Override
+        public double evaluate(double[] vars) throws MathOperations.CalcException {
+            return MathOperations.apply(op, left.evaluate(vars), right.evaluate(vars));
+        }
+    }
+
+    /** A base raised to a superscript exponent, e.g. 2³ */
+    record Power(Node base, Node exponent) implements Node {
+        @Override
+        public double evaluate(double[] vars) throws MathOperations.CalcException {
+            return MathOperations.power(base.evaluate(vars), exponent.evaluate(vars));
+        }
+    }
+
+    /** √ applied to a number or bracketed group */
+    record Sqrt(Node operand) implements Node {
+        @Override
+        public double evaluate(double[] vars) throws MathOperations.CalcException {
+            return MathOperations.sqrt(operand.evaluate(vars));
+        }
+    }
+
+    /** Postfix ! */
+    record Factorial(Node operand) implements Node {
+        @Override
+        public double evaluate(double[] vars) throws MathOperations.CalcException {
+            return MathOperations.factorial(operand.evaluate(vars));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package hm.shell;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Builds the nodes of one parse, bottom-up.
+ *
+ * <ul>
+ *   <li>Constant folding: a node whose operands are constants is replaced by its value when that
+ *       value is an exact integer, e.g. {@code √((2+3)²)!} becomes 120. Only exact results are
+ *       folded, so the double and decimal evaluators still agree with the unfolded tree;
+ *       subtrees that fail or lose precision are left for evaluation time.</li>
+ *   <li>Hash-consing: identical subtrees are built once and shared, so evaluators can compute
+ *       each distinct subexpression once per calculation.</li>
+ * </ul>
+ *
+ * Operands are always canonical already, so both steps are constant time per node.
+ */
+final class NodeFactory {
+
+    /** Node kind, operator, constant bits and exact value, and operands compared by identity */
+    private record Key(int kind, char op, long bits, BigDecimal exact, Node left, Node right) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.kind == kind && k.op == op && k.bits == bits
+                    && Objects.equals(k.exact, exact) && k.left == left && k.right == right;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = kind * 31 + op;
+            h = h * 31 + Long.hashCode(bits);
+            h = h * 31 + Objects.hashCode(exact);
+            h = h * 31 + System.identityHashCode(left);
+            return h * 31 + System.identityHashCode(right);
+        }
+    }
+
+    private static final int CONSTANT = 0, VARIABLE = 1, BINARY = 2, POWER = 3, SQRT = 4, FACTORIAL = 5;
+
+    private final Map<Key, Node> nodes = new HashMap<>();
+    private boolean shared = false;
+
+    /** A literal, whose double may have rounded its exact value */
+    Node constant(double value, BigDecimal exact) {
+        return intern(new Key(CONSTANT, (char) 0, Double.doubleToLongBits(value), exact, null, null), new Node.Constant(value, exact));
+    }
+
+    /** An integer a double holds exactly, such as a folded value; -0.0 stays negative in the double */
+    Node constant(double value) {
+        return constant(value, BigDecimal.valueOf((long) value));
+    }
+
+    Node variable(String name, int index) {
+        return intern(new Key(VARIABLE, (char) 0, index, null, null, null), new Node.Variable(name, index));
+    }
+
+    Node binary(char op, Node left, Node right) {
+        return fold(new Key(BINARY, op, 0, null, left, right), new Node.Binary(op, left, right));
+    }
+
+    Node power(Node base, Node exponent) {
+        return fold(new Key(POWER, (char) 0, 0, null, base, exponent), new Node.Power(base, exponent));
+    }
+
+    Node sqrt(Node operand) {
+        return fold(new Key(SQRT, (char) 0, 0, null, operand, null), new Node.Sqrt(operand));
+    }
+
+    Node factorial(Node operand) {
+        return fold(new Key(FACTORIAL, (char) 0, 0, null, operand, null), new Node.Factorial(operand));
+    }
+
+    /** True if some operator subtree occurs more than once */
+    boolean hasSharedSubtrees() { return shared; }
+
+    private Node fold(Key key, Node node) {
+        if (key.left() instanceof Node.Constant && (key.right() == null || key.right() instanceof Node.Constant)) {
+            double value = DecimalEvaluator.fold(node);
+            if (!Double.isNaN(value)) return constant(value);
+        }
+        Node existing = nodes.get(key);
+        if (existing != null) {
+            shared = true;
+            return existing;
+        }
+        nodes.put(key, node);
+        return node;
+    }
+
+    private Node intern(Key key, Node node) {
+        Node existing = nodes.putIfAbsent(key, node);
+        return existing != null ? existing : node;
+    }
+}
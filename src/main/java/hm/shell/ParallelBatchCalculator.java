@@ -0,0 +1,88 @@
+package hm.shell;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Parallel variant of {@link BatchCalculator}: splits the input into chunks of lines,
+ * evaluates them on a fork-join pool and writes the results back in input order.
+ * At most {@code 2 x parallelism} chunks are in flight, so memory stays bounded
+ * whatever the input size.
+ */
+public class ParallelBatchCalculator {
+
+    private final BatchCalculator batch;
+    private final int parallelism;
+    private final int chunkSize;
+
+    public ParallelBatchCalculator(BatchCalculator batch, int parallelism, int chunkSize) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        if (chunkSize < 1) throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        this.batch = batch;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    /** Evaluates every line of the input, writing results in input order; returns the line count */
+    public long run(BufferedReader in, Writer out) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        ArrayDeque<Future<String>> inFlight = new ArrayDeque<>();
+        int maxInFlight = parallelism * 2;
+        long lines = 0;
+        try {
+            List<String> chunk;
+            while (!(chunk = readChunk(in)).isEmpty()) {
+                if (inFlight.size() == maxInFlight) out.write(await(inFlight.poll()));
+                List<String> lines0 = chunk;
+                inFlight.add(pool.submit(() -> evaluateChunk(lines0)));
+                lines += chunk.size();
+            }
+            while (!inFlight.isEmpty()) out.write(await(inFlight.poll()));
+        } finally {
+            pool.shutdownNow();
+        }
+        return lines;
+    }
+
+    private List<String> readChunk(BufferedReader in) throws IOException {
+        List<String> chunk = new ArrayList<>(chunkSize);
+        String line;
+        while (chunk.size() < chunkSize && (line = in.readLine()) != null) {
+            chunk.add(line);
+        }
+        return chunk;
+    }
+
+    private String evaluateChunk(List<String> chunk) {
+        StringBuilder sb = new StringBuilder(chunk.size() * 32);
+        for (String line : chunk) {
+            sb.append(line).append('\t');
+            batch.evaluateLine(line, sb).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String await(Future<String> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for results");
+        } catch (ExecutionException e) {
+            throw new IOException("evaluation failed", e.getCause());
+        }
+    }
+
+    public int parallelism() { return parallelism; }
+
+    public int chunkSize() { return chunkSize; }
+}
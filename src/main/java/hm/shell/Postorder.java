@@ -0,0 +1,184 @@
+package hm.shell;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * A tree flattened into post-order: each node after its operands, which are referred to by
+ * index. Evaluating it is one loop over an array, so it needs no recursion however deep the
+ * tree is; with sharing, each subtree shared by hash-consing appears once and is computed once.
+ *
+ * <p>Also home to {@link #walk}, the iterative traversal every pass over a tree goes through.
+ */
+final class Postorder implements Node {
+
+    private final Node[] nodes;
+    /** Index of each node's first and second operand, -1 where it has none */
+    private final int[] first, second;
+    private final int height;
+
+    private Postorder(Node[] nodes, int[] first, int[] second, int height) {
+        this.nodes = nodes;
+        this.first = first;
+        this.second = second;
+        this.height = height;
+    }
+
+    /** Flattens a tree; with {@code shared}, nodes reached more than once are listed once */
+    static Postorder of(Node root, boolean shared) {
+        Builder b = new Builder(shared);
+        walk(root, b);
+        return new Postorder(Arrays.copyOf(b.nodes, b.size), Arrays.copyOf(b.first, b.size),
+                Arrays.copyOf(b.second, b.size), b.height);
+    }
+
+    /** Number of nodes; the root is the last */
+    int size() { return nodes.length; }
+
+    /** Nodes on the longest path from the root to a leaf */
+    int height() { return height; }
+
+    Node node(int i) { return nodes[i]; }
+
+    int first(int i) { return first[i]; }
+
+    int second(int i) { return second[i]; }
+
+    /** Interprets the nodes in order, with the same operations as the tree */
+    @Override
+    public double evaluate(double[] vars) throws MathOperations.CalcException {
+        double[] values = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = nodes[i];
+            double value;
+            if (node instanceof Node.Constant c) {
+                value = c.value();
+            } else if (node instanceof Node.Variable v) {
+                value = vars[v.index()];
+            } else if (node instanceof Node.Binary b) {
+                value = MathOperations.apply(b.op(), values[first[i]], values[second[i]]);
+            } else if (node instanceof Node.Power) {
+                value = MathOperations.power(values[first[i]], values[second[i]]);
+            } else if (node instanceof Node.Sqrt) {
+                value = MathOperations.sqrt(values[first[i]]);
+            } else if (node instanceof Node.Factorial) {
+                value = MathOperations.factorial(values[first[i]]);
+            } else {
+                value = node.evaluate(vars);
+            }
+            values[i] = value;
+        }
+        return values[nodes.length - 1];
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Traversal
+     *------------------------------------------------------------------*/
+
+    interface Visitor {
+        /** Called before the node's operands; returning false skips them and {@link #leave} */
+        boolean enter(Node node);
+
+        /** Called after the node's operands */
+        void leave(Node node);
+    }
+
+    /** Depth-first, left to right, with an explicit stack instead of recursion */
+    static void walk(Node root, Visitor visitor) {
+        Node[] stack = new Node[16];
+        boolean[] leaving = new boolean[16];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            if (leaving[top]) {
+                visitor.leave(node);
+                continue;
+            }
+            if (!visitor.enter(node)) continue;
+            if (top + 3 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                leaving = Arrays.copyOf(leaving, stack.length);
+            }
+            stack[top] = node;
+            leaving[top++] = true;
+            Node a = firstOperand(node), b = secondOperand(node);
+            if (b != null) {
+                stack[top] = b;
+                leaving[top++] = false;
+            }
+            if (a != null) {
+                stack[top] = a;
+                leaving[top++] = false;
+            }
+        }
+    }
+
+    /** Left operand, power base or the operand of √ and !; null for leaves */
+    static Node firstOperand(Node node) {
+        if (node instanceof Node.Binary b) return b.left();
+        if (node instanceof Node.Power p) return p.base();
+        if (node instanceof Node.Sqrt s) return s.operand();
+        if (node instanceof Node.Factorial f) return f.operand();
+        return null;
+    }
+
+    /** Right operand or exponent; null for the others */
+    static Node secondOperand(Node node) {
+        if (node instanceof Node.Binary b) return b.right();
+        if (node instanceof Node.Power p) return p.exponent();
+        return null;
+    }
+
+    private static final class Builder implements Visitor {
+        private final Map<Node, Integer> index;
+        private Node[] nodes = new Node[16];
+        private int[] first = new int[16], second = new int[16], heights = new int[16];
+        private int size = 0;
+        private int height = 0;
+
+        /** Indices of the operands completed so far, innermost last */
+        private int[] pending = new int[16];
+        private int top = 0;
+
+        Builder(boolean shared) {
+            this.index = shared ? new IdentityHashMap<>() : null;
+        }
+
+        @Override
+        public boolean enter(Node node) {
+            Integer seen = index != null ? index.get(node) : null;
+            if (seen == null) return true;
+            push(seen);
+            return false;
+        }
+
+        @Override
+        public void leave(Node node) {
+            int b = secondOperand(node) != null ? pending[--top] : -1;
+            int a = firstOperand(node) != null ? pending[--top] : -1;
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+                heights = Arrays.copyOf(heights, size * 2);
+            }
+            int h = 1 + Math.max(a < 0 ? 0 : heights[a], b < 0 ? 0 : heights[b]);
+            nodes[size] = node;
+            first[size] = a;
+            second[size] = b;
+            heights[size] = h;
+            height = Math.max(height, h);
+            if (index != null) index.put(node, size);
+            push(size++);
+        }
+
+        private void push(int i) {
+            if (top == pending.length) pending = Arrays.copyOf(pending, top * 2);
+            pending[top++] = i;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package hm.shell;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Objects;
+
+
+/**
+ * Result text in a chosen notation, written straight into a caller's buffer.
+ *
+ * <p>A double starts from the shortest digits that read back as the same double, the digits
+ * {@link Double#toString(double)} shows; a BigDecimal from its exact digits. The digits are rounded half-up to at most {@code significantDigits} (0 keeps them all)
+ * and, in fixed notation, to at most {@code fractionDigits} places (-1 for no limit), then laid out as
+ * <ul>
+ *   <li>{@code FIXED}: 1234.5</li>
+ *   <li>{@code SCIENTIFIC}: 1.2345E3</li>
+ *   <li>{@code ENGINEERING}: 1.2345E3 or 12.345E6, the exponent a multiple of 3</li>
+ *   <li>{@code AUTO}: fixed from 1E-7 up to 1E21, as JavaScript does, unless the places would
+ *       round a non-zero value to 0; scientific otherwise. A double above 2^53 is also scientific,
+ *       since its integer digits past the 16th or so would only be noise; a BigDecimal, whose
+ *       digits are exact, stays fixed up to 1E21</li>
+ * </ul>
+ * optionally with the integer digits grouped by threes (1,234.5), and with trailing zeros either
+ * trimmed or padded out to the digit counts. Zero is never signed.
+ *
+ * <p>Formatting appends to the given StringBuilder and uses its tail as scratch space, so with a
+ * reused builder a double is formatted without allocating. Instances are immutable and thread-safe.
+ */
+public record ResultFormat(Notation notation, int significantDigits, int fractionDigits, boolean grouping, boolean trimZeros) {
+
+    public enum Notation { AUTO, FIXED, SCIENTIFIC, ENGINEERING }
+
+    /** What the calculator shows: up to 4 places, trimmed, with very large and small values in scientific notation */
+    public static final ResultFormat DEFAULT = new ResultFormat(Notation.AUTO, 0, 4, false, true);
+
+    /** AUTO writes values from 10^MIN_FIXED_EXPONENT up to, not including, 10^MAX_FIXED_EXPONENT in fixed notation */
+    private static final int MIN_FIXED_EXPONENT = -7;
+    private static final int MAX_FIXED_EXPONENT = 21;
+    /** AUTO writes a double above this in scientific notation: past it, doubles are no longer every integer */
+    private static final double MAX_FIXED_DOUBLE = 0x1p53;
+
+    public ResultFormat {
+        Objects.requireNonNull(notation, "notation");
+        if (significantDigits < 0) throw new IllegalArgumentException("significantDigits must not be negative: " + significantDigits);
+        if (fractionDigits < -1) throw new IllegalArgumentException("fractionDigits must be -1 or more: " + fractionDigits);
+    }
+
+    public String format(double x) throws MathOperations.CalcException {
+        return format(x, new StringBuilder(24)).toString();
+    }
+
+    public String format(BigDecimal x) {
+        return format(x, new StringBuilder(24)).toString();
+    }
+
+    /** Appends x to out; NaN and infinities have no digits to show and fail with {@link ErrorCode#ROUNDING} */
+    public StringBuilder format(double x, StringBuilder out) throws MathOperations.CalcException {
+        if (Double.isNaN(x) || Double.isInfinite(x)) throw ErrorCode.ROUNDING.exception();
+        int from = out.length();
+        out.append('0'); // guard digit for a carry out of the first digit
+        if (x == 0) return layout(out, from, 1, false, true);
+
+        int exponent = shortest(Math.abs(x), out);
+        int count = out.length() - from - 1;
+        int end = out.length();
+        while (out.charAt(end - 1) == '0') end--;
+        out.setLength(end);
+        return layout(out, from, count + exponent, x < 0, Math.abs(x) <= MAX_FIXED_DOUBLE);
+    }
+
+    /** Appends x to out */
+    public StringBuilder format(BigDecimal x, StringBuilder out) {
+        int from = out.length();
+        out.append('0'); // guard digit for a carry out of the first digit
+        if (x.signum() == 0) return layout(out, from, 1, false, true);
+
+        out.append(x.unscaledValue().abs());
+        int count = out.length() - from - 1;
+        int end = out.length();
+        while (out.charAt(end - 1) == '0') end--;
+        out.setLength(end);
+        return layout(out, from, count - x.scale(), x.signum() < 0, true);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Shortest digits
+     *------------------------------------------------------------------*/
+
+    /*
+     * Schubfach, after R. Giulietti, "The Schubfach way to render doubles" (2020), the algorithm
+     * behind Double.toString since JDK 19. It picks the same digits, but only appends them
+     * and returns the exponent, so no text is built and thrown away.
+     */
+
+    private static final long C_MIN = 1L << 52;
+    private static final int Q_MIN = -1074;
+    /** Subnormal significands below this get one more digit of precision */
+    private static final long C_TINY = 3;
+
+    /** Appends the digits d of the shortest decimal that reads back as x, positive and finite; returns e with x = d 10^e */
+    private static int shortest(double x, StringBuilder out) {
+        long bits = Double.doubleToRawLongBits(x);
+        long t = bits & (C_MIN - 1);
+        int bq = (int) (bits >>> 52) & 0x7ff;
+        if (bq == 0) return t < C_TINY ? shortest(Q_MIN, 10 * t, -1, out) : shortest(Q_MIN, t, 0, out);
+
+        int mq = -Q_MIN + 1 - bq;
+        long c = C_MIN | t;
+        if (0 < mq && mq < 53) {
+            // an integer below 2^53 is its own shortest decimal
+            long f = c >> mq;
+            if (f << mq == c) {
+                out.append(f);
+                return 0;
+            }
+        }
+        return shortest(-mq, c, 0, out);
+    }
+
+    /** x = c 2^q; see figures 7 and 9 of the paper */
+    private static int shortest(int q, long c, int dk, StringBuilder out) {
+        int odd = (int) c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // irregular spacing below a power of two
+            cbl = cb - 1;
+            k = flog10ThreeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        long g1 = Pow10.G[(k - Pow10.K_MIN) << 1];
+        long g0 = Pow10.G[((k - Pow10.K_MIN) << 1) + 1];
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // try one digit less: s' = floor(s / 10)
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + odd <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + odd <= vbr;
+            if (upin != wpin) {
+                out.append(upin ? sp10 : tp10);
+                return k;
+            }
+        }
+        long t = s + 1;
+        boolean uin = vbl + odd <= s << 2;
+        boolean win = (t << 2) + odd <= vbr;
+        if (uin != win) {
+            out.append(uin ? s : t);
+            return k + dk;
+        }
+        // both in range: the closer, or the even one on a tie
+        long cmp = vb - (s + t << 1);
+        out.append(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t);
+        return k + dk;
+    }
+
+    /** Rounds cp g 2^-127 to odd, where g = g1 2^63 + g0 */
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & Long.MAX_VALUE) + Long.MAX_VALUE >>> 63;
+    }
+
+    /** floor(log10(2^e)) */
+    private static int flog10pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    /** floor(log10(3/4 2^e)) */
+    private static int flog10ThreeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L - 274_743_187_321L >> 41);
+    }
+
+    /** floor(log2(10^e)) */
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+
+    /** 126-bit approximations of the powers of ten, built on first use of a non-integer double */
+    private static final class Pow10 {
+        static final int K_MIN = -324, K_MAX = 292;
+
+        /**
+         * For each k, with 10^-k = b 2^r and 2^125 &le; b &lt; 2^126, g = floor(b) + 1
+         * split into its high bits g1 = g &gt;&gt; 63 and low bits g0 = g mod 2^63
+         */
+        static final long[] G = new long[(K_MAX - K_MIN + 1) * 2];
+
+        static {
+            for (int k = K_MIN; k <= K_MAX; k++) {
+                int r = flog2pow10(-k) - 125;
+                BigInteger g = k <= 0
+                        ? BigInteger.TEN.pow(-k).shiftLeft(-r)
+                        : BigInteger.ONE.shiftLeft(-r).divide(BigInteger.TEN.pow(k));
+                g = g.add(BigInteger.ONE);
+                G[(k - K_MIN) << 1] = g.shiftRight(63).longValue();
+                G[((k - K_MIN) << 1) + 1] = g.longValue() & Long.MAX_VALUE;
+            }
+        }
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Layout
+     *------------------------------------------------------------------*/
+
+    /**
+     * Replaces the digits at the end of out, from the guard digit at {@code from} on, with the
+     * formatted text. {@code point} is the number of digits before the decimal point; AUTO
+     * writes the value in fixed notation only if {@code exact}, its integer digits all being true.
+     */
+    private StringBuilder layout(StringBuilder out, int from, int point, boolean negative, boolean exact) {
+        int first = from + 1;
+        int end = out.length();
+
+        if (significantDigits > 0) {
+            end = round(out, from, first + significantDigits, end);
+            if (out.charAt(from) != '0') {
+                first = from;
+                point++;
+            }
+        }
+
+        Notation style = notation;
+        if (style == Notation.AUTO) {
+            int keep = point + fractionDigits;
+            boolean vanishes = end > first && fractionDigits >= 0 && (keep < 0 || keep == 0 && out.charAt(first) < '5');
+            boolean fixed = end <= first || exact && point - 1 >= MIN_FIXED_EXPONENT && point - 1 < MAX_FIXED_EXPONENT && !vanishes;
+            style = fixed ? Notation.FIXED : Notation.SCIENTIFIC;
+        }
+        if (style == Notation.FIXED && fractionDigits >= 0) {
+            end = round(out, from, first + point + fractionDigits, end);
+            if (out.charAt(from) != '0' && first != from) {
+                first = from;
+                point++;
+            }
+        }
+
+        int n = end - first;
+        if (n <= 0) {
+            n = 0;
+            point = 1;
+        }
+        out.setLength(end);
+        if (negative && n > 0) out.append('-');
+        if (style == Notation.FIXED) {
+            fixed(out, first, n, point);
+        } else {
+            int exponent = point - 1;
+            int shown = style == Notation.ENGINEERING ? Math.floorDiv(exponent, 3) * 3 : exponent;
+            mantissa(out, first, n, exponent - shown + 1);
+            out.append('E').append(shown);
+        }
+        return out.delete(from, end);
+    }
+
+    /** Writes the digits with point of them before the decimal point */
+    private void fixed(StringBuilder out, int first, int n, int point) {
+        if (point <= 0) out.append('0');
+        for (int i = 0; i < point; i++) {
+            if (grouping && i > 0 && (point - i) % 3 == 0) out.append(',');
+            out.append(i < n ? out.charAt(first + i) : '0');
+        }
+        int places = Math.max(0, n - point);
+        int pad = !trimZeros && fractionDigits > places ? fractionDigits - places : 0;
+        if (places + pad == 0) return;
+        out.append('.');
+        for (int i = point; i < n; i++) out.append(i < 0 ? '0' : out.charAt(first + i));
+        out.repeat('0', pad);
+    }
+
+    /** Writes the digits with integers of them, 1 to 3, before the decimal point */
+    private void mantissa(StringBuilder out, int first, int n, int integers) {
+        for (int i = 0; i < integers; i++) out.append(i < n ? out.charAt(first + i) : '0');
+        int places = Math.max(0, n - integers);
+        int pad = !trimZeros && significantDigits > integers + places ? significantDigits - integers - places : 0;
+        if (places + pad == 0) return;
+        out.append('.');
+        for (int i = integers; i < n; i++) out.append(out.charAt(first + i));
+        out.repeat('0', pad);
+    }
+
+    /**
+     * Rounds the digits in out half-up to those before {@code cut}, carrying into the guard digit
+     * at {@code from} if need be; returns the new end, without trailing zeros.
+     */
+    private static int round(StringBuilder out, int from, int cut, int end) {
+        if (cut >= end) return end;
+        if (cut <= from) return from;
+        if (out.charAt(cut) >= '5') {
+            int i = cut - 1;
+            while (out.charAt(i) == '9') out.setCharAt(i--, '0'); // stops at the guard digit at the latest
+            out.setCharAt(i, (char) (out.charAt(i) + 1));
+        }
+        while (cut > from && out.charAt(cut - 1) == '0') cut--;
+        return cut;
+    }
+}
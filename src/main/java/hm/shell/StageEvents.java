@@ -0,0 +1,100 @@
+package hm.shell;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Flight Recorder events, one per pipeline stage. They cover the work the old string
+ * pipeline split into preprocess (now {@link Lex}), evaluateParentheses / handlePowers /
+ * handleSqrt / handleFactorial (now {@link Parse}, which builds the tree, and {@link Evaluate},
+ * which walks it), calculateFormatted ({@link Evaluate}) and round ({@link Round}).
+ *
+ * <p>Events are only created once Flight Recorder is running: initializing the first event
+ * class bootstraps JFR, which costs a few hundred milliseconds of startup otherwise.
+ * Until then the factories return null and {@link #finish} ignores it, so instrumented code
+ * costs a static read.
+ */
+final class StageEvents {
+
+    private StageEvents() {}
+
+    static Lex lex() {
+        if (!FlightRecorder.isInitialized()) return null;
+        Lex event = new Lex();
+        event.begin();
+        return event;
+    }
+
+    static Parse parse() {
+        if (!FlightRecorder.isInitialized()) return null;
+        Parse event = new Parse();
+        event.begin();
+        return event;
+    }
+
+    static Evaluate evaluate(boolean decimal) {
+        if (!FlightRecorder.isInitialized()) return null;
+        Evaluate event = new Evaluate();
+        event.decimal = decimal;
+        event.begin();
+        return event;
+    }
+
+    static Round round() {
+        if (!FlightRecorder.isInitialized()) return null;
+        Round event = new Round();
+        event.begin();
+        return event;
+    }
+
+    /** Ends the event, if one was started, and commits it if the recording wants it */
+    static void finish(Stage event, int length, boolean failed) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.length = length;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    @Category({ "Calculator", "Evaluation" })
+    @StackTrace(false)
+    abstract static class Stage extends Event {
+        @Label("Length")
+        @Description("Characters in the expression; digits in the value for Round")
+        int length;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("hm.calculator.Lex")
+    @Label("Lex")
+    @Description("Tokenizing an expression")
+    static final class Lex extends Stage {}
+
+    @Name("hm.calculator.Parse")
+    @Label("Parse")
+    @Description("Building the tree for brackets, powers, roots and factorials")
+    static final class Parse extends Stage {}
+
+    @Name("hm.calculator.Evaluate")
+    @Label("Evaluate")
+    @Description("Evaluating a parsed expression")
+    static final class Evaluate extends Stage {
+        @Label("Decimal")
+        boolean decimal;
+    }
+
+    @Name("hm.calculator.Round")
+    @Label("Round")
+    @Description("Rounding a result for display")
+    static final class Round extends Stage {}
+}
@@ -0,0 +1,503 @@
+package hm.shell;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Evaluates a single expression as it is read, for inputs too long to hold as a String,
+ * such as generated sums of products hundreds of megabytes long.
+ *
+ * <p>Characters are tokenized as they arrive and fed straight to an operator-precedence
+ * (shunting-yard) evaluator: each operator is applied as soon as the next one shows it binds
+ * at least as tightly, x and ÷ ({@link ExpressionParser#PRIMARY_OPERATORS}) before + and -
+ * ({@link ExpressionParser#SECONDARY_OPERATORS}). The value and operator stacks then hold only
+ * what is pending in each open bracket or root, so memory grows with nesting depth, not length.
+ *
+ * <p>Grammar, operations and results are those of {@link ExpressionEvaluator} in double, and so
+ * is the error when there are several: an input error found by the {@link Lexer} anywhere,
+ * then the first grammar error, then the first arithmetic error. The rest of the input is
+ * therefore always read. As in the {@link Lexer}, surrounding whitespace is ignored and
+ * positions count from the start of the input, blanks included; positions past
+ * {@code Integer.MAX_VALUE} are reported as that value.
+ */
+public final class StreamingEvaluator {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** 10^0 to 10^22, the powers of ten a double holds exactly */
+    private static final double[] EXACT_POWERS_OF_TEN = new double[23];
+    static {
+        EXACT_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < EXACT_POWERS_OF_TEN.length; i++) EXACT_POWERS_OF_TEN[i] = EXACT_POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /** Operator stack entries besides the binary operators, as in {@link ExpressionParser} */
+    private static final char GROUP = '(', ROOT_GROUP = '[', ROOT = '√';
+
+    /** Where the characters come from: fills the buffer and returns the count, or -1 at the end */
+    @FunctionalInterface
+    private interface Source {
+        int read(char[] buffer) throws IOException;
+    }
+
+    private final Source source;
+
+    // input
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferPos, bufferEnd;
+    /** Offset of the next character to read */
+    private long offset;
+    /** The characters of the number being read, for the ones too long to convert directly */
+    private char[] number = new char[32];
+
+    // tokens: the current one, and the one read ahead when an implicit x was put before it
+    private Scanned token = new Scanned(), ahead = new Scanned();
+    private boolean hasAhead, endsOperand;
+    private int depth;
+    private long outermostOpen = -1;
+
+    // evaluation
+    private double[] values = new double[16];
+    private int valueCount;
+    private char[] operators = new char[16];
+    private int operatorCount;
+    private int openGroups;
+    private MathOperations.CalcException arithmetic;
+
+    private StreamingEvaluator(Source source) {
+        this.source = source;
+    }
+
+    /** Evaluates the expression read from in, to its end; in is not closed */
+    public static double evaluate(Reader in) throws IOException, MathOperations.CalcException {
+        return new StreamingEvaluator(in::read).run();
+    }
+
+    /** Evaluates the UTF-8 expression in a file, mapped into memory a region at a time */
+    public static double evaluate(Path file) throws IOException, MathOperations.CalcException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new StreamingEvaluator(new MappedSource(channel)).run();
+        }
+    }
+
+    private double run() throws IOException, MathOperations.CalcException {
+        int c;
+        do c = read(); while (c >= 0 && Character.isWhitespace(c));
+        unread(c);
+
+        advance();
+        double result;
+        try {
+            result = parse();
+        } catch (GrammarError e) {
+            // an input error further on still takes precedence, as the lexer runs first
+            while (token.type != Token.Type.END) advance();
+            throw e.error;
+        }
+        if (arithmetic != null) throw arithmetic;
+        return result;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Evaluation, in the order of ExpressionParser's rules
+     *------------------------------------------------------------------*/
+
+    /** A grammar error, kept apart from the input errors thrown directly by the tokenizer */
+    private static final class GrammarError extends Exception {
+        final MathOperations.CalcException error;
+
+        GrammarError(MathOperations.CalcException error) {
+            super(null, null, false, false);
+            this.error = error;
+        }
+    }
+
+    private double parse() throws IOException, MathOperations.CalcException, GrammarError {
+        if (token.type == Token.Type.END) throw error(ErrorCode.EMPTY_EXPRESSION);
+        beginExpression();
+        pushValue(parseFactor());
+        while (true) {
+            Token.Type type = token.type;
+            if (isOperator(ExpressionParser.PRIMARY_OPERATORS) || type == Token.Type.IMPLICIT_MULTIPLY) {
+                char op = type == Token.Type.IMPLICIT_MULTIPLY ? 'x' : token.symbol;
+                advance();
+                reduce(ExpressionParser.precedence('x'));
+                pushOperator(op);
+                pushValue(parseFactor());
+            } else if (isOperator(ExpressionParser.SECONDARY_OPERATORS)) {
+                char op = token.symbol;
+                advance();
+                reduce(ExpressionParser.precedence('+'));
+                pushOperator(op);
+                pushValue(parseFactor());
+            } else if (type == Token.Type.RIGHT_BRACKET && openGroups > 0) {
+                pushValue(closeRoots(closeGroup()));
+            } else if (type == Token.Type.END && openGroups == 0) {
+                reduce(ExpressionParser.precedence('+'));
+                return values[0];
+            } else {
+                throw error(openGroups > 0 ? ErrorCode.UNCLOSED_BRACKET : ErrorCode.UNEXPECTED_SYMBOL);
+            }
+        }
+    }
+
+    private void beginExpression() throws IOException, MathOperations.CalcException {
+        if (token.type == Token.Type.OPERATOR && token.symbol == '-') {
+            advance();
+            pushValue(0);
+            pushOperator('-');
+        }
+    }
+
+    private double parseFactor() throws IOException, MathOperations.CalcException, GrammarError {
+        while (true) {
+            switch (token.type) {
+                case SQRT -> {
+                    advance();
+                    if (token.type == Token.Type.LEFT_BRACKET) {
+                        openGroup(ROOT_GROUP);
+                    } else if (!token.startsOperand) {
+                        throw error(ErrorCode.MISSING_ROOT_OPERAND);
+                    } else {
+                        pushOperator(ROOT);
+                    }
+                }
+                case LEFT_BRACKET -> openGroup(GROUP);
+                case NUMBER -> {
+                    double value = token.value;
+                    advance();
+                    return closeRoots(parsePostfix(value));
+                }
+                case END -> throw error(ErrorCode.UNEXPECTED_END);
+                default -> throw error(ErrorCode.UNEXPECTED_SYMBOL);
+            }
+        }
+    }
+
+    private void openGroup(char marker) throws IOException, MathOperations.CalcException, GrammarError {
+        advance(); // '('
+        if (token.type == Token.Type.RIGHT_BRACKET) throw error(ErrorCode.EMPTY_BRACKETS);
+        pushOperator(marker);
+        openGroups++;
+        beginExpression();
+    }
+
+    private double closeGroup() throws IOException, MathOperations.CalcException {
+        advance(); // ')'
+        reduce(ExpressionParser.precedence('+'));
+        char marker = operators[--operatorCount];
+        openGroups--;
+        double inside = values[--valueCount];
+        if (marker == ROOT_GROUP) return parsePostfix(sqrt(parseExponent(inside)));
+        return parsePostfix(inside);
+    }
+
+    private double closeRoots(double value) {
+        while (operatorCount > 0 && operators[operatorCount - 1] == ROOT) {
+            operatorCount--;
+            value = sqrt(value);
+        }
+        return value;
+    }
+
+    private void reduce(int precedence) {
+        while (operatorCount > 0 && ExpressionParser.precedence(operators[operatorCount - 1]) >= precedence) {
+            char op = operators[--operatorCount];
+            double right = values[--valueCount];
+            double left = values[valueCount - 1];
+            values[valueCount - 1] = apply(op, left, right);
+        }
+    }
+
+    private double parsePostfix(double value) throws IOException, MathOperations.CalcException {
+        while (true) {
+            if (token.type == Token.Type.FACTORIAL) {
+                advance();
+                value = factorial(value);
+            } else if (token.type == Token.Type.EXPONENT) {
+                value = parseExponent(value);
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private double parseExponent(double base) throws IOException, MathOperations.CalcException {
+        if (token.type != Token.Type.EXPONENT) return base;
+        double exponent = token.value;
+        advance();
+        return power(base, exponent);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Operations: the first arithmetic error is kept and reported once the input is read
+     *------------------------------------------------------------------*/
+
+    private double apply(char op, double x, double y) {
+        if (arithmetic != null) return Double.NaN;
+        try {
+            return MathOperations.apply(op, x, y);
+        } catch (MathOperations.CalcException e) {
+            arithmetic = e;
+            return Double.NaN;
+        }
+    }
+
+    private double sqrt(double x) {
+        if (arithmetic != null) return Double.NaN;
+        try {
+            return MathOperations.sqrt(x);
+        } catch (MathOperations.CalcException e) {
+            arithmetic = e;
+            return Double.NaN;
+        }
+    }
+
+    private double power(double x, double y) {
+        return arithmetic != null ? Double.NaN : MathOperations.power(x, y);
+    }
+
+    private double factorial(double x) {
+        if (arithmetic != null) return Double.NaN;
+        try {
+            return MathOperations.factorial(x);
+        } catch (MathOperations.CalcException e) {
+            arithmetic = e;
+            return Double.NaN;
+        }
+    }
+
+    private void pushValue(double value) {
+        if (valueCount == values.length) values = Arrays.copyOf(values, valueCount * 2);
+        values[valueCount++] = value;
+    }
+
+    private void pushOperator(char op) {
+        if (operatorCount == operators.length) operators = Arrays.copyOf(operators, operatorCount * 2);
+        operators[operatorCount++] = op;
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Tokens, read as Lexer reads them
+     *------------------------------------------------------------------*/
+
+    /** A token's fields, reused from one token to the next */
+    private static final class Scanned {
+        Token.Type type;
+        long offset;
+        int length;
+        double value;
+        char symbol;
+        /** As {@link Token#startsOperand()} and {@link Token#endsOperand()} */
+        boolean startsOperand, endsOperand;
+
+        void set(Token.Type type, long offset, int length, double value, char symbol) {
+            this.type = type;
+            this.startsOperand = STARTS_OPERAND[type.ordinal()];
+            this.endsOperand = ENDS_OPERAND[type.ordinal()];
+            this.offset = offset;
+            this.length = length;
+            this.value = value;
+            this.symbol = symbol;
+        }
+    }
+
+    /** Moves to the next token, putting an implicit x between two operands as Lexer does */
+    private void advance() throws IOException, MathOperations.CalcException {
+        if (hasAhead) {
+            Scanned t = token;
+            token = ahead;
+            ahead = t;
+            hasAhead = false;
+            return;
+        }
+        boolean afterOperand = endsOperand;
+        scan(token);
+        endsOperand = token.endsOperand;
+        if (afterOperand && token.startsOperand) {
+            Scanned t = ahead;
+            ahead = token;
+            token = t;
+            token.set(Token.Type.IMPLICIT_MULTIPLY, ahead.offset, 0, 0, (char) 0);
+            hasAhead = true;
+        }
+    }
+
+    private static final boolean[] STARTS_OPERAND = new boolean[Token.Type.values().length];
+    private static final boolean[] ENDS_OPERAND = new boolean[Token.Type.values().length];
+    static {
+        for (Token.Type type : Token.Type.values()) {
+            Token token = Token.of(type, 0, 0);
+            STARTS_OPERAND[type.ordinal()] = token.startsOperand();
+            ENDS_OPERAND[type.ordinal()] = token.endsOperand();
+        }
+    }
+
+    private void scan(Scanned t) throws IOException, MathOperations.CalcException {
+        long start = offset;
+        int c = read();
+        if (c < 0) {
+            end(t, start);
+        } else if (Lexer.isDigit((char) c) || c == '.') {
+            int length = 0;
+            boolean dot = false;
+            long mantissa = 0;
+            int fraction = 0;
+            while (c >= 0 && (Lexer.isDigit((char) c) || c == '.')) {
+                if (c == '.') {
+                    if (dot) throw new MathOperations.CalcException(ErrorCode.MISPLACED_DOT, position(offset - 1), 1);
+                    dot = true;
+                } else {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (dot) fraction++;
+                }
+                if (length == number.length) number = Arrays.copyOf(number, length * 2);
+                number[length++] = (char) c;
+                c = read();
+            }
+            unread(c);
+            if (length == 1 && dot) throw new MathOperations.CalcException(ErrorCode.INVALID_NUMBER, position(start), 1);
+            // up to 15 digits and 22 places the quotient of two exact doubles is already correctly rounded
+            double value = length - (dot ? 1 : 0) <= 15 && fraction < EXACT_POWERS_OF_TEN.length
+                    ? mantissa / EXACT_POWERS_OF_TEN[fraction]
+                    : Double.parseDouble(new String(number, 0, length));
+            t.set(Token.Type.NUMBER, start, length, value, (char) 0);
+        } else if (ExpressionParser.isSuperscript((char) c)) {
+            double exponent = 0;
+            int length = 0;
+            while (c >= 0 && ExpressionParser.isSuperscript((char) c)) {
+                exponent = exponent * 10 + ExpressionParser.superscriptValue((char) c);
+                length++;
+                c = read();
+            }
+            unread(c);
+            t.set(Token.Type.EXPONENT, start, length, exponent, (char) 0);
+        } else {
+            switch (c) {
+                case '÷', 'x', '+', '-' -> t.set(Token.Type.OPERATOR, start, 1, 0, (char) c);
+                case '√' -> t.set(Token.Type.SQRT, start, 1, 0, (char) 0);
+                case '!' -> t.set(Token.Type.FACTORIAL, start, 1, 0, (char) 0);
+                case '(' -> {
+                    if (depth++ == 0) outermostOpen = start;
+                    t.set(Token.Type.LEFT_BRACKET, start, 1, 0, (char) 0);
+                }
+                case ')' -> {
+                    if (--depth < 0) throw new MathOperations.CalcException(ErrorCode.UNMATCHED_BRACKET, position(start), 1);
+                    t.set(Token.Type.RIGHT_BRACKET, start, 1, 0, (char) 0);
+                }
+                default -> {
+                    // blanks are allowed only at the end, where the expression ends at the first
+                    if (Character.isWhitespace(c)) {
+                        do c = read(); while (c >= 0 && Character.isWhitespace(c));
+                        if (c < 0) {
+                            end(t, start);
+                            return;
+                        }
+                    }
+                    throw new MathOperations.CalcException(ErrorCode.INVALID_CHARACTER, position(start), 1);
+                }
+            }
+        }
+    }
+
+    private void end(Scanned t, long at) throws MathOperations.CalcException {
+        if (depth > 0) throw new MathOperations.CalcException(ErrorCode.UNCLOSED_BRACKET, position(outermostOpen), 1);
+        t.set(Token.Type.END, at, 0, 0, (char) 0);
+    }
+
+    /** The next character, or -1 at the end */
+    private int read() throws IOException {
+        if (bufferPos == bufferEnd) {
+            int n;
+            do n = source.read(buffer); while (n == 0);
+            if (n < 0) return -1;
+            bufferPos = 0;
+            bufferEnd = n;
+        }
+        offset++;
+        return buffer[bufferPos++];
+    }
+
+    /** Steps back over the character just read, which is still in the buffer */
+    private void unread(int c) {
+        if (c < 0) return;
+        offset--;
+        bufferPos--;
+    }
+
+    private GrammarError error(ErrorCode code) {
+        return new GrammarError(new MathOperations.CalcException(code, position(token.offset), token.length));
+    }
+
+    private boolean isOperator(char[] ops) {
+        return token.type == Token.Type.OPERATOR && ExpressionParser.charContains(ops, token.symbol);
+    }
+
+    private static int position(long offset) {
+        return (int) Math.min(offset, Integer.MAX_VALUE);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Memory-mapped input
+     *------------------------------------------------------------------*/
+
+    /** Decodes UTF-8 from a file mapped a region at a time, so files beyond 2 GB work too */
+    private static final class MappedSource implements Source {
+        private static final long REGION = 1L << 26;
+
+        private final FileChannel channel;
+        private final long size;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private ByteBuffer bytes;
+        private long mapped;
+        private boolean done;
+
+        MappedSource(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        @Override
+        public int read(char[] buffer) throws IOException {
+            CharBuffer out = CharBuffer.wrap(buffer);
+            while (out.position() == 0) {
+                if (done) return -1;
+                if (bytes == null) {
+                    map(0);
+                    continue;
+                }
+                boolean last = mapped + bytes.limit() == size;
+                CoderResult result = decoder.decode(bytes, out, last);
+                if (result.isError()) result.throwException();
+                if (out.position() > 0) break;
+                if (last) {
+                    decoder.flush(out);
+                    done = true;
+                } else {
+                    // what is left of the region is at most part of one character: map from there
+                    map(mapped + bytes.position());
+                }
+            }
+            return out.position();
+        }
+
+        private void map(long from) throws IOException {
+            mapped = from;
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(REGION, size - from));
+        }
+    }
+}
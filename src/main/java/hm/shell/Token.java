@@ -0,0 +1,53 @@
+package hm.shell;
+
+import java.math.BigDecimal;
+
+
+/**
+ * A lexical token of the calculator grammar.
+ *
+ * @param type   kind of token
+ * @param offset index of the first character in the source, for error reporting
+ * @param length number of source characters covered (0 for implicit multiplication)
+ * @param value  numeric value of a NUMBER or EXPONENT token, or the index of a VARIABLE
+ * @param symbol operator character of an OPERATOR token
+ * @param exact  value of a NUMBER or EXPONENT token exactly as written, which {@code value} may
+ *               have rounded; null for the other types
+ */
+public record Token(Type type, int offset, int length, double value, char symbol, BigDecimal exact) {
+
+    public enum Type {
+        NUMBER,
+        /** A single-letter variable declared by the caller */
+        VARIABLE,
+        OPERATOR,
+        /** A run of superscript digits, e.g. ²³ */
+        EXPONENT,
+        SQRT,
+        FACTORIAL,
+        LEFT_BRACKET,
+        RIGHT_BRACKET,
+        /** Zero-width marker where a multiplication is implied, e.g. between 2 and ( in 2(3) */
+        IMPLICIT_MULTIPLY,
+        END
+    }
+
+    Token(Type type, int offset, int length, double value, char symbol) {
+        this(type, offset, length, value, symbol, null);
+    }
+
+    static Token of(Type type, int offset, int length) {
+        return new Token(type, offset, length, 0, (char) 0);
+    }
+
+    /** True for tokens that can close an operand: 2, a, ), !, ² */
+    boolean endsOperand() {
+        return type == Type.NUMBER || type == Type.VARIABLE || type == Type.RIGHT_BRACKET
+                || type == Type.FACTORIAL || type == Type.EXPONENT;
+    }
+
+    /** True for tokens that can open an operand: 2, a, (, √ */
+    boolean startsOperand() {
+        return type == Type.NUMBER || type == Type.VARIABLE || type == Type.LEFT_BRACKET || type == Type.SQRT;
+    }
+}
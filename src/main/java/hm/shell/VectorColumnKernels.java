@@ -0,0 +1,84 @@
+package hm.shell;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * SIMD column kernels on the incubating Vector API. Only loaded when the
+ * {@code jdk.incubator.vector} module is present (run with {@code --add-modules jdk.incubator.vector}).
+ */
+final class VectorColumnKernels implements ColumnKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void add(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = a[i] + b[i];
+    }
+
+    @Override
+    public void subtract(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = a[i] - b[i];
+    }
+
+    @Override
+    public void multiply(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = a[i] * b[i];
+    }
+
+    @Override
+    public void divide(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).div(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = a[i] / b[i];
+    }
+
+    @Override
+    public void sqrt(double[] a, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).lanewise(VectorOperators.SQRT).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = Math.sqrt(a[i]);
+    }
+
+    @Override
+    public boolean anyZero(double[] a, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            if (DoubleVector.fromArray(SPECIES, a, i).eq(0).anyTrue()) return true;
+        }
+        for (; i < n; i++) {
+            if (a[i] == 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean anyNegative(double[] a, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            if (DoubleVector.fromArray(SPECIES, a, i).lt(0).anyTrue()) return true;
+        }
+        for (; i < n; i++) {
+            if (a[i] < 0) return true;
+        }
+        return false;
+    }
+}
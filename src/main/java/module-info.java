@@ -3,8 +3,13 @@ module hm.app.calculatorapp {
     requires javafx.fxml;
     requires java.desktop;
     requires commons.math3;
+    requires static jdk.incubator.vector;
+    requires jdk.jfr;
+    requires java.management;
+    requires jdk.httpserver;
 
 
     opens hm.app.calculatorapp to javafx.fxml;
     exports hm.app.calculatorapp;
+    exports hm.shell;
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package hm.shell;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class AsyncEvaluatorTest {
+
+    private AsyncEvaluator async;
+
+    @AfterEach
+    void close() {
+        if (async != null) async.close();
+    }
+
+    /** Records the callbacks of one submission, in order */
+    private static final class Recorder implements AsyncEvaluator.Callback<Double> {
+        final List<String> outcomes = new ArrayList<>();
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        @Override public synchronized void onResult(Double result) { outcomes.add("result " + result); }
+        @Override public synchronized void onError(MathOperations.CalcException e) { outcomes.add("error " + e.getCode()); }
+        @Override public synchronized void onCancelled() { outcomes.add("cancelled"); }
+        @Override public void onStopped() { stopped.countDown(); }
+
+        synchronized List<String> outcomes() { return List.copyOf(outcomes); }
+
+        void awaitStopped() throws InterruptedException {
+            assertTrue(stopped.await(5, TimeUnit.SECONDS), "computation did not stop");
+        }
+    }
+
+    /** Runs until interrupted, as a long evaluation does */
+    private static double spin() throws MathOperations.CalcException {
+        while (true) AsyncEvaluator.checkInterrupted();
+    }
+
+    @Test
+    void resultIsDelivered() throws InterruptedException {
+        async = new AsyncEvaluator(Duration.ofSeconds(5));
+        Recorder r = new Recorder();
+        AsyncEvaluator.Handle handle = async.submit(() -> new ExpressionEvaluator().evaluate("2+3x4"), Runnable::run, r);
+        r.awaitStopped();
+        assertEquals(List.of("result 14.0"), r.outcomes());
+        assertTrue(handle.isDone());
+        assertFalse(handle.cancel());
+    }
+
+    @Test
+    void errorIsDelivered() throws InterruptedException {
+        async = new AsyncEvaluator(Duration.ofSeconds(5));
+        Recorder r = new Recorder();
+        async.submit(() -> new ExpressionEvaluator().evaluate("1÷0"), Runnable::run, r);
+        r.awaitStopped();
+        assertEquals(List.of("error DIVISION_BY_ZERO"), r.outcomes());
+    }
+
+    @Test
+    void timeoutInterruptsOnce() throws InterruptedException {
+        async = new AsyncEvaluator(Duration.ofMillis(100));
+        Recorder r = new Recorder();
+        AsyncEvaluator.Handle handle = async.submit(AsyncEvaluatorTest::spin, Runnable::run, r);
+        r.awaitStopped();
+        // the interrupted computation's own INTERRUPTED error is not delivered after the timeout
+        assertEquals(List.of("error TIMED_OUT"), r.outcomes());
+        assertTrue(handle.isDone());
+        assertFalse(handle.cancel());
+    }
+
+    @Test
+    void cancelInterruptsOnce() throws InterruptedException {
+        async = new AsyncEvaluator(Duration.ZERO);
+        Recorder r = new Recorder();
+        CountDownLatch started = new CountDownLatch(1);
+        AsyncEvaluator.Handle handle = async.submit(() -> {
+            started.countDown();
+            return spin();
+        }, Runnable::run, r);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(handle.cancel());
+        assertFalse(handle.cancel());
+        r.awaitStopped();
+        assertEquals(List.of("cancelled"), r.outcomes());
+    }
+
+    @Test
+    void timeoutStopsALongExactEvaluation() throws InterruptedException {
+        async = new AsyncEvaluator(Duration.ofMillis(50));
+        DecimalEvaluator decimal = new DecimalEvaluator(MathContext.DECIMAL64);
+        CountDownLatch stopped = new CountDownLatch(1);
+        List<String> outcomes = new ArrayList<>();
+        long start = System.nanoTime();
+        // about a second of exact products unless the evaluation checks for the interrupt
+        async.submit(() -> decimal.evaluate(new ExpressionEvaluator().parse("(100000!)x(99999!)÷7")), Runnable::run,
+                new AsyncEvaluator.Callback<BigDecimal>() {
+                    @Override public synchronized void onResult(BigDecimal result) { outcomes.add("result"); }
+                    @Override public synchronized void onError(MathOperations.CalcException e) { outcomes.add("error " + e.getCode()); }
+                    @Override public void onStopped() { stopped.countDown(); }
+                });
+        assertTrue(stopped.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("error TIMED_OUT"), outcomes);
+        assertTrue(System.nanoTime() - start < Duration.ofMillis(700).toNanos(), "ran to the end");
+    }
+
+    @Test
+    void cancelledBeforeStartingNeverRuns() throws InterruptedException {
+        async = new AsyncEvaluator(Duration.ZERO, 1);
+        Recorder busy = new Recorder();
+        AsyncEvaluator.Handle first = async.submit(AsyncEvaluatorTest::spin, Runnable::run, busy);
+        Recorder queued = new Recorder();
+        boolean[] ran = new boolean[1];
+        AsyncEvaluator.Handle second = async.submit(() -> {
+            ran[0] = true;
+            return 1.0;
+        }, Runnable::run, queued);
+
+        assertTrue(second.cancel());
+        queued.awaitStopped();
+        assertEquals(List.of("cancelled"), queued.outcomes());
+
+        first.cancel();
+        busy.awaitStopped();
+        assertFalse(ran[0]);
+    }
+
+    @Test
+    void timeoutIncludesTheWaitForAWorker() throws InterruptedException {
+        async = new AsyncEvaluator(Duration.ofMillis(200), 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder stubborn = new Recorder();
+        // ignores the interrupt, so it keeps the only worker until released
+        async.submit(() -> {
+            while (release.getCount() > 0) Thread.onSpinWait();
+            return 1.0;
+        }, Runnable::run, stubborn);
+        Recorder waiting = new Recorder();
+        async.submit(() -> 2.0, Runnable::run, waiting);
+
+        waiting.awaitStopped();
+        assertEquals(List.of("error TIMED_OUT"), waiting.outcomes());
+        assertEquals(1, async.busyWorkers());
+
+        release.countDown();
+        stubborn.awaitStopped();
+        assertEquals(List.of("error TIMED_OUT"), stubborn.outcomes());
+    }
+
+    @Test
+    void closeEndsWaitingSubmissions() throws InterruptedException {
+        async = new AsyncEvaluator(Duration.ZERO, 1);
+        Recorder busy = new Recorder();
+        async.submit(AsyncEvaluatorTest::spin, Runnable::run, busy);
+        Recorder queued = new Recorder();
+        async.submit(() -> 1.0, Runnable::run, queued);
+
+        async.close();
+        queued.awaitStopped();
+        assertEquals(List.of("error INTERRUPTED"), queued.outcomes());
+        busy.awaitStopped();
+        assertEquals(List.of("error INTERRUPTED"), busy.outcomes());
+
+        Recorder late = new Recorder();
+        async.submit(() -> 1.0, Runnable::run, late);
+        late.awaitStopped();
+        assertEquals(List.of("error INTERRUPTED"), late.outcomes());
+    }
+}
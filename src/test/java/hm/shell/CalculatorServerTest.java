@@ -0,0 +1,120 @@
+package hm.shell;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.MathContext;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class CalculatorServerTest {
+
+    /** Takes about a second to evaluate exactly */
+    private static final String SLOW = "(100000!)x(99999!)÷7";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private CalculatorServer server;
+
+    @AfterEach
+    void close() {
+        if (server != null) server.close();
+    }
+
+    private void start(CalculatorServer.Limits limits) throws IOException {
+        server = new CalculatorServer(new InetSocketAddress("localhost", 0),
+                new ExpressionCache(new ExpressionEvaluator(), 16), new DecimalEvaluator(MathContext.DECIMAL64), limits);
+        server.start();
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> send(String path, String body) throws IOException, InterruptedException {
+        return send(post(path, body));
+    }
+
+    @Test
+    void evaluatesExactly() throws IOException, InterruptedException {
+        start(CalculatorServer.Limits.DEFAULT);
+        HttpResponse<String> response = send("/evaluate", "{\"expression\": \"2(3+4)²\"}");
+        assertEquals(200, response.statusCode());
+        assertEquals("{\"expression\":\"2(3+4)²\",\"result\":\"98\"}", response.body());
+        assertEquals("{\"expression\":\"9007199254740993+0\",\"result\":\"9007199254740993\"}",
+                send("/evaluate", "{\"expression\": \"9007199254740993+0\"}").body());
+    }
+
+    @Test
+    void errorCarriesCodeAndPosition() throws IOException, InterruptedException {
+        start(CalculatorServer.Limits.DEFAULT);
+        HttpResponse<String> response = send("/evaluate", "{\"expression\": \"2÷÷3\"}");
+        assertEquals(422, response.statusCode());
+        assertTrue(response.body().contains("\"code\":\"UNEXPECTED_SYMBOL\""), response.body());
+        assertTrue(response.body().contains("\"position\":2,\"length\":1"), response.body());
+    }
+
+    @Test
+    void batchAnswersInOrder() throws IOException, InterruptedException {
+        start(CalculatorServer.Limits.DEFAULT);
+        HttpResponse<String> response = send("/batch", "[\"1+1\", \"1÷0\", \"3!\"]");
+        assertEquals(200, response.statusCode());
+        String body = response.body();
+        assertTrue(body.startsWith("[{\"expression\":\"1+1\",\"result\":\"2\"},{\"expression\":\"1÷0\",\"error\":{\"code\":\"DIVISION_BY_ZERO\""), body);
+        assertTrue(body.endsWith("{\"expression\":\"3!\",\"result\":\"6\"}]"), body);
+    }
+
+    @Test
+    void badRequestsAreRejected() throws IOException, InterruptedException {
+        start(new CalculatorServer.Limits(64, 2, 4, Duration.ofSeconds(5)));
+        assertEquals(400, send("/evaluate", "{\"expression\": 2").statusCode());
+        assertEquals(400, send("/evaluate", "{\"formula\": \"2\"}").statusCode());
+        assertEquals(400, send("/batch", "[1, 2]").statusCode());
+        assertEquals(413, send("/batch", "[\"1\", \"2\", \"3\"]").statusCode());
+        assertEquals(413, send("/evaluate", "{\"expression\": \"" + "1+".repeat(40) + "1\"}").statusCode());
+        HttpResponse<String> get = send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/evaluate")).GET().build());
+        assertEquals(405, get.statusCode());
+    }
+
+    @Test
+    void slowEvaluationTimesOut() throws IOException, InterruptedException {
+        start(new CalculatorServer.Limits(1 << 20, 10, 4, Duration.ofMillis(50)));
+        long start = System.nanoTime();
+        HttpResponse<String> response = send("/evaluate", "{\"expression\": \"" + SLOW + "\"}");
+        assertEquals(422, response.statusCode());
+        assertTrue(response.body().contains("\"code\":\"TIMED_OUT\""), response.body());
+        assertTrue(System.nanoTime() - start < Duration.ofMillis(900).toNanos(), "waited for the evaluation");
+    }
+
+    @Test
+    void requestsBeyondTheLimitGet503() throws IOException, InterruptedException {
+        start(new CalculatorServer.Limits(1 << 20, 10, 1, Duration.ofSeconds(10)));
+        CompletableFuture<HttpResponse<String>> busy = client.sendAsync(post("/evaluate", "{\"expression\": \"" + SLOW + "\"}"),
+                HttpResponse.BodyHandlers.ofString());
+
+        // the slow request holds the only permit until its evaluation has finished, about a second
+        Thread.sleep(200);
+        HttpResponse<String> rejected = send("/evaluate", "{\"expression\": \"1+1\"}");
+        assertEquals(503, rejected.statusCode());
+        assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(""));
+
+        assertEquals(200, busy.join().statusCode());
+        assertEquals(200, send("/evaluate", "{\"expression\": \"1+1\"}").statusCode());
+        assertTrue(send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/metrics")).GET().build())
+                .body().contains("\"rejected\":"));
+    }
+}
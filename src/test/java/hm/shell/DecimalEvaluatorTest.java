@@ -0,0 +1,90 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+
+class DecimalEvaluatorTest {
+
+    private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+    private final DecimalEvaluator decimal = new DecimalEvaluator(MathContext.DECIMAL64);
+
+    private BigDecimal evaluate(String expr) throws MathOperations.CalcException {
+        return decimal.evaluate(evaluator.parse(expr));
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Literals
+     *------------------------------------------------------------------*/
+
+    @Test
+    void literalKeepsDigitsBeyondADouble() throws MathOperations.CalcException {
+        DecimalEvaluator wide = new DecimalEvaluator(MathContext.DECIMAL128);
+        assertEquals(new BigDecimal("1.0000000000000000000001"), wide.evaluate(evaluator.parse("1.0000000000000000000001")));
+        assertEquals(new BigDecimal("1E-22"), wide.evaluate(evaluator.parse("1.0000000000000000000001-1")));
+        assertEquals(1.0, evaluator.evaluate("1.0000000000000000000001"));
+    }
+
+    @Test
+    void longLiteralIsRoundedOnlyByTheStepUsingIt() throws MathOperations.CalcException {
+        // rounding the literal to 16 digits first would give ...9.01 - 0.01
+        assertEquals(new BigDecimal("61240270791088.00"), evaluate("61240270791088.008-0.008").setScale(2));
+        assertEquals(new BigDecimal("61240270791088.01"), evaluate("61240270791088.008"));
+    }
+
+
+    @Test
+    void integerJustAbove2To53IsExact() throws MathOperations.CalcException {
+        assertEquals(new BigDecimal("9007199254740993"), evaluate("9007199254740993+0"));
+        assertEquals(new BigDecimal("9007199254740993"), evaluate("9007199254740993"));
+        assertEquals(new BigDecimal("18014398509481986"), evaluate("9007199254740993x2"));
+        assertEquals(new BigDecimal("123456789012345678901"), evaluate("123456789012345678900+1"));
+        // a double would make the exponent even
+        assertEquals(BigDecimal.ONE.negate(), evaluate("(-1)⁹⁰⁰⁷¹⁹⁹²⁵⁴⁷⁴⁰⁹⁹³"));
+    }
+
+    /*------------------------------------------------------------------
+     *  Huge powers
+     *------------------------------------------------------------------*/
+
+    @Test
+    void powerWithinExactLimitIsExact() throws MathOperations.CalcException {
+        assertEquals(BigInteger.valueOf(3).pow(100_000), evaluate("3¹⁰⁰⁰⁰⁰").toBigIntegerExact());
+    }
+
+    @Test
+    void hugePowerIsRoundedQuickly() throws MathOperations.CalcException {
+        // far beyond MAX_EXACT_BITS: must be rounded to the context, not computed in full
+        BigDecimal x = assertTimeoutPreemptively(Duration.ofSeconds(2), () -> evaluate("2⁹⁹⁹⁹⁹⁹⁹⁹⁹"));
+        assertEquals("2.306488000584535E301029995", ResultFormat.DEFAULT.format(x));
+        assertEquals("-2.306488000584535E301029995", ResultFormat.DEFAULT.format(evaluate("(-2)⁹⁹⁹⁹⁹⁹⁹⁹⁹")));
+        assertEquals("4.335595935233868E-301029996", ResultFormat.DEFAULT.format(evaluate("0.5⁹⁹⁹⁹⁹⁹⁹⁹⁹")));
+    }
+
+    @Test
+    void hugePowerOfOneIsOne() throws MathOperations.CalcException {
+        assertEquals(0, BigDecimal.ONE.compareTo(evaluate("1⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹")));
+    }
+
+    @Test
+    void powerBeyondExponentRangeIsOutOfRange() {
+        MathOperations.CalcException e = assertThrows(MathOperations.CalcException.class,
+                () -> evaluate("2⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹⁹"));
+        assertEquals(ErrorCode.OUT_OF_RANGE, e.getCode());
+    }
+
+    @Test
+    void hugePowerOverflowsDouble() throws MathOperations.CalcException {
+        assertEquals(Double.POSITIVE_INFINITY, evaluator.evaluate("2⁹⁹⁹⁹⁹⁹⁹⁹⁹"));
+        assertEquals(0.0, evaluator.evaluate("0.5⁹⁹⁹⁹⁹⁹⁹⁹⁹"));
+    }
+}
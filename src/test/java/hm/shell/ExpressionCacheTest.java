@@ -0,0 +1,81 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class ExpressionCacheTest {
+
+    private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+
+    @Test
+    void repeatedLookupIsAHit() throws MathOperations.CalcException {
+        ExpressionCache cache = new ExpressionCache(evaluator, 4);
+        Expression first = cache.parse("2+3x4");
+        assertSame(first, cache.parse("2+3x4"));
+        assertEquals(14.0, cache.evaluate("2+3x4"));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(2.0 / 3, cache.hitRate());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() throws MathOperations.CalcException {
+        ExpressionCache cache = new ExpressionCache(evaluator, 2);
+        Expression a = cache.parse("1+1");
+        cache.parse("2+2");
+        cache.parse("1+1");
+        cache.parse("3+3");
+        assertEquals(1, cache.evictions());
+        assertEquals(2, cache.size());
+        assertSame(a, cache.parse("1+1"));
+        long misses = cache.misses();
+        cache.parse("2+2");
+        assertEquals(misses + 1, cache.misses());
+    }
+
+    @Test
+    void errorsAreCachedToo() {
+        ExpressionCache cache = new ExpressionCache(evaluator, 4);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(ErrorCode.UNEXPECTED_END, assertThrows(MathOperations.CalcException.class, () -> cache.parse("2x")).getCode());
+            assertEquals(ErrorCode.DIVISION_BY_ZERO, assertThrows(MathOperations.CalcException.class, () -> cache.evaluate("1÷0")).getCode());
+        }
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.hits());
+    }
+
+    @Test
+    void keyIsTheExactText() throws MathOperations.CalcException {
+        ExpressionCache cache = new ExpressionCache(evaluator, 4);
+        assertEquals(5.0, cache.evaluate("5"));
+        assertEquals(5.0, cache.evaluate("  5 "));
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void blanksAroundTheTextAreSkippedAsWithoutTheCache() throws MathOperations.CalcException {
+        ExpressionCache cache = new ExpressionCache(evaluator, 4);
+        assertEquals(evaluator.evaluate("  5"), cache.evaluate("  5"));
+        assertEquals(evaluator.evaluate("\t2x3 "), cache.evaluate("\t2x3 "));
+    }
+
+    @Test
+    void errorPositionsCountFromTheCallersText() {
+        ExpressionCache cache = new ExpressionCache(evaluator, 4);
+        String expr = "   2÷÷3";
+        MathOperations.CalcException cached = assertThrows(MathOperations.CalcException.class, () -> cache.parse(expr));
+        MathOperations.CalcException direct = assertThrows(MathOperations.CalcException.class, () -> evaluator.parse(expr));
+        assertEquals(ErrorCode.UNEXPECTED_SYMBOL, cached.getCode());
+        assertEquals(5, cached.getPosition());
+        assertEquals(direct.getPosition(), cached.getPosition());
+
+        MathOperations.CalcException blank = assertThrows(MathOperations.CalcException.class, () -> cache.parse("  2 3"));
+        assertEquals(ErrorCode.INVALID_CHARACTER, blank.getCode());
+        assertEquals(3, blank.getPosition());
+    }
+}
@@ -0,0 +1,145 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class ExpressionRopeTest {
+
+    private static final String ALPHABET = "0123456789+-x÷.(((())))";
+
+    private static String text(SplittableRandom random, int length) {
+        StringBuilder s = new StringBuilder(length);
+        for (int i = 0; i < length; i++) s.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        return s.toString();
+    }
+
+    /** Brackets open just before index in s, counted the slow way */
+    private static int depthAt(CharSequence s, int index) {
+        int depth = 0;
+        for (int i = 0; i < index; i++) {
+            if (s.charAt(i) == '(') depth++;
+            else if (s.charAt(i) == ')') depth--;
+        }
+        return depth;
+    }
+
+    private static boolean balanced(CharSequence s) {
+        int depth = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '(') depth++;
+            else if (s.charAt(i) == ')' && --depth < 0) return false;
+        }
+        return depth == 0;
+    }
+
+    /** The rope must read as expected, through every accessor */
+    private static void assertReads(StringBuilder expected, ExpressionRope rope, SplittableRandom random) {
+        String s = expected.toString();
+        assertEquals(s.length(), rope.length());
+        assertEquals(s, rope.toString());
+        assertEquals(depthAt(s, s.length()), rope.depth());
+        assertEquals(balanced(s), rope.balanced());
+        if (s.isEmpty()) return;
+
+        int i = random.nextInt(s.length());
+        assertEquals(s.charAt(i), rope.charAt(i));
+        assertEquals(depthAt(s, i), rope.depthAt(i));
+        int from = random.nextInt(s.length() + 1);
+        int to = from + random.nextInt(s.length() - from + 1);
+        assertEquals(s.substring(from, to), rope.subSequence(from, to));
+    }
+
+    @Test
+    void randomEditsMatchAStringBuilder() {
+        SplittableRandom random = new SplittableRandom(24);
+        StringBuilder expected = new StringBuilder();
+        ExpressionRope rope = new ExpressionRope();
+        for (int edit = 0; edit < 20_000; edit++) {
+            int n = expected.length();
+            int from = random.nextInt(n + 1);
+            switch (random.nextInt(10)) {
+                case 0 -> {
+                    // a paste, often longer than a chunk
+                    String s = text(random, random.nextInt(4 * ExpressionRope.CHUNK));
+                    expected.insert(from, s);
+                    rope.insert(from, s);
+                }
+                case 1 -> {
+                    // a cut, often across chunks
+                    int to = from + random.nextInt(Math.min(n - from, 2 * ExpressionRope.CHUNK) + 1);
+                    expected.delete(from, to);
+                    rope.delete(from, to);
+                }
+                case 2 -> {
+                    int to = from + random.nextInt(Math.min(n - from, 8) + 1);
+                    String s = text(random, random.nextInt(8));
+                    expected.replace(from, to, s);
+                    rope.replace(from, to, s);
+                }
+                case 3, 4 -> {
+                    // backspace
+                    if (from > 0) {
+                        expected.deleteCharAt(from - 1);
+                        rope.delete(from - 1, from);
+                    }
+                }
+                default -> {
+                    String s = text(random, 1);
+                    expected.insert(from, s);
+                    rope.insert(from, s);
+                }
+            }
+            if (expected.length() > 20_000) {
+                expected.setLength(0);
+                rope.clear();
+            }
+            assertReads(expected, rope, random);
+        }
+    }
+
+    @Test
+    void longTextIsCutIntoChunks() {
+        SplittableRandom random = new SplittableRandom(3);
+        StringBuilder expected = new StringBuilder(text(random, 100 * ExpressionRope.CHUNK + 17));
+        ExpressionRope rope = new ExpressionRope(expected);
+        assertReads(expected, rope, random);
+        for (int i = 0; i <= expected.length(); i += 97) assertEquals(depthAt(expected, i), rope.depthAt(i));
+
+        expected.insert(5 * ExpressionRope.CHUNK, "(");
+        rope.insert(5 * ExpressionRope.CHUNK, "(");
+        assertReads(expected, rope, random);
+    }
+
+    @Test
+    void bracketsAreCountedAcrossEdits() {
+        ExpressionRope rope = new ExpressionRope("(1+2)");
+        assertTrue(rope.balanced());
+        rope.delete(4, 5);
+        assertEquals(1, rope.depth());
+        assertFalse(rope.balanced());
+        rope.insert(0, ")");
+        assertEquals(0, rope.depth());
+        assertFalse(rope.balanced());
+        assertEquals(-1, rope.depthAt(1));
+        rope.replace(0, 1, "2x");
+        assertEquals("2x(1+2", rope.toString());
+        assertEquals(1, rope.depthAt(6));
+    }
+
+    @Test
+    void indicesOutsideTheTextAreRejected() {
+        ExpressionRope rope = new ExpressionRope("1+2");
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.charAt(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.insert(4, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.delete(2, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.subSequence(2, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> new ExpressionRope().depthAt(1));
+    }
+}
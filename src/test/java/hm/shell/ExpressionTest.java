@@ -0,0 +1,52 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+class ExpressionTest {
+
+    private static final String FORMULA = "√(x)x²+3!-y÷(x+1)+(x+y)(x+y)";
+
+    @Test
+    void defaultEvaluatorCompilesHotExpressions() throws MathOperations.CalcException {
+        Expression f = new ExpressionEvaluator().parse(FORMULA, "x", "y");
+        for (int i = 1; i < ExpressionEvaluator.DEFAULT_COMPILE_THRESHOLD; i++) f.evaluate(i, 2);
+        assertFalse(f.isCompiled());
+        f.evaluate(1, 2);
+        assertTrue(f.isCompiled());
+    }
+
+    @Test
+    void interpretOnlyNeverCompiles() throws MathOperations.CalcException {
+        Expression f = new ExpressionEvaluator(ExpressionEvaluator.INTERPRET_ONLY).parse(FORMULA, "x", "y");
+        for (int i = 0; i < 2 * ExpressionEvaluator.DEFAULT_COMPILE_THRESHOLD; i++) f.evaluate(i, 2);
+        assertFalse(f.isCompiled());
+    }
+
+    @Test
+    void compiledResultsAreBitIdentical() throws MathOperations.CalcException {
+        Expression interpreted = new ExpressionEvaluator(ExpressionEvaluator.INTERPRET_ONLY).parse(FORMULA, "x", "y");
+        Expression compiled = new ExpressionEvaluator(0).parse(FORMULA, "x", "y");
+        assertTrue(compiled.isCompiled());
+        SplittableRandom random = new SplittableRandom(5);
+        for (int i = 0; i < 10_000; i++) {
+            double x = random.nextDouble(0, 1e6), y = random.nextDouble(-1e6, 1e6);
+            assertEquals(Double.doubleToRawLongBits(interpreted.evaluate(x, y)), Double.doubleToRawLongBits(compiled.evaluate(x, y)));
+        }
+    }
+
+    @Test
+    void compiledErrorsMatch() throws MathOperations.CalcException {
+        Expression compiled = new ExpressionEvaluator(0).parse("√(x)+1÷y+x!", "x", "y");
+        assertEquals(ErrorCode.NEGATIVE_SQRT, assertThrows(MathOperations.CalcException.class, () -> compiled.evaluate(-1, 1)).getCode());
+        assertEquals(ErrorCode.DIVISION_BY_ZERO, assertThrows(MathOperations.CalcException.class, () -> compiled.evaluate(4, 0)).getCode());
+        assertEquals(2 + 0.5 + 24, compiled.evaluate(4, 2));
+    }
+}
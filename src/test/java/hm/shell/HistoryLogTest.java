@@ -0,0 +1,145 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class HistoryLogTest {
+
+    /** Where the first record of a segment starts, after the header */
+    private static final int FIRST_RECORD = 8;
+
+    @TempDir
+    Path dir;
+
+    private static List<String> expressions(List<HistoryLog.Entry> entries) {
+        return entries.stream().map(HistoryLog.Entry::expression).toList();
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = files.filter(p -> p.getFileName().toString().startsWith("history-")).toList();
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    @Test
+    void entriesSurviveReopening() throws IOException {
+        try (HistoryLog log = new HistoryLog(dir)) {
+            log.append("1+1", "2");
+            log.append("1÷0", ErrorCode.DIVISION_BY_ZERO);
+            log.append("1+1", "2");
+        }
+        try (HistoryLog log = new HistoryLog(dir)) {
+            assertEquals(3, log.size());
+            assertEquals(List.of("1+1", "1÷0"), expressions(log.searchPrefix("1", 5)));
+            HistoryLog.Entry error = log.recall("1÷", 0);
+            assertEquals(ErrorCode.DIVISION_BY_ZERO, error.error());
+            assertNull(error.result());
+            assertNull(log.recall("1", 2));
+        }
+    }
+
+    @Test
+    void logIsHeldByOneOwner() throws IOException {
+        try (HistoryLog log = new HistoryLog(dir)) {
+            assertThrows(IOException.class, () -> new HistoryLog(dir));
+        }
+    }
+
+    @Test
+    void tornRecordIsDroppedAndOverwritten() throws IOException {
+        try (HistoryLog log = new HistoryLog(dir)) {
+            log.append("1+1", "2");
+        }
+        // a crash mid-append: the body is written, but the size that publishes it is still zero
+        try (RandomAccessFile file = new RandomAccessFile(onlySegment().toFile(), "rw")) {
+            int next = FIRST_RECORD + 4 + 8 + 1 + 4 + 3 + 4 + 1;
+            file.seek(next + 4);
+            file.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 0, 0, 0, 0, 9 });
+        }
+        try (HistoryLog log = new HistoryLog(dir)) {
+            assertEquals(1, log.size());
+            log.append("2+2", "4");
+        }
+        try (HistoryLog log = new HistoryLog(dir)) {
+            assertEquals(List.of("2+2", "1+1"), expressions(log.search("+", 5)));
+            assertEquals(List.of(), log.skippedSegments());
+        }
+    }
+
+    @Test
+    void sizeBeyondTheSegmentEndsIt() throws IOException {
+        try (HistoryLog log = new HistoryLog(dir)) {
+            log.append("1+1", "2");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(onlySegment().toFile(), "rw")) {
+            file.seek(FIRST_RECORD + 25);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+        try (HistoryLog log = new HistoryLog(dir)) {
+            assertEquals(1, log.size());
+        }
+    }
+
+    @Test
+    void corruptSegmentIsSkippedAndReported() throws IOException {
+        try (HistoryLog log = new HistoryLog(dir)) {
+            log.append("1+1", "2");
+            log.append("2+2", "4");
+        }
+        Path segment = onlySegment();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(FIRST_RECORD + 4 + 8);
+            file.write(7); // neither a result nor an error
+        }
+        try (HistoryLog log = new HistoryLog(dir)) {
+            assertEquals(0, log.size());
+            assertEquals(List.of(segment), log.skippedSegments());
+        }
+    }
+
+    @Test
+    void oldestSegmentsAreDeletedBeyondRetention() throws IOException {
+        // room for three records of "nn+nn"="mm" per segment
+        int segmentSize = FIRST_RECORD + 3 * 28 + 4;
+        try (HistoryLog log = new HistoryLog(dir, segmentSize, 2)) {
+            log.size(); // build the index, so retention also updates it
+            for (int i = 10; i < 28; i++) log.append(i + "+" + i, String.valueOf(2 * i));
+            assertEquals(6, log.size());
+            assertEquals(List.of("27+27", "26+26", "25+25", "24+24", "23+23", "22+22"), expressions(log.search("+", 10)));
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.filter(p -> p.getFileName().toString().startsWith("history-")).count());
+        }
+        try (HistoryLog log = new HistoryLog(dir, segmentSize, 2)) {
+            assertEquals(6, log.size());
+            assertNull(log.recall("21", 0));
+        }
+    }
+
+    @Test
+    void recordLargerThanASegmentGetsItsOwn() throws IOException {
+        String big = "1+".repeat(200) + "1";
+        try (HistoryLog log = new HistoryLog(dir, 64, 3)) {
+            log.append(big, "201");
+            log.append("2+2", "4");
+        }
+        try (HistoryLog log = new HistoryLog(dir, 64, 3)) {
+            assertEquals("201", log.recall(big, 0).result());
+            assertEquals(2, log.size());
+        }
+    }
+}
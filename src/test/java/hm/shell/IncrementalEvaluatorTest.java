@@ -0,0 +1,103 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+class IncrementalEvaluatorTest {
+
+    private static final String ALPHABET = "0123456789012345.++--x÷√()!² ";
+
+    private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+    private final DecimalEvaluator decimal = new DecimalEvaluator(MathContext.DECIMAL64);
+    private final IncrementalEvaluator incremental = new IncrementalEvaluator(evaluator, decimal);
+
+    /** The outcome as text: the value, or the error code and position */
+    private String whole(String expr) {
+        try {
+            return decimal.evaluate(evaluator.parse(expr)).stripTrailingZeros().toString();
+        } catch (MathOperations.CalcException e) {
+            return e.getCode() + " at " + e.getPosition();
+        }
+    }
+
+    private String preview() {
+        try {
+            BigDecimal x = incremental.evaluate(incremental.revision());
+            return x.stripTrailingZeros().toString();
+        } catch (MathOperations.CalcException e) {
+            return e.getCode() + " at " + e.getPosition();
+        }
+    }
+
+    private void type(String expr) {
+        incremental.replace(0, incremental.text().length(), "");
+        for (int i = 0; i < expr.length(); i++) {
+            incremental.replace(i, i, expr.substring(i, i + 1));
+            preview();
+        }
+    }
+
+    private void assertPreview(String expr) {
+        type(expr);
+        assertEquals(whole(expr), preview(), expr);
+    }
+
+    @Test
+    void secondSignIsUnexpected() {
+        assertPreview("2--3");
+        assertPreview("1+-42");
+        assertPreview("7x2+-1+3");
+        assertPreview("--3");
+    }
+
+    @Test
+    void missingLastOperandIsUnexpectedEnd() {
+        assertPreview("2+");
+        assertPreview("2+ ");
+        assertPreview("-");
+        assertPreview("1-2x3-");
+    }
+
+    @Test
+    void errorsAreAtTheirPositionInTheText() {
+        assertPreview("1+2+3÷0");
+        assertPreview("1+2+ 3");
+        assertPreview("1+2+√(-4)+3--1");
+        assertPreview("1+2÷0+3..4");
+        assertPreview("  -1+2x+3");
+    }
+
+    @Test
+    void unbalancedTextReportsTheLexerError() {
+        assertPreview("1+2.3.4+(5");
+        assertPreview("1+2)+(");
+    }
+
+    @Test
+    void previewMatchesTheFullTextOnRandomEdits() {
+        SplittableRandom random = new SplittableRandom(11);
+        StringBuilder text = new StringBuilder();
+        for (int edit = 0; edit < 5_000; edit++) {
+            if (text.length() > 30) {
+                text.setLength(0);
+                incremental.replace(0, incremental.text().length(), "");
+            }
+            int from = random.nextInt(text.length() + 1);
+            int to = Math.min(text.length(), from + (random.nextInt(4) == 0 ? random.nextInt(3) : 0));
+            StringBuilder s = new StringBuilder();
+            for (int n = random.nextInt(4) == 0 ? 2 : 1; n > 0; n--) s.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            text.replace(from, to, s.toString());
+            incremental.replace(from, to, s);
+
+            String expr = text.toString();
+            assertEquals(expr, incremental.text().toString());
+            assertEquals(whole(expr), preview(), expr);
+        }
+    }
+}
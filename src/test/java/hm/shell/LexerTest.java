@@ -0,0 +1,122 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class LexerTest {
+
+    private static List<Token.Type> types(List<Token> tokens) {
+        return tokens.stream().map(Token::type).toList();
+    }
+
+    /** The error the Lexer and the evaluator report for expr: its code and the position it points at */
+    private static void assertError(String expr, ErrorCode code, int position) {
+        MathOperations.CalcException e = assertThrows(MathOperations.CalcException.class, () -> Lexer.tokenize(expr));
+        assertEquals(code, e.getCode());
+        assertEquals(position, e.getPosition());
+
+        e = assertThrows(MathOperations.CalcException.class, () -> new ExpressionEvaluator().evaluate(expr));
+        assertEquals(code, e.getCode());
+        assertEquals(position, e.getPosition());
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Tokens
+     *------------------------------------------------------------------*/
+
+    @Test
+    void implicitMultiplicationIsMarked() throws MathOperations.CalcException {
+        List<Token> tokens = Lexer.tokenize("2(3+4)²√9");
+        assertEquals(List.of(Token.Type.NUMBER, Token.Type.IMPLICIT_MULTIPLY, Token.Type.LEFT_BRACKET,
+                Token.Type.NUMBER, Token.Type.OPERATOR, Token.Type.NUMBER, Token.Type.RIGHT_BRACKET,
+                Token.Type.EXPONENT, Token.Type.IMPLICIT_MULTIPLY, Token.Type.SQRT, Token.Type.NUMBER, Token.Type.END),
+                types(tokens));
+        assertEquals(1, tokens.get(1).offset());
+        assertEquals(0, tokens.get(1).length());
+        assertEquals(2.0, tokens.get(7).value());
+        assertEquals(8, tokens.get(10).offset());
+        assertEquals(9, tokens.get(11).offset());
+    }
+
+    @Test
+    void numbersCarryTheirValue() throws MathOperations.CalcException {
+        List<Token> tokens = Lexer.tokenize("12.50+.5x3.");
+        assertEquals(12.5, tokens.get(0).value());
+        assertEquals(new BigDecimal("12.50"), tokens.get(0).exact());
+        assertEquals(5, tokens.get(0).length());
+        assertEquals(0.5, tokens.get(2).value());
+        assertEquals(3.0, tokens.get(4).value());
+        assertEquals('x', tokens.get(3).symbol());
+    }
+
+    @Test
+    void blanksAroundTheInputAreSkipped() throws MathOperations.CalcException {
+        List<Token> tokens = Lexer.tokenize("  1+2\t");
+        assertEquals(List.of(Token.Type.NUMBER, Token.Type.OPERATOR, Token.Type.NUMBER, Token.Type.END), types(tokens));
+        assertEquals(2, tokens.get(0).offset());
+        assertEquals(5, tokens.get(3).offset());
+    }
+
+    @Test
+    void declaredXIsAVariableOrTheMultiplyOperator() throws MathOperations.CalcException {
+        List<Token> tokens = Lexer.tokenize("2x3+x", List.of("x"));
+        assertEquals(List.of(Token.Type.NUMBER, Token.Type.OPERATOR, Token.Type.NUMBER, Token.Type.OPERATOR,
+                Token.Type.VARIABLE, Token.Type.END), types(tokens));
+        assertEquals(List.of(Token.Type.VARIABLE, Token.Type.IMPLICIT_MULTIPLY, Token.Type.VARIABLE, Token.Type.END),
+                types(Lexer.tokenize("xy", List.of("x", "y"))));
+        assertEquals(1.0, Lexer.tokenize("xy", List.of("x", "y")).get(2).value());
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Errors
+     *------------------------------------------------------------------*/
+
+    @Test
+    void malformedNumbersAreRejected() {
+        assertError("1.2.3", ErrorCode.MISPLACED_DOT, 3);
+        assertError("2+.", ErrorCode.INVALID_NUMBER, 2);
+    }
+
+    @Test
+    void bracketsAreChecked() {
+        assertError("(1+2))", ErrorCode.UNMATCHED_BRACKET, 5);
+        // an unclosed bracket points at the outermost one left open
+        assertError("1+(2x(3", ErrorCode.UNCLOSED_BRACKET, 2);
+    }
+
+    @Test
+    void innerBlankIsInvalid() {
+        assertError("1 +2", ErrorCode.INVALID_CHARACTER, 1);
+        assertError("2a", ErrorCode.INVALID_CHARACTER, 1);
+    }
+
+    @Test
+    void firstErrorWins() {
+        assertError("1.2.3+a+(", ErrorCode.MISPLACED_DOT, 3);
+    }
+
+    @Test
+    void arabicIndicDigitIsRejected() {
+        assertError("٣", ErrorCode.INVALID_CHARACTER, 0);
+        assertError("1٣", ErrorCode.INVALID_CHARACTER, 1);
+    }
+
+    @Test
+    void fullwidthDigitIsRejected() {
+        assertError("１2", ErrorCode.INVALID_CHARACTER, 0);
+        assertError("2+５", ErrorCode.INVALID_CHARACTER, 2);
+    }
+
+    @Test
+    void devanagariDigitIsRejected() {
+        assertError("4x७", ErrorCode.INVALID_CHARACTER, 2);
+    }
+}
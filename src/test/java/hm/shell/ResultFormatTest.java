@@ -0,0 +1,111 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class ResultFormatTest {
+
+    /** Every digit, in scientific notation, so the text can be compared with Double.toString's */
+    private static final ResultFormat ALL = new ResultFormat(ResultFormat.Notation.SCIENTIFIC, 0, -1, false, true);
+
+    /** x must read back from its text and show the digits Double.toString shows */
+    private static void assertRoundTrip(double x) throws MathOperations.CalcException {
+        String text = ALL.format(x);
+        assertEquals(x, Double.parseDouble(text), text);
+        assertEquals(0, new BigDecimal(Double.toString(x)).compareTo(new BigDecimal(text)), text);
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Shortest digits
+     *------------------------------------------------------------------*/
+
+    @Test
+    void randomDoublesMatchDoubleToString() throws MathOperations.CalcException {
+        SplittableRandom random = new SplittableRandom(23);
+        for (int i = 0; i < 200_000; i++) {
+            double x = Double.longBitsToDouble(random.nextLong());
+            if (Double.isFinite(x) && x != 0) assertRoundTrip(x);
+        }
+    }
+
+    @Test
+    void edgeDoublesMatchDoubleToString() throws MathOperations.CalcException {
+        for (double x : new double[] { Double.MIN_VALUE, 2 * Double.MIN_VALUE, 3 * Double.MIN_VALUE, Double.MIN_NORMAL,
+                Math.nextDown(Double.MIN_NORMAL), Double.MAX_VALUE, 0x1p53, 0x1p53 + 2, 0x1p-1022 * 3, 1e23, 2e-323,
+                0.1, 0.1 + 0.2, 1.0 / 3, -5e-324, 123456789012345678.0 }) {
+            assertRoundTrip(x);
+        }
+        for (int e = -1074; e <= 1023; e++) {
+            assertRoundTrip(Math.scalb(1.0, e));
+            assertRoundTrip(Math.nextUp(Math.scalb(1.0, e)));
+            assertRoundTrip(Math.nextDown(Math.scalb(1.0, e)));
+        }
+    }
+
+    @Test
+    void integersAreExact() throws MathOperations.CalcException {
+        SplittableRandom random = new SplittableRandom(53);
+        ResultFormat fixed = new ResultFormat(ResultFormat.Notation.FIXED, 0, -1, false, true);
+        for (int i = 0; i < 10_000; i++) {
+            long n = random.nextLong(1L << 53);
+            assertEquals(Long.toString(n), fixed.format((double) n));
+        }
+    }
+
+
+    /*------------------------------------------------------------------
+     *  Layout
+     *------------------------------------------------------------------*/
+
+    @Test
+    void defaultShowsFourPlaces() throws MathOperations.CalcException {
+        assertEquals("1234.5", ResultFormat.DEFAULT.format(1234.5));
+        assertEquals("0.3333", ResultFormat.DEFAULT.format(1.0 / 3));
+        assertEquals("10", ResultFormat.DEFAULT.format(9.99996));
+        assertEquals("0", ResultFormat.DEFAULT.format(-0.0));
+        assertEquals("-2.5", ResultFormat.DEFAULT.format(-2.5));
+    }
+
+    @Test
+    void autoSwitchesToScientific() throws MathOperations.CalcException {
+        assertEquals("1E21", ResultFormat.DEFAULT.format(1e21));
+        assertEquals("1E-5", ResultFormat.DEFAULT.format(1e-5));
+        assertEquals("9007199254740992", ResultFormat.DEFAULT.format(0x1p53));
+        assertEquals("9.007199254740994E15", ResultFormat.DEFAULT.format(0x1p53 + 2));
+        assertEquals("9007199254740993", ResultFormat.DEFAULT.format(new BigDecimal("9007199254740993")));
+    }
+
+    @Test
+    void notationsLayOutTheDigits() throws MathOperations.CalcException {
+        assertEquals("12.345678E6", new ResultFormat(ResultFormat.Notation.ENGINEERING, 0, -1, false, true).format(12345678.0));
+        assertEquals("1.23E4", new ResultFormat(ResultFormat.Notation.SCIENTIFIC, 3, -1, false, true).format(12345.0));
+        assertEquals("1,234,567.5", new ResultFormat(ResultFormat.Notation.FIXED, 0, -1, true, true).format(1234567.5));
+        assertEquals("1.50", new ResultFormat(ResultFormat.Notation.FIXED, 0, 2, false, false).format(1.5));
+        assertEquals("0.000123", new ResultFormat(ResultFormat.Notation.FIXED, 0, -1, false, true).format(new BigDecimal("1.23E-4")));
+    }
+
+    @Test
+    void formattingAppendsToTheBuilder() throws MathOperations.CalcException {
+        StringBuilder out = new StringBuilder("x=");
+        ResultFormat.DEFAULT.format(1.5, out);
+        assertEquals("x=1.5", out.toString());
+        ResultFormat.DEFAULT.format(new BigDecimal("-0.25"), out.append(", "));
+        assertEquals("x=1.5, -0.25", out.toString());
+    }
+
+    @Test
+    void valuesWithoutDigitsAreRejected() {
+        assertEquals(ErrorCode.ROUNDING, assertThrows(MathOperations.CalcException.class,
+                () -> ResultFormat.DEFAULT.format(Double.NaN)).getCode());
+        assertEquals(ErrorCode.ROUNDING, assertThrows(MathOperations.CalcException.class,
+                () -> ResultFormat.DEFAULT.format(Double.NEGATIVE_INFINITY)).getCode());
+        assertThrows(IllegalArgumentException.class, () -> new ResultFormat(ResultFormat.Notation.AUTO, -1, 4, false, true));
+    }
+}
@@ -0,0 +1,101 @@
+package hm.shell;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class StreamingEvaluatorTest {
+
+    @TempDir
+    Path dir;
+
+    private static double evaluate(String expr) throws IOException, MathOperations.CalcException {
+        return StreamingEvaluator.evaluate(new StringReader(expr));
+    }
+
+    /** The error streaming reports for expr, which must be the tree evaluator's */
+    private static void assertError(String expr, ErrorCode code, int position) {
+        MathOperations.CalcException e = assertThrows(MathOperations.CalcException.class, () -> evaluate(expr));
+        assertEquals(code, e.getCode());
+        assertEquals(position, e.getPosition());
+
+        e = assertThrows(MathOperations.CalcException.class, () -> new ExpressionEvaluator().evaluate(expr));
+        assertEquals(code, e.getCode());
+        assertEquals(position, e.getPosition());
+    }
+
+    /** "1+1+...+1" with n ones, produced as it is read rather than held */
+    private static Reader ones(int n) {
+        return new Reader() {
+            private long left = 2L * n - 1;
+
+            @Override
+            public int read(char[] buffer, int off, int len) {
+                if (left == 0) return -1;
+                int count = (int) Math.min(len, left);
+                for (int i = 0; i < count; i++) buffer[off + i] = (left - i) % 2 == 1 ? '1' : '+';
+                left -= count;
+                return count;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    @Test
+    void agreesWithTheTreeEvaluator() throws IOException, MathOperations.CalcException {
+        ExpressionEvaluator tree = new ExpressionEvaluator();
+        for (String expr : new String[] { "2(3+4)²", "-3!+√16÷2", "1.5x2-.25", "2x3²+4÷(1-3)", "√(2)²", "  7-2-1 " }) {
+            assertEquals(tree.evaluate(expr), evaluate(expr), expr);
+        }
+    }
+
+    @Test
+    void longInputIsEvaluatedAsItIsRead() throws IOException, MathOperations.CalcException {
+        assertEquals(1_000_000.0, StreamingEvaluator.evaluate(ones(1_000_000)));
+    }
+
+    @Test
+    void deepNestingNeedsNoRecursion() throws IOException, MathOperations.CalcException {
+        int depth = 200_000;
+        assertEquals(5.0, evaluate("(".repeat(depth) + "2+3" + ")".repeat(depth)));
+    }
+
+    @Test
+    void fileIsRead() throws IOException, MathOperations.CalcException {
+        Path file = dir.resolve("sum.txt");
+        Files.writeString(file, "√(9)x(1+2)÷3\n", StandardCharsets.UTF_8);
+        assertEquals(3.0, StreamingEvaluator.evaluate(file));
+    }
+
+    @Test
+    void lexerErrorAnywhereComesFirst() {
+        assertError("2÷÷3+a", ErrorCode.INVALID_CHARACTER, 5);
+        assertError("1÷0+2x", ErrorCode.UNEXPECTED_END, 6);
+        assertError("1÷0+√(-1)", ErrorCode.DIVISION_BY_ZERO, -1);
+    }
+
+    @Test
+    void nonAsciiDigitsAreInvalid() {
+        assertError("٣", ErrorCode.INVALID_CHARACTER, 0);
+        assertError("2+５", ErrorCode.INVALID_CHARACTER, 2);
+        assertError("4x७", ErrorCode.INVALID_CHARACTER, 2);
+    }
+
+    @Test
+    void positionsCountBlanksBeforeTheInput() {
+        assertError("   2 3", ErrorCode.INVALID_CHARACTER, 4);
+        assertError("  (1", ErrorCode.UNCLOSED_BRACKET, 2);
+    }
+}